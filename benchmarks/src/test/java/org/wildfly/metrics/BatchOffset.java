@@ -3,8 +3,8 @@ package org.wildfly.metrics;
 import com.sun.japex.Constants;
 import com.sun.japex.TestCase;
 import org.joda.time.DateTime;
+import org.wildfly.metrics.storage.Measurements;
 
-import java.util.List;
 
 /**
  * @author Heiko Braun
@@ -53,7 +53,7 @@ public class BatchOffset extends BenchmarkBase {
         super.run(testCase);
 
         long start = System.currentTimeMillis();
-        List<Long[]> measurements = storage.getMeasurements(TestData.METRIC_NAME, offset.getMillis(), now);
+        Measurements measurements = storage.getMeasurements(TestData.METRIC_NAME, offset.getMillis(), now, results);
         setLongParam("NumSamples_"+testCase.getParam("time.window"), measurements.size());
         setLongParam(Constants.RESULT_TIME,  System.currentTimeMillis() - start);
     }
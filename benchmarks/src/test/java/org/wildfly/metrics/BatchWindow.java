@@ -5,8 +5,8 @@ import com.sun.japex.TestCase;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
+import org.wildfly.metrics.storage.Measurements;
 
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -69,7 +69,9 @@ public class BatchWindow extends BenchmarkBase {
         super.run(testCase);
 
         long start = System.currentTimeMillis();
-        List<Long[]> measurements = storage.getMeasurements(TestData.METRIC_NAME, from.getMillis(), to.getMillis());
+        Measurements measurements = null == pool
+                ? storage.getMeasurements(TestData.METRIC_NAME, from.getMillis(), to.getMillis(), results)
+                : storage.getMeasurements(TestData.METRIC_NAME, from.getMillis(), to.getMillis(), results, pool);
         String param = testCase.getParam("time.window");
         setLongParam("NumSamples_"+ param, measurements.size());
         setParam("Window_"+param, (FMT.print(from) + " > " +FMT.print(to)));
@@ -21,12 +21,20 @@ package org.wildfly.metrics;
 
 import com.sun.japex.JapexDriverBase;
 import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
 import org.wildfly.metrics.storage.MetricStorage;
 
 import java.io.File;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 
 /**
+ * Optional driver parameters:
+ * <ul>
+ *     <li><code>storage.layout</code>: the {@link MetricStorage.Layout} (defaults to <code>ENTITY</code>)</li>
+ *     <li><code>series.count</code>: the total number of series in the storage (defaults to 1)</li>
+ * </ul>
+ *
  * @author Heiko Braun
  * @since 26/06/15
  */
@@ -36,14 +44,23 @@ public class BenchmarkBase extends JapexDriverBase {
     private String dataDir;
     protected TestData testData;
 
+    // null if queries run sequentially
+    protected ForkJoinPool pool;
+
+    // reused across iterations
+    protected final Measurements results = new Measurements();
+
     @Override
     public void initializeDriver() {
         dataDir = genStorageName();
-        storage = new MetricStorage(dataDir);
+        storage = new MetricStorage(dataDir, MetricStorage.Layout.valueOf(getParam("storage.layout", "ENTITY")));
         System.out.println("DataDir: " + dataDir);
 
         testData = new TestData();
-        testData.generate(storage);
+        testData.generate(storage, Integer.valueOf(getParam("series.count", "1")));
+
+        if(Boolean.valueOf(getParam("query.parallel", "false")))
+            pool = ForkJoinPool.commonPool();
     }
 
     @Override
@@ -55,6 +72,11 @@ public class BenchmarkBase extends JapexDriverBase {
         }
     }
 
+    private String getParam(String name, String defaultValue) {
+        String value = getParam(name);
+        return null == value ? defaultValue : value;
+    }
+
     private static String genStorageName() {
         String tmpdir = System.getProperty("java.io.tmpdir");
         return tmpdir + File.pathSeparator + "metrics-data-"+ UUID.randomUUID().toString();
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics;
+
+import com.sun.japex.Constants;
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+import org.wildfly.metrics.storage.ShardedMetricStorage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Write throughput of concurrent writers against a {@link ShardedMetricStorage}.
+ * <p>
+ * The driver parameter <code>storage.shards</code> selects the number of shards, <code>writer.threads</code>
+ * the number of concurrent writers. Each writer owns {@link #SERIES_PER_WRITER} metrics and writes
+ * <code>batch.size</code> points per iteration (test case parameter) as a single batch.
+ */
+public class ShardedWriteThroughput extends JapexDriverBase {
+
+    private static final int SERIES_PER_WRITER = 10;
+
+    private ShardedMetricStorage storage;
+    private String dataDir;
+    private ExecutorService executor;
+    private int numWriters;
+
+    private int batchSize;
+    private long offset;
+
+    @Override
+    public void initializeDriver() {
+        dataDir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        String layout = getParam("storage.layout");
+        config.setLayout(MetricStorage.Layout.valueOf(null == layout ? "ORDERED" : layout));
+
+        storage = new ShardedMetricStorage(dataDir, Integer.valueOf(getParam("storage.shards")), config);
+        System.out.println("DataDir: " + dataDir);
+
+        numWriters = Integer.valueOf(getParam("writer.threads"));
+        executor = Executors.newFixedThreadPool(numWriters);
+
+        List<String> names = new ArrayList<>();
+        for (int writer = 0; writer < numWriters; writer++) {
+            for (int i = 0; i < SERIES_PER_WRITER; i++) {
+                names.add(metricName(writer, i));
+            }
+        }
+        storage.registerIfAbsent(names);
+    }
+
+    @Override
+    public void prepare(TestCase testCase) {
+        batchSize = Integer.valueOf(testCase.getParam("batch.size"));
+        offset = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        super.run(testCase);
+
+        // advance the window, so that each iteration appends new data
+        long base = offset;
+        offset += batchSize * TestData.INTERVAL_SECONDS * 1000L;
+
+        long start = System.currentTimeMillis();
+
+        List<Future<?>> futures = new ArrayList<>(numWriters);
+        for (int writer = 0; writer < numWriters; writer++) {
+            int id = writer;
+            futures.add(executor.submit(() -> {
+                MeasurementBatch batch = new MeasurementBatch();
+                for (int i = 0; i < batchSize; i++) {
+                    long timestamp = base + i * TestData.INTERVAL_SECONDS * 1000L;
+                    batch.add(metricName(id, i % SERIES_PER_WRITER), timestamp, (long) (Math.random() * 100));
+                }
+                storage.addMeasurements(batch);
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        long duration = System.currentTimeMillis() - start;
+
+        setLongParam(Constants.RESULT_TIME, duration);
+        setLongParam("PointsPerSecond_"+testCase.getParam("batch.size"), numWriters * batchSize * 1000L / Math.max(1, duration));
+    }
+
+    @Override
+    public void terminateDriver() {
+        executor.shutdown();
+        storage.stop();
+        try {
+            FS.removeDir(dataDir);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String metricName(int writer, int series) {
+        return TestData.METRIC_NAME + "-" + writer + "-" + series;
+    }
+
+    private static String genStorageName() {
+        String tmpdir = System.getProperty("java.io.tmpdir");
+        return tmpdir + File.pathSeparator + "metrics-data-"+ UUID.randomUUID().toString();
+    }
+}
@@ -20,8 +20,12 @@
 package org.wildfly.metrics;
 
 import org.joda.time.DateTime;
+import org.wildfly.metrics.storage.MeasurementBatch;
 import org.wildfly.metrics.storage.MetricStorage;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Heiko Braun
  * @since 26/06/15
@@ -31,6 +35,11 @@ public class TestData {
     public static final String METRIC_NAME = "heap";
     public static final int INTERVAL_SECONDS = 30;
     public final static int NUMBER_OF_DAYS = 7;
+    public final static int BATCH_SIZE = 1000;
+
+    // additional series are sampled less frequently, to keep the setup time reasonable
+    public static final String NOISE_PREFIX = "noise-";
+    public static final int NOISE_INTERVAL_MINUTES = 30;
 
     private DateTime offset;
 
@@ -45,11 +54,25 @@ public class TestData {
     }
 
     public void generate(MetricStorage storage) {
+        generate(storage, 1);
+    }
+
+    /**
+     * @param storage
+     * @param seriesCount the total number of series, including {@link #METRIC_NAME}
+     */
+    public void generate(MetricStorage storage, int seriesCount) {
+
+        if(seriesCount > 1)
+            generateNoise(storage, seriesCount - 1);
 
         System.out.println("Generate test data, hold on ...");
 
         storage.registerMetric(METRIC_NAME);
 
+        // one transaction per batch
+        MeasurementBatch batch = new MeasurementBatch();
+
         long numSamples = 0;
         do {
             ++numSamples;
@@ -60,14 +83,46 @@ public class TestData {
             double probe = random *100;
             int measurement = (int)probe;
 
-            storage.addMeasurement(METRIC_NAME, offset.getMillis(), measurement);
+            batch.add(METRIC_NAME, offset.getMillis(), measurement);
+
+            if(batch.size() == BATCH_SIZE) {
+                storage.addMeasurements(batch);
+                batch = new MeasurementBatch();
+            }
         }
         while (offset.getMillis()< to);
 
+        storage.addMeasurements(batch);
+
         System.out.println("Created "+numSamples+" samples");
 
     }
 
+    private void generateNoise(MetricStorage storage, int numSeries) {
+
+        System.out.println("Generate "+numSeries+" additional series, hold on ...");
+
+        List<String> names = new ArrayList<>(numSeries);
+        for (int i = 0; i < numSeries; i++) {
+            names.add(NOISE_PREFIX + i);
+        }
+        storage.registerIfAbsent(names);
+
+        MeasurementBatch batch = new MeasurementBatch();
+        for (long timestamp = from; timestamp < to; timestamp += NOISE_INTERVAL_MINUTES * 60 * 1000) {
+            for (String name : names) {
+                batch.add(name, timestamp, (long) (Math.random() * 100));
+
+                if(batch.size() == BATCH_SIZE) {
+                    storage.addMeasurements(batch);
+                    batch = new MeasurementBatch();
+                }
+            }
+        }
+
+        storage.addMeasurements(batch);
+    }
+
     public long getTo() {
         return to;
     }
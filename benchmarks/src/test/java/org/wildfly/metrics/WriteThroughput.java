@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics;
+
+import com.sun.japex.Constants;
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.MetricStorage;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares the write throughput of {@link MetricStorage#addMeasurement(String, long, long)}
+ * (one transaction per point), {@link MetricStorage#addMeasurements(String, long[], long[])} (one transaction per batch)
+ * and {@link MetricStorage#addMeasurementAsync(String, long, long)} (points committed in groups).
+ * <p>
+ * The driver parameter <code>write.mode</code> selects the code path (<code>point</code>, <code>batch</code> or <code>async</code>),
+ * the test case parameter <code>batch.size</code> the number of points written per iteration.
+ */
+public class WriteThroughput extends JapexDriverBase {
+
+    private MetricStorage storage;
+    private String dataDir;
+
+    private String writeMode;
+    private long[] timestamps;
+    private long[] values;
+    private long offset;
+
+    @Override
+    public void initializeDriver() {
+        dataDir = genStorageName();
+        String layout = getParam("storage.layout");
+        storage = new MetricStorage(dataDir, MetricStorage.Layout.valueOf(null == layout ? "ENTITY" : layout));
+        storage.registerMetric(TestData.METRIC_NAME);
+        System.out.println("DataDir: " + dataDir);
+
+        writeMode = getParam("write.mode");
+    }
+
+    @Override
+    public void prepare(TestCase testCase) {
+        int batchSize = Integer.valueOf(testCase.getParam("batch.size"));
+        timestamps = new long[batchSize];
+        values = new long[batchSize];
+        offset = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        super.run(testCase);
+
+        // advance the window, so that each iteration appends new data
+        for (int i = 0; i < timestamps.length; i++) {
+            offset += TestData.INTERVAL_SECONDS * 1000;
+            timestamps[i] = offset;
+            values[i] = (long) (Math.random() * 100);
+        }
+
+        long start = System.currentTimeMillis();
+        if("batch".equals(writeMode))
+        {
+            storage.addMeasurements(TestData.METRIC_NAME, timestamps, values);
+        }
+        else if("async".equals(writeMode))
+        {
+            CompletableFuture<?>[] futures = new CompletableFuture[timestamps.length];
+            for (int i = 0; i < timestamps.length; i++) {
+                futures[i] = storage.addMeasurementAsync(TestData.METRIC_NAME, timestamps[i], values[i]);
+            }
+            CompletableFuture.allOf(futures).join();
+        }
+        else
+        {
+            for (int i = 0; i < timestamps.length; i++) {
+                storage.addMeasurement(TestData.METRIC_NAME, timestamps[i], values[i]);
+            }
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        setLongParam(Constants.RESULT_TIME, duration);
+        setLongParam("PointsPerSecond_"+testCase.getParam("batch.size"), timestamps.length * 1000 / Math.max(1, duration));
+    }
+
+    @Override
+    public void terminateDriver() {
+        try {
+            FS.removeDir(dataDir);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String genStorageName() {
+        String tmpdir = System.getProperty("java.io.tmpdir");
+        return tmpdir + File.pathSeparator + "metrics-data-"+ UUID.randomUUID().toString();
+    }
+}
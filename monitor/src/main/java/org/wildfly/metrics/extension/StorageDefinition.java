@@ -74,11 +74,22 @@ public class StorageDefinition extends PersistentResourceDefinition {
                 .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
                 .build();
 
+    static final SimpleAttributeDefinition RETENTION_HOURS = new SimpleAttributeDefinitionBuilder("retention-hours", ModelType.INT,true)
+            .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
+            .setAllowExpression(true)
+            .build();
+
+    static final SimpleAttributeDefinition PARTITION_HOURS = new SimpleAttributeDefinitionBuilder("partition-hours", ModelType.INT,true)
+            .addFlag(AttributeAccess.Flag.RESTART_RESOURCE_SERVICES)
+            .setAllowExpression(true)
+            .build();
+
 
     static final AttributeDefinition[] ATTRIBUTES = {
             URL,
             USER, PASSWORD,
-            TOKEN, DB
+            TOKEN, DB,
+            RETENTION_HOURS, PARTITION_HOURS
     };
 
     @Override
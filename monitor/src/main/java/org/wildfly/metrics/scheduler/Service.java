@@ -36,6 +36,7 @@ import org.wildfly.metrics.scheduler.polling.Scheduler;
 import org.wildfly.metrics.scheduler.polling.Task;
 import org.wildfly.metrics.scheduler.storage.BufferedStorageDispatcher;
 import org.wildfly.metrics.scheduler.storage.InfluxStorageAdapter;
+import org.wildfly.metrics.scheduler.storage.LogStore;
 import org.wildfly.metrics.scheduler.storage.RHQStorageAdapter;
 import org.wildfly.metrics.scheduler.storage.StorageAdapter;
 
@@ -133,7 +134,7 @@ public class Service implements TopologyChangeListener {
         }
         else
         {
-            // TODO
+            storageAdapter = new LogStore();
         }
 
         return storageAdapter;
@@ -197,7 +198,9 @@ public class Service implements TopologyChangeListener {
                 attribute = attribute.substring(0, i);
             }
 
-            tasks.add(new Task(host, server, Address.apply(ref.getAddress()), attribute, subref, ref.getInterval()));
+            // the data points only carry the series id of their task
+            Task task = new Task(host, server, Address.apply(ref.getAddress()), attribute, subref, ref.getInterval());
+            tasks.add(task.withSeriesId(storageAdapter.resolveSeries(task)));
         }
         return tasks;
     }
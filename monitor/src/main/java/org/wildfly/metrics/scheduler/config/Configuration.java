@@ -83,6 +83,18 @@ public interface Configuration {
 
     String getStorageToken();
 
+    /**
+     * How long the local storage retains data (ms), zero or less retains it forever.
+     * @return
+     */
+    long getStorageRetention();
+
+    /**
+     * Time span of a local storage partition (ms).
+     * @return
+     */
+    long getStoragePartitionSize();
+
     Diagnostics getDiagnostics();
 
     void addProperty(String name, String value);
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A collection of {@link ResourceRef}s with a unique id.
@@ -44,6 +45,8 @@ public class ConfigurationInstance implements Configuration {
     private String storagePassword = null;
     private String storageDb = null;
     private String storageToken = null;
+    private long storageRetention = 0;
+    private long storagePartitionSize = TimeUnit.DAYS.toMillis(1);
     private Storage storageAdapter = Storage.INFLUX;
 
     private Diagnostics diagnostics = Diagnostics.CONSOLE;
@@ -174,6 +177,24 @@ public class ConfigurationInstance implements Configuration {
         this.storageToken = storageToken;
     }
 
+    @Override
+    public long getStorageRetention() {
+        return storageRetention;
+    }
+
+    public void setStorageRetention(long storageRetention) {
+        this.storageRetention = storageRetention;
+    }
+
+    @Override
+    public long getStoragePartitionSize() {
+        return storagePartitionSize;
+    }
+
+    public void setStoragePartitionSize(long storagePartitionSize) {
+        this.storagePartitionSize = storagePartitionSize;
+    }
+
     public String getUser() {
         return user;
     }
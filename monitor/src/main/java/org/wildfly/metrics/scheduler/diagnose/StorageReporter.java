@@ -36,6 +36,7 @@ import org.wildfly.metrics.scheduler.storage.StorageAdapter;
 
 import java.io.PrintStream;
 import java.text.DateFormat;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
@@ -54,6 +55,7 @@ public class StorageReporter extends ScheduledReporter {
     private final Locale locale;
     private final Clock clock;
     private final DateFormat dateFormat;
+    private final Map<String, Integer> seriesIds = new HashMap<>();
 
     private StorageReporter(MetricRegistry registry,
                             Locale locale,
@@ -89,7 +91,7 @@ public class StorageReporter extends ScheduledReporter {
 
                 samples.add(
                         new DataPoint(
-                                new Task("foo", "bar", Address.apply("service=metric-scheduler"), entry.getKey(), null, Interval.EACH_SECOND),
+                                resolveSeries(entry.getKey()),
                                 gauge.getValue()
                         )
                 );
@@ -103,7 +105,7 @@ public class StorageReporter extends ScheduledReporter {
             for (Map.Entry<String, Counter> entry : counters.entrySet()) {
                 samples.add(
                         new DataPoint(
-                                new Task("foo", "bar", Address.apply("service=metric-scheduler"), entry.getKey(), null, Interval.EACH_SECOND),
+                                resolveSeries(entry.getKey()),
                                 entry.getValue().getCount()
                         )
                 );
@@ -135,7 +137,7 @@ public class StorageReporter extends ScheduledReporter {
                 Meter meter = entry.getValue();
                 samples.add(
                         new DataPoint(
-                                new Task("foo", "bar", Address.apply("service=metric-scheduler"), entry.getKey(), null, Interval.EACH_SECOND),
+                                resolveSeries(entry.getKey()),
                                 meter.getOneMinuteRate()
                         )
                 );
@@ -152,7 +154,7 @@ public class StorageReporter extends ScheduledReporter {
 
                 samples.add(
                         new DataPoint(
-                                new Task("foo", "bar", Address.apply("service=metric-scheduler"), entry.getKey(), null, Interval.EACH_SECOND),
+                                resolveSeries(entry.getKey()),
                                 timer.getSnapshot().get75thPercentile()
                         )
                 );
@@ -163,6 +165,15 @@ public class StorageReporter extends ScheduledReporter {
 
     }
 
+    /**
+     * The series ids of the diagnostic metrics are resolved once, on their first report.
+     */
+    private int resolveSeries(String metricName) {
+        return seriesIds.computeIfAbsent(metricName, name -> storageAdapter.resolveSeries(
+                new Task("foo", "bar", Address.apply("service=metric-scheduler"), name, null, Interval.EACH_SECOND)
+        ));
+    }
+
     public static Builder forRegistry(MetricRegistry registry, StorageAdapter storageAdapter) {
         return new Builder(registry, storageAdapter);
     }
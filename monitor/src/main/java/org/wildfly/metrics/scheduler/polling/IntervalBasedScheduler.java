@@ -191,7 +191,7 @@ public class IntervalBasedScheduler extends AbstractScheduler {
 
                         // deconstruct model node
                         ModelNode data = step.getValue();
-                        Double value = null;
+                        double value;
                         if(task.getSubref()!=null)
                         {
                             value = data.get(RESULT).get(task.getSubref()).asDouble();
@@ -201,7 +201,7 @@ public class IntervalBasedScheduler extends AbstractScheduler {
                             value = data.get(RESULT).asDouble();
                         }
 
-                        completionHandler.onCompleted(new DataPoint(task, value));
+                        completionHandler.onCompleted(new DataPoint(task.getSeriesId(), value));
                         i++;
                     }
 
@@ -30,12 +30,15 @@ import org.wildfly.metrics.scheduler.config.Interval;
  */
 public class Task {
 
+    public static final int UNASSIGNED = -1;
+
     private final String host;
     private final String server;
     private final Address address;
     private final String attribute;
     private final String subref;
     private final Interval interval;
+    private final int seriesId;
 
     public Task(
             String host, String server,
@@ -43,6 +46,17 @@ public class Task {
             String attribute,
             String subref,
             Interval interval
+    ) {
+        this(host, server, address, attribute, subref, interval, UNASSIGNED);
+    }
+
+    private Task(
+            String host, String server,
+            Address address,
+            String attribute,
+            String subref,
+            Interval interval,
+            int seriesId
     ) {
         this.host = host;
         this.server = server;
@@ -50,6 +64,14 @@ public class Task {
         this.attribute = attribute;
         this.subref = subref;
         this.interval = interval;
+        this.seriesId = seriesId;
+    }
+
+    /**
+     * @return a copy of this task that carries the series id of it's data points
+     */
+    public Task withSeriesId(int seriesId) {
+        return new Task(host, server, address, attribute, subref, interval, seriesId);
     }
 
     public Address getAddress() {
@@ -76,11 +98,20 @@ public class Task {
         return server;
     }
 
+    /**
+     * @return the series id assigned by the storage, or {@link #UNASSIGNED}
+     * @see org.wildfly.metrics.scheduler.storage.StorageAdapter#resolveSeries(Task)
+     */
+    public int getSeriesId() {
+        return seriesId;
+    }
+
     @Override
     public String toString() {
         return "Task{" +
                 "address=" + address +
                 ", attribute='" + attribute + '\'' +
+                ", seriesId=" + seriesId +
                 '}';
     }
 }
@@ -58,7 +58,6 @@ public class BufferedStorageDispatcher implements Scheduler.CompletionHandler {
     @Override
     public void onCompleted(DataPoint sample) {
         if(queue.remainingCapacity()>0) {
-            //System.out.println(sample.getTask().getAttribute()+" > "+sample.getValue());
             diagnostics.getStorageBufferSize().inc();
             queue.add(sample);
         }
@@ -19,25 +19,26 @@
 
 package org.wildfly.metrics.scheduler.storage;
 
-import org.wildfly.metrics.scheduler.polling.Task;
-
 /**
+ * A measurement of a series, identified by the series id of it's task.
+ *
+ * @see org.wildfly.metrics.scheduler.polling.Task#getSeriesId()
  * @author Heiko Braun
  * @since 13/10/14
  */
 public final class DataPoint {
-    private Task task;
+    private int seriesId;
     private long timestamp;
     private double value;
 
-    public DataPoint(Task task, double value) {
-        this.task = task;
+    public DataPoint(int seriesId, double value) {
+        this.seriesId = seriesId;
         this.timestamp = System.currentTimeMillis();
         this.value = value;
     }
 
-    public Task getTask() {
-        return task;
+    public int getSeriesId() {
+        return seriesId;
     }
 
     public long getTimestamp() {
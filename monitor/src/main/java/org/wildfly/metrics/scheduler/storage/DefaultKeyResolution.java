@@ -19,7 +19,12 @@
 
 package org.wildfly.metrics.scheduler.storage;
 
+import org.wildfly.metrics.scheduler.config.Address;
 import org.wildfly.metrics.scheduler.polling.Task;
+import org.wildfly.metrics.storage.Labels;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Resolve data input attributes to final metric (storage) names.
@@ -42,4 +47,24 @@ public class DefaultKeyResolution implements KeyResolution {
         }
 
     }
+
+    /**
+     * The labels of the series a task writes to: the address tuples (i.e. <code>subsystem=datasources</code>),
+     * <code>host</code>, <code>server</code>, <code>attribute</code> and <code>subref</code>.
+     * Empty values are omitted.
+     */
+    public Labels resolveLabels(Task task) {
+        Map<String, String> labels = new HashMap<>();
+        if(task.getAddress() != null)
+        {
+            for (Address.Tuple tuple : task.getAddress()) {
+                labels.put(tuple.getKey(), tuple.getValue());
+            }
+        }
+        labels.put("host", task.getHost());
+        labels.put("server", task.getServer());
+        labels.put("attribute", task.getAttribute());
+        labels.put("subref", task.getSubref());
+        return Labels.of(labels);
+    }
 }
@@ -42,6 +42,7 @@ public class InfluxStorageAdapter implements StorageAdapter {
     private Diagnostics diagnostics;
     private Configuration config;
     private DefaultKeyResolution keyResolution;
+    private final SeriesDictionary dictionary = new SeriesDictionary();
 
     @Override
     public void init(Configuration config, Diagnostics diagnostics) {
@@ -61,6 +62,11 @@ public class InfluxStorageAdapter implements StorageAdapter {
 
     }
 
+    @Override
+    public int resolveSeries(Task task) {
+        return dictionary.getOrCreate(keyResolution.resolve(task));
+    }
+
     @Override
     public void store(Set<DataPoint> datapoints) {
 
@@ -70,8 +76,7 @@ public class InfluxStorageAdapter implements StorageAdapter {
             int i=0;
             for (DataPoint datapoint : datapoints) {
 
-                Task task = datapoint.getTask();
-                String key = keyResolution.resolve(task);
+                String key = dictionary.getName(datapoint.getSeriesId());
                 Serie dataPoint = new Serie.Builder(key)
                         .columns("datapoint")
                         .values(datapoint.getValue())
@@ -19,33 +19,129 @@
 
 package org.wildfly.metrics.scheduler.storage;
 
+import org.wildfly.metrics.scheduler.SchedulerLogger;
 import org.wildfly.metrics.scheduler.config.Configuration;
 import org.wildfly.metrics.scheduler.diagnose.Diagnostics;
+import org.wildfly.metrics.scheduler.polling.Task;
+import org.wildfly.metrics.storage.Labels;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
 
+import java.util.BitSet;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Writes the data to a local {@link MetricStorage}. The storage url is used as the data directory.
+ * <p>
+ * Data expires in whole partitions, according to the configured retention.
+ * Metrics are registered with the labels of their task, so that they can be selected by host, server or attribute.
+ *
  * @author Heiko Braun
  * @since 23/06/15
  */
 public class LogStore implements StorageAdapter {
+
+    private static final long MAX_RETENTION_CHECK = TimeUnit.HOURS.toMillis(1);
+
+    private MetricStorage storage;
+    private Diagnostics diagnostics;
+    private DefaultKeyResolution keyResolution;
+    private ScheduledExecutorService retention;
+    private long retentionCheckInterval;
+
+    // series ids of the metrics with long values
+    private final BitSet longSeries = new BitSet();
+
     @Override
     public void init(Configuration config, Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        this.keyResolution = new DefaultKeyResolution();
+
+        MetricStorageConfig storageConfig = new MetricStorageConfig();
+        storageConfig.setLayout(MetricStorage.Layout.ORDERED);
+        storageConfig.setPartitionSize(config.getStoragePartitionSize());
+        storageConfig.setRetention(config.getStorageRetention());
 
+        String dataDir = config.getStorageUrl();
+        if(dataDir.startsWith("file:"))
+            dataDir = dataDir.substring("file:".length());
+
+        this.storage = new MetricStorage(dataDir, storageConfig);
+        this.retentionCheckInterval = Math.min(config.getStoragePartitionSize(), MAX_RETENTION_CHECK);
+
+        if(config.getStorageRetention() > 0)
+        {
+            this.retention = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metric-storage-retention");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     @Override
     public void start() {
+        if(retention != null)
+        {
+            retention.scheduleWithFixedDelay(() -> {
+                try {
+                    storage.enforceRetention();
+                } catch (Throwable t) {
+                    diagnostics.getStorageErrorRate().mark(1);
+                    SchedulerLogger.LOGGER.error("Failed to enforce retention", t);
+                }
+            }, 0, retentionCheckInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The metric keys of the storage act as the dictionary: ids are persisted along with the metric names.
+     * Metrics are created with double values, the ones created with long values by previous versions are retained.
+     */
+    @Override
+    public int resolveSeries(Task task) {
+        String key = keyResolution.resolve(task);
+        Labels labels = keyResolution.resolveLabels(task);
 
+        int seriesId = storage.registerIfAbsent(key, labels, MetricStorage.ValueType.DOUBLE);
+        if(storage.getValueType(seriesId) == MetricStorage.ValueType.LONG)
+        {
+            synchronized (longSeries) {
+                longSeries.set(seriesId);
+            }
+        }
+        return seriesId;
     }
 
     @Override
     public void store(Set<DataPoint> datapoints) {
+        try {
+            MeasurementBatch batch = new MeasurementBatch();
+            synchronized (longSeries) {
+                for (DataPoint datapoint : datapoints) {
+                    if(longSeries.get(datapoint.getSeriesId()))
+                        batch.add(datapoint.getSeriesId(), datapoint.getTimestamp(), (long) datapoint.getValue());
+                    else
+                        batch.add(datapoint.getSeriesId(), datapoint.getTimestamp(), datapoint.getValue());
+                }
+            }
+            storage.addMeasurements(batch);
 
+        } catch (Throwable t) {
+            diagnostics.getStorageErrorRate().mark(1);
+            SchedulerLogger.LOGGER.error("Failed to store data points", t);
+        }
     }
 
     @Override
     public void stop() {
+        if(retention != null)
+            retention.shutdownNow();
 
+        storage.stop();
     }
 }
@@ -21,6 +21,7 @@ package org.wildfly.metrics.scheduler.storage;
 
 import org.wildfly.metrics.scheduler.config.Configuration;
 import org.wildfly.metrics.scheduler.diagnose.Diagnostics;
+import org.wildfly.metrics.scheduler.polling.Task;
 
 import java.util.Set;
 
@@ -29,6 +30,10 @@ import java.util.Set;
  * @since 10/06/15
  */
 public class RHQStorageAdapter implements StorageAdapter {
+
+    private final SeriesDictionary dictionary = new SeriesDictionary();
+    private final KeyResolution keyResolution = new DefaultKeyResolution();
+
     @Override
     public void init(Configuration config, Diagnostics diagnostics) {
 
@@ -39,6 +44,11 @@ public class RHQStorageAdapter implements StorageAdapter {
 
     }
 
+    @Override
+    public int resolveSeries(Task task) {
+        return dictionary.getOrCreate(keyResolution.resolve(task));
+    }
+
     @Override
     public void store(Set<DataPoint> datapoints) {
 
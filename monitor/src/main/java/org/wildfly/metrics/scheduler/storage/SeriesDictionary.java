@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.scheduler.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns compact series ids to metric names, for storage adapters that don't keep a dictionary of their own.
+ * The ids are only valid for the lifetime of the instance.
+ */
+class SeriesDictionary {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private volatile String[] names = new String[64];
+
+    synchronized int getOrCreate(String name) {
+        Integer id = ids.get(name);
+        if(null == id)
+        {
+            id = ids.size();
+            if(id >= names.length)
+                names = Arrays.copyOf(names, names.length * 2);
+            names[id] = name;
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the id has not been assigned
+     */
+    String getName(int id) {
+        String[] current = names;
+        String name = id >= 0 && id < current.length ? current[id] : null;
+        if(null == name)
+            throw new IllegalArgumentException("Unknown series: "+id);
+        return name;
+    }
+}
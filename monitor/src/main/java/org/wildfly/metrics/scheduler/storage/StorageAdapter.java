@@ -21,6 +21,7 @@ package org.wildfly.metrics.scheduler.storage;
 
 import org.wildfly.metrics.scheduler.config.Configuration;
 import org.wildfly.metrics.scheduler.diagnose.Diagnostics;
+import org.wildfly.metrics.scheduler.polling.Task;
 
 import java.util.Set;
 
@@ -31,6 +32,15 @@ import java.util.Set;
 public interface StorageAdapter {
     void init(Configuration config, Diagnostics diagnostics);
     void start();
+
+    /**
+     * Assigns a compact series id to the metric of a task. Invoked once per task, before it's scheduled,
+     * the data points only carry the id.
+     *
+     * @return the same id for the same metric
+     */
+    int resolveSeries(Task task);
+
     void store(Set<DataPoint> datapoints);
     void stop();
 }
@@ -118,6 +118,12 @@ public class MetricsService implements Service<MetricsService> {
                 if(storageAdapterCfg.hasDefined("token"))
                     schedulerConfig.setStorageToken(storageAdapterCfg.get("token").asString());
 
+                if(storageAdapterCfg.hasDefined("retention-hours"))
+                    schedulerConfig.setStorageRetention(TimeUnit.HOURS.toMillis(storageAdapterCfg.get("retention-hours").asInt()));
+
+                if(storageAdapterCfg.hasDefined("partition-hours"))
+                    schedulerConfig.setStoragePartitionSize(TimeUnit.HOURS.toMillis(storageAdapterCfg.get("partition-hours").asInt()));
+
                 // monitoring setup
                 schedulerConfig.setSchedulerThreads(monitorCfg.get("num-threads").asInt());
 
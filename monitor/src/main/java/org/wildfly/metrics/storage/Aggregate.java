@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+/**
+ * The aggregate of the measurements within a time range.
+ * Apart from {@link #getCount()}, the values are undefined if the range didn't contain any measurements.
+ *
+ * @see MetricStorage#getAggregate(String, long, long)
+ */
+public class Aggregate {
+
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private long sum;
+    private long count;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long last;
+
+    void add(long timestamp, long value) {
+        merge(value, value, value, 1, timestamp, value);
+    }
+
+    void merge(long min, long max, long sum, long count, long lastTimestamp, long last) {
+        if(count == 0)
+            return;
+
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+        this.sum += sum;
+        this.count += count;
+
+        if(this.count == count || lastTimestamp >= this.lastTimestamp)
+        {
+            this.lastTimestamp = lastTimestamp;
+            this.last = last;
+        }
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the average, {@link Double#NaN} if there are no measurements
+     */
+    public double getAverage() {
+        return count == 0 ? Double.NaN : (double) sum / count;
+    }
+
+    /**
+     * @return the value of the most recent measurement
+     */
+    public long getLast() {
+        return last;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+/**
+ * Counterpart to {@link BitWriter}.
+ */
+class BitReader {
+
+    private final byte[] buffer;
+    private int position; // in bits
+
+    BitReader(byte[] buffer, int offsetInBytes) {
+        this.buffer = buffer;
+        this.position = offsetInBytes << 3;
+    }
+
+    boolean readBit() {
+        boolean bit = (buffer[position >>> 3] & (0x80 >>> (position & 7))) != 0;
+        position++;
+        return bit;
+    }
+
+    long readBits(int bits) {
+        long result = 0;
+        while (bits > 0) {
+            int free = 8 - (position & 7);
+            int n = Math.min(free, bits);
+            int b = buffer[position >>> 3] & 0xFF;
+            int chunk = (b >>> (free - n)) & ((1 << n) - 1);
+            result = (result << n) | chunk;
+            position += n;
+            bits -= n;
+        }
+        return result;
+    }
+}
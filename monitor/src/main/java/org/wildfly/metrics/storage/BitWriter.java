@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.Arrays;
+
+/**
+ * Growable, MSB-first bit sink used by the chunk encoding.
+ */
+class BitWriter {
+
+    private byte[] buffer;
+    private int position; // in bits
+
+    BitWriter() {
+        this(64);
+    }
+
+    BitWriter(int initialBytes) {
+        this.buffer = new byte[Math.max(initialBytes, 8)];
+    }
+
+    private BitWriter(byte[] buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    void writeBit(boolean bit) {
+        ensureCapacity(1);
+        if(bit)
+            buffer[position >>> 3] |= (byte) (0x80 >>> (position & 7));
+        position++;
+    }
+
+    /**
+     * Writes the lowest <code>bits</code> of <code>value</code>, most significant bit first.
+     */
+    void writeBits(long value, int bits) {
+        ensureCapacity(bits);
+        while (bits > 0) {
+            int free = 8 - (position & 7);
+            int n = Math.min(free, bits);
+            int shift = bits - n;
+            int chunk = (int) ((value >>> shift) & ((1 << n) - 1));
+            buffer[position >>> 3] |= (byte) (chunk << (free - n));
+            position += n;
+            bits -= n;
+        }
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    int getSizeInBytes() {
+        return (position + 7) >>> 3;
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    BitWriter copy() {
+        return new BitWriter(Arrays.copyOf(buffer, buffer.length), position);
+    }
+
+    private void ensureCapacity(int bits) {
+        int required = (position + bits + 7) >>> 3;
+        if(required > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+    }
+}
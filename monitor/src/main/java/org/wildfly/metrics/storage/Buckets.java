@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.Arrays;
+
+/**
+ * Columnar, primitive representation of aggregated measurements:
+ * one <code>(start, min, max, sum, count)</code> tuple per time bucket, ordered by start.
+ * <p>
+ * Like {@link Measurements}, instances can be reused across queries
+ * (see {@link MetricStorage#getBuckets(String, long, long, long, Buckets)}).
+ */
+public class Buckets {
+
+    private long[] starts;
+    private long[] mins;
+    private long[] maxs;
+    private long[] sums;
+    private long[] counts;
+    private int size;
+
+    public Buckets() {
+        this(16);
+    }
+
+    public Buckets(int capacity) {
+        this.starts = new long[capacity];
+        this.mins = new long[capacity];
+        this.maxs = new long[capacity];
+        this.sums = new long[capacity];
+        this.counts = new long[capacity];
+    }
+
+    /**
+     * Adds a bucket, or merges it with an existing bucket of the same start.
+     * Buckets are kept ordered by their start.
+     */
+    public void merge(long start, long min, long max, long sum, long count) {
+
+        int i;
+        if(size == 0 || starts[size - 1] < start)
+            i = -(size + 1);
+        else if(starts[size - 1] == start)
+            i = size - 1;
+        else
+            i = Arrays.binarySearch(starts, 0, size, start);
+
+        if(i >= 0)
+        {
+            mins[i] = Math.min(mins[i], min);
+            maxs[i] = Math.max(maxs[i], max);
+            sums[i] += sum;
+            counts[i] += count;
+            return;
+        }
+
+        insert(-(i + 1), start, min, max, sum, count);
+    }
+
+    private void insert(int i, long start, long min, long max, long sum, long count) {
+        if(size == starts.length)
+        {
+            int capacity = Math.max(16, size * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        if(i < size)
+        {
+            int n = size - i;
+            System.arraycopy(starts, i, starts, i + 1, n);
+            System.arraycopy(mins, i, mins, i + 1, n);
+            System.arraycopy(maxs, i, maxs, i + 1, n);
+            System.arraycopy(sums, i, sums, i + 1, n);
+            System.arraycopy(counts, i, counts, i + 1, n);
+        }
+
+        starts[i] = start;
+        mins[i] = min;
+        maxs[i] = max;
+        sums[i] = sum;
+        counts[i] = count;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Resets the size, but retains the allocated capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public long getStart(int i) {
+        return starts[i];
+    }
+
+    public long getMin(int i) {
+        return mins[i];
+    }
+
+    public long getMax(int i) {
+        return maxs[i];
+    }
+
+    public long getSum(int i) {
+        return sums[i];
+    }
+
+    public long getCount(int i) {
+        return counts[i];
+    }
+
+    public double getAverage(int i) {
+        return (double) sums[i] / counts[i];
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+/**
+ * A snapshot of the counters of a cache.
+ *
+ * @see MetricStorage#getCacheStatistics()
+ */
+public class CacheStatistics {
+
+    private final long maxBytes;
+    private final long bytes;
+    private final int entries;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    CacheStatistics(long maxBytes, long bytes, int entries, long hits, long misses, long evictions) {
+        this.maxBytes = maxBytes;
+        this.bytes = bytes;
+        this.entries = entries;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * @return the budget of the cache, zero if it's disabled
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the estimated size of the cached entries
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the ratio of hits to lookups, {@link Double#NaN} if there haven't been any lookups
+     */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" +
+                "maxBytes=" + maxBytes +
+                ", bytes=" + bytes +
+                ", entries=" + entries +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.entitystore.EntityId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of decoded chunks, bounded by the (estimated) number of bytes it holds.
+ * <p>
+ * Chunks are only appended to, the number of measurements therefore identifies the state of a chunk.
+ * An entry is only returned for the count it has been decoded with, readers that work on an older
+ * snapshot of a chunk don't see newer measurements and vice versa.
+ */
+final class ChunkCache {
+
+    // object headers, array headers and map entry
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxBytes;
+    private final LinkedHashMap<EntityId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    ChunkCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return null if the chunk isn't cached with the given number of measurements
+     */
+    synchronized Entry get(EntityId id, int count) {
+        Entry entry = entries.get(id);
+        if(entry != null && entry.timestamps.length == count)
+        {
+            hits++;
+            return entry;
+        }
+
+        misses++;
+        return null;
+    }
+
+    synchronized void put(EntityId id, Entry entry) {
+        if(entry.getSizeInBytes() > maxBytes)
+            return;
+
+        Entry previous = entries.put(id, entry);
+        if(previous != null)
+            bytes -= previous.getSizeInBytes();
+        bytes += entry.getSizeInBytes();
+
+        Iterator<Map.Entry<EntityId, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes)
+        {
+            bytes -= eldest.next().getValue().getSizeInBytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Invoked when a chunk has been re-written.
+     */
+    synchronized void invalidate(EntityId id) {
+        Entry previous = entries.remove(id);
+        if(previous != null)
+            bytes -= previous.getSizeInBytes();
+    }
+
+    synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(maxBytes, bytes, entries.size(), hits, misses, evictions);
+    }
+
+    static final class Entry {
+        final long[] timestamps;
+        final long[] values;
+
+        Entry(long[] timestamps, long[] values) {
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+
+        long getSizeInBytes() {
+            return ENTRY_OVERHEAD + 16L * timestamps.length;
+        }
+
+        void read(long from, long to, MeasurementVisitor visitor) {
+            for (int i = 0; i < timestamps.length; i++) {
+                long timestamp = timestamps[i];
+                if(timestamp > to)
+                    break;
+
+                if(timestamp >= from)
+                    visitor.visit(timestamp, values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wildfly.metrics.storage;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Merges the small chunks of the {@link MetricStorage.Layout#CHUNKED} layout in the background.
+ * <p>
+ * The parts of chunks that were open when the storage crashed, and chunks closed early by measurements that arrived
+ * out of order, remain small: they carry the header and the first, uncompressed measurement of a chunk, and cost an entity each.
+ * A pass merges runs of adjacent chunks of each series into chunks of the optimal size and rebuilds their summaries
+ * (see {@link ChunkedLayout#compact}). The chunk that is currently appended to is left alone.
+ * <p>
+ * The work is divided into small steps, each within its own write transaction, so that writers are only held up
+ * for the duration of a step. Steps are throttled to the configured rate of bytes read and written.
+ *
+ * @see MetricStorageConfig#setCompactionInterval(long)
+ */
+class ChunkCompactor {
+
+    // the smallest amount of encoded data a step processes, regardless of the rate
+    private static final long MIN_STEP_BYTES = 16 * 1024;
+
+    private final long rate;
+    private final long stepBytes;
+    private final Supplier<List<Series>> series;
+    private final BiFunction<Series, Long, Merge> step;
+
+    // null if the compaction isn't scheduled
+    private ScheduledExecutorService executor;
+
+    // serializes the passes
+    private final Object passLock = new Object();
+
+    // guards the throttling, so that a pass can be cancelled
+    private final Object lock = new Object();
+    private volatile boolean stopped;
+
+    // counters, guarded by the instance
+
+    private long passes;
+    private long chunksRead;
+    private long chunksWritten;
+    private long bytesRead;
+    private long bytesWritten;
+    private long nanosSpent;
+    private long nanosThrottled;
+
+    /**
+     * @param rate the bytes per second that may be read and written
+     * @param series the series to compact
+     * @param step merges the chunks of a series within a write transaction, up to the given number of bytes
+     */
+    ChunkCompactor(long rate, Supplier<List<Series>> series, BiFunction<Series, Long, Merge> step) {
+        this.rate = rate;
+        this.stepBytes = Math.max(MIN_STEP_BYTES, rate / 10);
+        this.series = series;
+        this.step = step;
+    }
+
+    /**
+     * Runs a pass every <code>interval</code> ms, on a thread of low priority.
+     */
+    void start(long interval) {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metric-storage-compaction");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::runQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void runQuietly() {
+        try {
+            run();
+        } catch (Throwable t) {
+            StorageLogger.LOGGER.error("Failed to compact chunks", t);
+        }
+    }
+
+    /**
+     * Compacts all series, until there is nothing left to merge.
+     */
+    void run() {
+        synchronized (passLock) {
+            for (Series s : series.get()) {
+                compact(s);
+            }
+        }
+
+        synchronized (this) {
+            passes++;
+        }
+    }
+
+    private void compact(Series s) {
+        while (!stopped)
+        {
+            long started = System.nanoTime();
+            Merge merge = step.apply(s, stepBytes);
+            long spent = System.nanoTime() - started;
+
+            synchronized (this) {
+                chunksRead += merge.chunksRead;
+                chunksWritten += merge.chunksWritten;
+                bytesRead += merge.bytesRead;
+                bytesWritten += merge.bytesWritten;
+                nanosSpent += spent;
+            }
+
+            if(0 == merge.chunksRead)
+                break;
+
+            throttle(merge.bytesRead + merge.bytesWritten, spent);
+        }
+    }
+
+    /**
+     * Pauses for as long as it takes to process the bytes at the configured rate, less the time it actually took.
+     */
+    private void throttle(long bytes, long spent) {
+        long pause = TimeUnit.SECONDS.toNanos(1) * bytes / rate - spent;
+        if(pause <= 0)
+            return;
+
+        long started = System.nanoTime();
+        synchronized (lock) {
+            long remaining = pause;
+            while (!stopped && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = pause - (System.nanoTime() - started);
+            }
+        }
+        synchronized (this) {
+            nanosThrottled += System.nanoTime() - started;
+        }
+    }
+
+    /**
+     * Cancels a pass that is in progress and stops the scheduled ones.
+     */
+    void stop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+
+        if(executor != null)
+        {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    synchronized CompactionStatistics getStatistics() {
+        return new CompactionStatistics(passes, chunksRead, chunksWritten, bytesRead, bytesWritten,
+                TimeUnit.NANOSECONDS.toMillis(nanosSpent), TimeUnit.NANOSECONDS.toMillis(nanosThrottled));
+    }
+
+    /**
+     * The outcome of a step: the chunks that have been merged and the ones that replace them.
+     */
+    static final class Merge {
+        int chunksRead;
+        int chunksWritten;
+        long bytesRead;
+        long bytesWritten;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+/**
+ * Sequentially decodes a chunk created by {@link ChunkWriter}.
+ *
+ * <pre>
+ *     ChunkReader reader = new ChunkReader(data);
+ *     while(reader.next()) {
+ *         reader.getTimestamp();
+ *         reader.getValue();
+ *     }
+ * </pre>
+ */
+public class ChunkReader {
+
+    private final BitReader in;
+    private final int count;
+
+    private int index;
+    private long timestamp;
+    private long value;
+    private long prevDelta;
+    private int prevLeading;
+    private int prevTrailing;
+
+    public ChunkReader(byte[] data) {
+        this.count = ((data[0] & 0xFF) << 24)
+                | ((data[1] & 0xFF) << 16)
+                | ((data[2] & 0xFF) << 8)
+                | (data[3] & 0xFF);
+        this.in = new BitReader(data, ChunkWriter.HEADER_BYTES);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Advance to the next measurement.
+     *
+     * @return false if the chunk is exhausted
+     */
+    public boolean next() {
+        if(index >= count)
+            return false;
+
+        if(index == 0)
+        {
+            timestamp = in.readBits(64);
+            value = in.readBits(64);
+        }
+        else
+        {
+            prevDelta += readDeltaOfDelta();
+            timestamp += prevDelta;
+            value ^= readXor();
+        }
+
+        index++;
+        return true;
+    }
+
+    private long readDeltaOfDelta() {
+        if(!in.readBit())
+            return 0;
+        if(!in.readBit())
+            return signed(in.readBits(7), 7);
+        if(!in.readBit())
+            return signed(in.readBits(9), 9);
+        if(!in.readBit())
+            return signed(in.readBits(12), 12);
+        if(!in.readBit())
+            return signed(in.readBits(32), 32);
+        return in.readBits(64);
+    }
+
+    private long readXor() {
+        if(!in.readBit())
+            return 0;
+
+        if(in.readBit())
+        {
+            prevLeading = (int) in.readBits(6);
+            int meaningful = (int) in.readBits(6) + 1;
+            prevTrailing = 64 - prevLeading - meaningful;
+        }
+
+        int meaningful = 64 - prevLeading - prevTrailing;
+        return in.readBits(meaningful) << prevTrailing;
+    }
+
+    private static long signed(long value, int bits) {
+        int shift = 64 - bits;
+        return (value << shift) >> shift;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+/**
+ * Encodes a time ordered sequence of measurements into a compact chunk.
+ * <p>
+ * The encoding follows the Gorilla paper (Pelkonen et al., VLDB 2015):
+ * timestamps are stored as delta-of-delta, values are XOR'ed with their predecessor
+ * and only the meaningful bits are written. Regular sampling intervals
+ * therefore cost a single bit per timestamp and unchanged values a single bit per value.
+ * <p>
+ * Layout: <code>[count:int32][first timestamp:64][first value:64][(dod, xor)...]</code>
+ *
+ * @see ChunkReader
+ */
+public class ChunkWriter {
+
+    static final int HEADER_BYTES = 4;
+
+    private final BitWriter out;
+
+    private int count;
+    private long start;
+    private long end;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private long sum;
+    private long prevDelta;
+    private long prevValue;
+    private int prevLeading = -1;
+    private int prevTrailing;
+
+    public ChunkWriter() {
+        this.out = new BitWriter();
+    }
+
+    private ChunkWriter(ChunkWriter other) {
+        this.out = other.out.copy();
+        this.count = other.count;
+        this.start = other.start;
+        this.end = other.end;
+        this.min = other.min;
+        this.max = other.max;
+        this.sum = other.sum;
+        this.prevDelta = other.prevDelta;
+        this.prevValue = other.prevValue;
+        this.prevLeading = other.prevLeading;
+        this.prevTrailing = other.prevTrailing;
+    }
+
+    /**
+     * Appends a measurement. Timestamps need to be non-decreasing.
+     *
+     * @param timestamp
+     * @param value
+     */
+    public void append(long timestamp, long value) {
+        if(count == 0)
+        {
+            out.writeBits(timestamp, 64);
+            out.writeBits(value, 64);
+            start = timestamp;
+        }
+        else
+        {
+            if(timestamp < end)
+                throw new IllegalArgumentException("Out of order timestamp "+timestamp+" < "+end);
+
+            long delta = timestamp - end;
+            writeDeltaOfDelta(delta - prevDelta);
+            prevDelta = delta;
+
+            writeXor(value ^ prevValue);
+        }
+
+        end = timestamp;
+        prevValue = value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        count++;
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if(dod == 0)
+        {
+            out.writeBit(false);
+        }
+        else if(fits(dod, 7))
+        {
+            out.writeBits(0b10, 2);
+            out.writeBits(dod, 7);
+        }
+        else if(fits(dod, 9))
+        {
+            out.writeBits(0b110, 3);
+            out.writeBits(dod, 9);
+        }
+        else if(fits(dod, 12))
+        {
+            out.writeBits(0b1110, 4);
+            out.writeBits(dod, 12);
+        }
+        else if(fits(dod, 32))
+        {
+            out.writeBits(0b11110, 5);
+            out.writeBits(dod, 32);
+        }
+        else
+        {
+            out.writeBits(0b11111, 5);
+            out.writeBits(dod, 64);
+        }
+    }
+
+    private void writeXor(long xor) {
+        if(xor == 0)
+        {
+            out.writeBit(false);
+            return;
+        }
+
+        out.writeBit(true);
+
+        int leading = Long.numberOfLeadingZeros(xor);
+        int trailing = Long.numberOfTrailingZeros(xor);
+
+        if(prevLeading != -1 && leading >= prevLeading && trailing >= prevTrailing)
+        {
+            // fits into the previous window of meaningful bits
+            out.writeBit(false);
+            out.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+        }
+        else
+        {
+            int meaningful = 64 - leading - trailing;
+            out.writeBit(true);
+            out.writeBits(leading, 6);
+            out.writeBits(meaningful - 1, 6);
+            out.writeBits(xor >>> trailing, meaningful);
+
+            prevLeading = leading;
+            prevTrailing = trailing;
+        }
+    }
+
+    private static boolean fits(long value, int bits) {
+        long bound = 1L << (bits - 1);
+        return value >= -bound && value < bound;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the first timestamp within this chunk
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the last timestamp within this chunk
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the value of the last measurement within this chunk
+     */
+    public long getLast() {
+        return prevValue;
+    }
+
+    public int getSizeInBytes() {
+        return HEADER_BYTES + out.getSizeInBytes();
+    }
+
+    public byte[] toByteArray() {
+        byte[] data = new byte[getSizeInBytes()];
+        data[0] = (byte) (count >>> 24);
+        data[1] = (byte) (count >>> 16);
+        data[2] = (byte) (count >>> 8);
+        data[3] = (byte) count;
+        System.arraycopy(out.getBuffer(), 0, data, HEADER_BYTES, out.getSizeInBytes());
+        return data;
+    }
+
+    public ChunkWriter copy() {
+        return new ChunkWriter(this);
+    }
+}
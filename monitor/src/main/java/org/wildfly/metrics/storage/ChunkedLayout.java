@@ -0,0 +1,755 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.EntityId;
+import jetbrains.exodus.entitystore.PersistentEntityId;
+import jetbrains.exodus.entitystore.PersistentEntityStore;
+import jetbrains.exodus.entitystore.PersistentStoreTransaction;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.StoreConfig;
+import jetbrains.exodus.env.Transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Groups the measurements of a metric into time bounded chunks.
+ * Each chunk is a single entity that carries the encoded measurements (see {@link ChunkWriter}) as a blob.
+ * <p>
+ * The most recent chunk of each metric is kept open in memory. Each transaction that appends to it
+ * writes the new measurements as a separate part, i.e. a small chunk of it's own, instead of re-writing the whole chunk:
+ * re-writing would leave garbage in the log that grows with the square of the chunk size.
+ * A part is merged into it's predecessor once it holds as many measurements, which keeps the number of parts
+ * logarithmic in the size of the chunk, as well as the number of times a measurement is re-written.
+ * A chunk is sealed once it exceeds it's time span or number of points, or when a measurement arrives out of order:
+ * the first part is re-written with all measurements of the chunk and the others are deleted.
+ * Open chunks are sealed when the storage is stopped, but they are not re-opened.
+ * Parts left behind by a crash and other small chunks can be merged with their neighbours later on (see {@link ChunkCompactor}).
+ * <p>
+ * Chunks are located through an index, a raw store keyed by <code>(seriesId, end)</code> that carries the start of each chunk:
+ * a range query seeks to the first chunk that ends at or after it's start, the cost doesn't depend on the other series.
+ * The chunks of a series don't overlap, since the layouts receive ascending timestamps, so they are visited in the
+ * order of their start. Chunks written before that may overlap, but start less than a span before their end,
+ * which bounds the scan.
+ * <p>
+ * Each chunk carries a summary of it's values (min, max, sum and last), that answers aggregates without decoding.
+ * Chunks of metrics with double values don't: the summaries aggregate long values.
+ * Decoded chunks are kept in a {@link ChunkCache}.
+ */
+class ChunkedLayout implements StorageLayout {
+
+    static final String TYPE_CHUNK = "chunk";
+    private static final String CHUNK_TO_METRIC = "chunk-metric";
+    private static final String BLOB_DATA = "data";
+    static final String INDEX_STORE = "chunk-index";
+
+    static final long DEFAULT_SPAN = TimeUnit.HOURS.toMillis(2);
+    static final int DEFAULT_MAX_POINTS = 512;
+
+    private final long span;
+    private final int maxPoints;
+
+    private final Store index;
+    // the index didn't exist before and needs to be built from the chunks, see #open
+    private final boolean indexCreated;
+
+    // null if disabled
+    private final ChunkCache cache;
+
+    // committed state: the chunk currently appended to, by series id
+    private final Map<Integer, OpenChunk> open = new HashMap<>();
+
+    // uncommitted state of the current write transaction
+    private final Map<Integer, OpenChunk> pending = new HashMap<>();
+    private final List<OpenChunk> dirty = new ArrayList<>();
+    private final List<EntityId> rewritten = new ArrayList<>();
+    private boolean sealed;
+
+    ChunkedLayout(PersistentEntityStore store, long cacheSize) {
+        this(store, DEFAULT_SPAN, DEFAULT_MAX_POINTS, cacheSize);
+    }
+
+    /**
+     * @param cacheSize the budget (in bytes) of the cache for decoded chunks, zero or less disables the cache
+     */
+    ChunkedLayout(PersistentEntityStore store, long span, int maxPoints, long cacheSize) {
+        this.span = span;
+        this.maxPoints = maxPoints;
+        this.cache = cacheSize > 0 ? new ChunkCache(cacheSize) : null;
+
+        Environment environment = store.getEnvironment();
+        boolean[] created = new boolean[1];
+        this.index = environment.computeInTransaction(txn -> {
+            created[0] = !environment.storeExists(INDEX_STORE, txn);
+            return environment.openStore(INDEX_STORE, StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING, txn);
+        });
+        this.indexCreated = created[0];
+    }
+
+    /**
+     * Indexes the chunks of stores that have been written before the index has been introduced.
+     */
+    @Override
+    public void open(PersistentStoreTransaction txn, Collection<Series> series) {
+        if(!indexCreated)
+            return;
+
+        for (Series s : series) {
+            for (Entity chunk : txn.findLinks(TYPE_CHUNK, txn.getEntity(s.getEntityId()), CHUNK_TO_METRIC)) {
+                Long end = (Long) chunk.getProperty("end");
+                if(end != null)
+                    index(txn.getEnvironmentTransaction(), s.getId(), chunk.getId(), (Long) chunk.getProperty("start"), end);
+            }
+        }
+    }
+
+    @Override
+    public void begin() {
+        pending.clear();
+        dirty.clear();
+        rewritten.clear();
+        sealed = false;
+    }
+
+    @Override
+    public void write(PersistentStoreTransaction txn, Series series, long timestamp, long value) {
+
+        Integer seriesId = series.getId();
+        OpenChunk chunk = pending.get(seriesId);
+
+        if(null == chunk && open.containsKey(seriesId))
+        {
+            chunk = open.get(seriesId).copy();
+            pending.put(seriesId, chunk);
+        }
+
+        if(chunk != null && !chunk.accepts(timestamp))
+        {
+            seal(txn, chunk);
+            chunk = null;
+        }
+
+        if(null == chunk)
+        {
+            chunk = new OpenChunk(seriesId, new ArrayList<>(), summarized(series));
+            pending.put(seriesId, chunk);
+        }
+
+        if(null == chunk.tail)
+        {
+            Entity entity = txn.newEntity(TYPE_CHUNK);
+            entity.addLink(CHUNK_TO_METRIC, txn.getEntity(series.getEntityId()));
+
+            chunk.tail = new ChunkWriter();
+            chunk.parts.add(new Part(entity.getId(), chunk.tail));
+            dirty.add(chunk);
+        }
+
+        chunk.tail.append(timestamp, value);
+        chunk.count++;
+    }
+
+    /**
+     * Merges the parts of a chunk into the first one and deletes the others.
+     * A chunk that consists of a single part is complete already.
+     */
+    private void seal(PersistentStoreTransaction txn, OpenChunk chunk) {
+        if(chunk.parts.size() < 2)
+            return;
+
+        ChunkWriter writer = new ChunkWriter();
+        for (Part part : chunk.parts) {
+            concat(writer, part.writer);
+            rewritten.add(part.id);
+        }
+
+        store(txn, chunk.seriesId, txn.getEntity(chunk.parts.get(0).id), writer, chunk.summarized);
+        for (int i = 1; i < chunk.parts.size(); i++) {
+            delete(txn, chunk.seriesId, txn.getEntity(chunk.parts.get(i).id));
+        }
+
+        chunk.tail = null;
+    }
+
+    /**
+     * Writes the part of each chunk that has been appended to, after merging it into it's predecessors
+     * as long as they don't hold more measurements.
+     */
+    @Override
+    public void flush(PersistentStoreTransaction txn) {
+        for (OpenChunk chunk : dirty) {
+            if(null == chunk.tail)
+                continue;
+
+            List<Part> parts = chunk.parts;
+            int last = parts.size() - 1;
+            while (last > 0 && parts.get(last - 1).writer.getCount() <= parts.get(last).writer.getCount()) {
+                Part previous = parts.get(last - 1);
+                ChunkWriter writer = new ChunkWriter();
+                concat(writer, previous.writer);
+                concat(writer, parts.get(last).writer);
+
+                delete(txn, chunk.seriesId, txn.getEntity(parts.remove(last).id));
+                parts.set(--last, new Part(previous.id, writer));
+                rewritten.add(previous.id);
+            }
+
+            Part part = parts.get(last);
+            store(txn, chunk.seriesId, txn.getEntity(part.id), part.writer, chunk.summarized);
+        }
+    }
+
+    private static void concat(ChunkWriter target, ChunkWriter source) {
+        ChunkReader reader = new ChunkReader(source.toByteArray());
+        while (reader.next()) {
+            target.append(reader.getTimestamp(), reader.getValue());
+        }
+    }
+
+    /**
+     * Seals the open chunks, later measurements start new chunks.
+     */
+    @Override
+    public void seal(PersistentStoreTransaction txn) {
+        for (OpenChunk chunk : open.values()) {
+            seal(txn, chunk.copy());
+        }
+        sealed = true;
+    }
+
+    /**
+     * Late measurements are written to the complete chunk that covers them, or to an adjacent one whose bounds can be
+     * extended to cover them, within a span. The chunk is replaced by a new entity, cached copies of the previous one
+     * aren't reused. Measurements at or after the start of the open chunk are left, as well as those that are
+     * too far from any chunk.
+     */
+    @Override
+    public Measurements fold(PersistentStoreTransaction txn, Series series, Measurements points) {
+        long first = points.getTimestamp(0);
+        long last = points.getTimestamp(points.size() - 1);
+
+        // the chunks that can be extended start less than a span before the measurements, and end less than a span after
+        List<Entity> chunks = chunks(txn, series,
+                first < Long.MIN_VALUE + span ? Long.MIN_VALUE : first - span,
+                last > Long.MAX_VALUE - span ? Long.MAX_VALUE : last + span);
+
+        long limit = Long.MAX_VALUE;
+        OpenChunk current = open.get(series.getId());
+        if(current != null)
+        {
+            chunks.removeIf(chunk -> current.contains(chunk.getId()));
+            limit = current.parts.get(0).writer.getStart();
+        }
+        chunks.sort(Comparator.comparingLong(chunk -> (Long) chunk.getProperty("start")));
+
+        Map<EntityId, Measurements> targets = new LinkedHashMap<>();
+        Measurements folded = new Measurements(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            long timestamp = points.getTimestamp(i);
+            Entity target = timestamp < limit ? target(chunks, timestamp) : null;
+            if(target != null)
+            {
+                targets.computeIfAbsent(target.getId(), id -> new Measurements()).add(timestamp, points.getValue(i));
+                folded.add(timestamp, points.getValue(i));
+            }
+        }
+
+        Entity metric = txn.getEntity(series.getEntityId());
+        targets.forEach((id, late) -> {
+            Entity chunk = txn.getEntity(id);
+            ChunkWriter writer = new ChunkWriter();
+            LateStore.Merge merge = new LateStore.Merge(late, writer::append);
+            decode(chunk, Long.MIN_VALUE, Long.MAX_VALUE, merge);
+            merge.finish();
+
+            Entity entity = txn.newEntity(TYPE_CHUNK);
+            entity.addLink(CHUNK_TO_METRIC, metric);
+            store(txn, series.getId(), entity, writer, summarized(series));
+            delete(txn, series.getId(), chunk);
+            rewritten.add(id);
+        });
+
+        return folded;
+    }
+
+    /**
+     * @param chunks ordered by start
+     * @return the chunk that covers the timestamp, or the closest one that can be extended to cover it, null if there is none
+     */
+    private Entity target(List<Entity> chunks, long timestamp) {
+        Entity previous = null;
+        for (Entity chunk : chunks) {
+            long start = (Long) chunk.getProperty("start");
+            long end = (Long) chunk.getProperty("end");
+
+            if(start <= timestamp && timestamp <= end)
+                return chunk;
+
+            if(start > timestamp)
+            {
+                if(Long.compareUnsigned(end - timestamp, span) < 0)
+                    return chunk;
+                break;
+            }
+
+            if(null == previous || end > (Long) previous.getProperty("end"))
+                previous = chunk;
+        }
+
+        return previous != null && Long.compareUnsigned(timestamp - (Long) previous.getProperty("start"), span) < 0 ? previous : null;
+    }
+
+    /**
+     * Writes the summary and the data of a chunk and indexes it by it's end.
+     * Without a summary, only the bounds and the count are written.
+     *
+     * @return the size of the data
+     */
+    private int store(PersistentStoreTransaction txn, int seriesId, Entity entity, ChunkWriter writer, boolean summarized) {
+        Long previous = (Long) entity.getProperty("end");
+        if(previous != null)
+            index.delete(txn.getEnvironmentTransaction(), Keys.key(seriesId, previous, entity.getId().getLocalId()));
+        index(txn.getEnvironmentTransaction(), seriesId, entity.getId(), writer.getStart(), writer.getEnd());
+
+        byte[] data = writer.toByteArray();
+        entity.setProperty("start", writer.getStart());
+        entity.setProperty("end", writer.getEnd());
+        entity.setProperty("count", writer.getCount());
+        if(summarized)
+        {
+            entity.setProperty("min", writer.getMin());
+            entity.setProperty("max", writer.getMax());
+            entity.setProperty("sum", writer.getSum());
+            entity.setProperty("last", writer.getLast());
+        }
+        entity.setBlob(BLOB_DATA, new ByteArrayInputStream(data));
+        return data.length;
+    }
+
+    private void delete(PersistentStoreTransaction txn, int seriesId, Entity entity) {
+        Long end = (Long) entity.getProperty("end");
+        if(end != null)
+            index.delete(txn.getEnvironmentTransaction(), Keys.key(seriesId, end, entity.getId().getLocalId()));
+        entity.delete();
+    }
+
+    /**
+     * The value carries the entity type of the chunk and it's start.
+     */
+    private void index(Transaction txn, int seriesId, EntityId chunk, long start, long end) {
+        byte[] value = new byte[12];
+        Keys.writeInt(value, 0, chunk.getTypeId());
+        Keys.writeLong(value, 4, start);
+        index.put(txn, Keys.key(seriesId, end, chunk.getLocalId()), new ArrayByteIterable(value));
+    }
+
+    @Override
+    public void committed() {
+        if(cache != null)
+        {
+            for (OpenChunk chunk : dirty) {
+                cache.invalidate(chunk.parts.get(chunk.parts.size() - 1).id);
+            }
+            for (EntityId id : rewritten) {
+                cache.invalidate(id);
+            }
+        }
+        rewritten.clear();
+
+        for (OpenChunk chunk : dirty) {
+            chunk.tail = null;
+        }
+        if(sealed)
+            open.clear();
+        open.putAll(pending);
+        pending.clear();
+        dirty.clear();
+    }
+
+    @Override
+    public void read(PersistentStoreTransaction txn, Series series, long from, long to, MeasurementVisitor visitor) {
+        for (Entity chunk : chunks(txn, series, from, to)) {
+            decode(chunk, from, to, visitor);
+        }
+    }
+
+    /**
+     * Chunks that are entirely within the range contribute their summary, only the edges are decoded.
+     * Chunks without a summary (written before the summaries have been introduced, or of double values) are always decoded.
+     */
+    @Override
+    public void aggregate(PersistentStoreTransaction txn, Series series, long from, long to, Aggregate result) {
+        for (Entity chunk : chunks(txn, series, from, to)) {
+
+            long start = (Long) chunk.getProperty("start");
+            long end = (Long) chunk.getProperty("end");
+            Long min = (Long) chunk.getProperty("min");
+
+            if(min != null && start >= from && end <= to)
+            {
+                result.merge(min,
+                        (Long) chunk.getProperty("max"),
+                        (Long) chunk.getProperty("sum"),
+                        (Integer) chunk.getProperty("count"),
+                        end,
+                        (Long) chunk.getProperty("last"));
+            }
+            else
+            {
+                decode(chunk, from, to, result::add);
+            }
+        }
+    }
+
+    /**
+     * Chunks that end later may start earlier, if they overlap: up to a span after the end of the first one.
+     */
+    @Override
+    public long getFirstTimestamp(PersistentStoreTransaction txn, Series series) {
+        long first = Long.MAX_VALUE;
+        try (Cursor cursor = index.openCursor(txn.getEnvironmentTransaction())) {
+            if(null == cursor.getSearchKeyRange(Keys.key(series.getId(), Long.MIN_VALUE)))
+                return first;
+
+            do {
+                ByteIterable key = cursor.getKey();
+                if(Keys.seriesId(key) != series.getId() || beyond(Keys.timestamp(key), first))
+                    break;
+                first = Math.min(first, Keys.readLong(cursor.getValue().getBytesUnsafe(), 4));
+            }
+            while (cursor.getNext());
+        }
+        return first;
+    }
+
+    @Override
+    public long getLastTimestamp(PersistentStoreTransaction txn, Series series) {
+        try (Cursor cursor = index.openCursor(txn.getEnvironmentTransaction())) {
+            return Keys.lastTimestamp(cursor, series.getId());
+        }
+    }
+
+    private static boolean summarized(Series series) {
+        return series.getType() != MetricStorage.ValueType.DOUBLE;
+    }
+
+    /**
+     * @return the chunks of a series that overlap <code>[from, to]</code>, ordered by end
+     */
+    private List<Entity> chunks(PersistentStoreTransaction txn, Series series, long from, long to) {
+        List<Entity> chunks = new ArrayList<>();
+        try (Cursor cursor = index.openCursor(txn.getEnvironmentTransaction())) {
+            if(null == cursor.getSearchKeyRange(Keys.key(series.getId(), from)))
+                return chunks;
+
+            do {
+                ByteIterable key = cursor.getKey();
+                if(Keys.seriesId(key) != series.getId() || beyond(Keys.timestamp(key), to))
+                    break;
+
+                byte[] value = cursor.getValue().getBytesUnsafe();
+                if(Keys.readLong(value, 4) <= to)
+                    chunks.add(txn.getEntity(new PersistentEntityId(Keys.readInt(value, 0), Keys.suffix(key))));
+            }
+            while (cursor.getNext());
+        }
+        return chunks;
+    }
+
+    /**
+     * @return true if chunks ending at <code>end</code> (or later) start after <code>timestamp</code>:
+     *         a chunk starts less than a span before it's end
+     */
+    private boolean beyond(long end, long timestamp) {
+        return end >= timestamp && Long.compareUnsigned(end - timestamp, span) >= 0;
+    }
+
+    private void decode(Entity chunk, long from, long to, MeasurementVisitor visitor) {
+        if(null == cache)
+        {
+            ChunkReader reader = new ChunkReader(readBlob(chunk));
+            while (reader.next()) {
+                long timestamp = reader.getTimestamp();
+                if(timestamp > to)
+                    break;
+
+                if(timestamp >= from)
+                    visitor.visit(timestamp, reader.getValue());
+            }
+            return;
+        }
+
+        int count = (Integer) chunk.getProperty("count");
+        ChunkCache.Entry entry = cache.get(chunk.getId(), count);
+        if(null == entry)
+        {
+            entry = decode(readBlob(chunk));
+            cache.put(chunk.getId(), entry);
+        }
+
+        entry.read(from, to, visitor);
+    }
+
+    private static ChunkCache.Entry decode(byte[] data) {
+        ChunkReader reader = new ChunkReader(data);
+        long[] timestamps = new long[reader.getCount()];
+        long[] values = new long[reader.getCount()];
+        for (int i = 0; reader.next(); i++) {
+            timestamps[i] = reader.getTimestamp();
+            values[i] = reader.getValue();
+        }
+        return new ChunkCache.Entry(timestamps, values);
+    }
+
+    /**
+     * The chunks are loaded within the transaction, but decoded in parallel.
+     */
+    @Override
+    public void read(PersistentStoreTransaction txn, Series series, long from, long to, ForkJoinPool pool, Measurements results) {
+        List<EntityId> ids = new ArrayList<>();
+        List<ChunkCache.Entry> decoded = new ArrayList<>();
+        List<byte[]> blobs = new ArrayList<>();
+
+        for (Entity chunk : chunks(txn, series, from, to)) {
+            ChunkCache.Entry entry = null == cache ? null : cache.get(chunk.getId(), (Integer) chunk.getProperty("count"));
+            ids.add(chunk.getId());
+            decoded.add(entry);
+            blobs.add(null == entry ? readBlob(chunk) : null);
+        }
+
+        ParallelScan.invoke(pool, ids.size(), i -> {
+            ChunkCache.Entry entry = decoded.get(i);
+            if(null == entry)
+            {
+                entry = decode(blobs.get(i));
+                if(cache != null)
+                    cache.put(ids.get(i), entry);
+            }
+
+            Measurements part = new Measurements();
+            entry.read(from, to, part::add);
+            return part;
+        }, results);
+    }
+
+    /**
+     * The chunks are loaded within the transaction, each part decodes the chunks of a series.
+     */
+    @Override
+    public List<Supplier<Measurements>> readAll(PersistentStoreTransaction txn, List<Series> series, long from, long to) {
+        List<Supplier<Measurements>> parts = new ArrayList<>(series.size());
+        for (Series s : series) {
+            List<EntityId> ids = new ArrayList<>();
+            List<ChunkCache.Entry> decoded = new ArrayList<>();
+            List<byte[]> blobs = new ArrayList<>();
+
+            for (Entity chunk : chunks(txn, s, from, to)) {
+                ChunkCache.Entry entry = null == cache ? null : cache.get(chunk.getId(), (Integer) chunk.getProperty("count"));
+                ids.add(chunk.getId());
+                decoded.add(entry);
+                blobs.add(null == entry ? readBlob(chunk) : null);
+            }
+
+            parts.add(() -> {
+                Measurements points = new Measurements();
+                for (int i = 0; i < ids.size(); i++) {
+                    ChunkCache.Entry entry = decoded.get(i);
+                    if(null == entry)
+                    {
+                        entry = decode(blobs.get(i));
+                        if(cache != null)
+                            cache.put(ids.get(i), entry);
+                    }
+                    entry.read(from, to, points::add);
+                }
+                return points;
+            });
+        }
+        return parts;
+    }
+
+    /**
+     * Packs runs of adjacent chunks into as few chunks as the limits of a chunk permit, in the order of their start.
+     * Chunks that overlap their predecessor start a new run. The parts of the chunk that is currently appended to are skipped.
+     * A merged chunk replaces the first of its run, the others are deleted.
+     * Chunks written before the summaries have been introduced are rewritten, even if they can't be merged
+     * (unless the metric has double values, which aren't summarized).
+     */
+    @Override
+    public ChunkCompactor.Merge compact(PersistentStoreTransaction txn, Series series, long maxBytes) {
+        ChunkCompactor.Merge merge = new ChunkCompactor.Merge();
+        OpenChunk current = open.get(series.getId());
+        boolean summarized = summarized(series);
+
+        // the chunks are collected before any of them is modified
+        List<Entity> chunks = chunks(txn, series, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        List<Entity> run = new ArrayList<>();
+        int count = 0;
+        long start = 0;
+        long end = 0;
+        for (Entity chunk : chunks) {
+            if(merge.bytesRead >= maxBytes)
+                return merge;
+
+            int chunkCount = (Integer) chunk.getProperty("count");
+            long chunkStart = (Long) chunk.getProperty("start");
+            long chunkEnd = (Long) chunk.getProperty("end");
+            boolean appended = current != null && current.contains(chunk.getId());
+
+            if(!run.isEmpty() && !appended
+                    && count + chunkCount <= maxPoints
+                    && chunkStart >= end
+                    && chunkEnd - start < span)
+            {
+                run.add(chunk);
+                count += chunkCount;
+                end = chunkEnd;
+                continue;
+            }
+
+            merge(txn, series.getId(), run, summarized, merge);
+            run.clear();
+
+            if(!appended)
+            {
+                run.add(chunk);
+                count = chunkCount;
+                start = chunkStart;
+                end = chunkEnd;
+            }
+        }
+
+        merge(txn, series.getId(), run, summarized, merge);
+        return merge;
+    }
+
+    private void merge(PersistentStoreTransaction txn, int seriesId, List<Entity> run, boolean summarized, ChunkCompactor.Merge merge) {
+        if(run.isEmpty() || (run.size() == 1 && (!summarized || run.get(0).getProperty("min") != null)))
+            return;
+
+        ChunkWriter writer = new ChunkWriter();
+        for (Entity chunk : run) {
+            byte[] data = readBlob(chunk);
+            ChunkReader reader = new ChunkReader(data);
+            while (reader.next()) {
+                writer.append(reader.getTimestamp(), reader.getValue());
+            }
+
+            merge.chunksRead++;
+            merge.bytesRead += data.length;
+            rewritten.add(chunk.getId());
+        }
+
+        merge.bytesWritten += store(txn, seriesId, run.get(0), writer, summarized);
+        merge.chunksWritten++;
+
+        for (int i = 1; i < run.size(); i++) {
+            delete(txn, seriesId, run.get(i));
+        }
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return null == cache ? StorageLayout.super.getCacheStatistics() : cache.getStatistics();
+    }
+
+    static byte[] readBlob(Entity chunk) {
+        try (InputStream in = chunk.getBlob(BLOB_DATA)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read chunk "+chunk.getId(), e);
+        }
+    }
+
+    /**
+     * A part of an open chunk. Parts of previous transactions are not modified, merging them replaces them.
+     */
+    private static class Part {
+        final EntityId id;
+        final ChunkWriter writer;
+
+        Part(EntityId id, ChunkWriter writer) {
+            this.id = id;
+            this.writer = writer;
+        }
+    }
+
+    private class OpenChunk {
+        final int seriesId;
+        // in the order of their measurements
+        final List<Part> parts;
+        final boolean summarized;
+        int count;
+
+        // the part of the current write transaction, null if it didn't append yet
+        ChunkWriter tail;
+
+        OpenChunk(int seriesId, List<Part> parts, boolean summarized) {
+            this.seriesId = seriesId;
+            this.parts = parts;
+            this.summarized = summarized;
+        }
+
+        boolean accepts(long timestamp) {
+            return count < maxPoints
+                    && timestamp >= parts.get(parts.size() - 1).writer.getEnd()
+                    && timestamp - parts.get(0).writer.getStart() < span;
+        }
+
+        boolean contains(EntityId id) {
+            for (Part part : parts) {
+                if(part.id.equals(id))
+                    return true;
+            }
+            return false;
+        }
+
+        OpenChunk copy() {
+            OpenChunk copy = new OpenChunk(seriesId, new ArrayList<>(parts), summarized);
+            copy.count = count;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wildfly.metrics.storage;
+
+/**
+ * A snapshot of the counters of the chunk compaction.
+ *
+ * @see MetricStorage#getCompactionStatistics()
+ */
+public class CompactionStatistics {
+
+    private final long passes;
+    private final long chunksRead;
+    private final long chunksWritten;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long timeSpent;
+    private final long timeThrottled;
+
+    CompactionStatistics(long passes, long chunksRead, long chunksWritten, long bytesRead, long bytesWritten, long timeSpent, long timeThrottled) {
+        this.passes = passes;
+        this.chunksRead = chunksRead;
+        this.chunksWritten = chunksWritten;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.timeSpent = timeSpent;
+        this.timeThrottled = timeThrottled;
+    }
+
+    /**
+     * @return the passes that have been completed
+     */
+    public long getPasses() {
+        return passes;
+    }
+
+    /**
+     * @return the chunks that have been merged or had their summary rebuilt
+     */
+    public long getChunksRead() {
+        return chunksRead;
+    }
+
+    /**
+     * @return the chunks that replace them
+     */
+    public long getChunksWritten() {
+        return chunksWritten;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the difference in encoded size, not including the entities of the chunks that have been removed
+     */
+    public long getBytesReclaimed() {
+        return bytesRead - bytesWritten;
+    }
+
+    /**
+     * @return the time (in ms) spent merging, within write transactions
+     */
+    public long getTimeSpent() {
+        return timeSpent;
+    }
+
+    /**
+     * @return the time (in ms) the compaction paused to stay within its rate
+     */
+    public long getTimeThrottled() {
+        return timeThrottled;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionStatistics{" +
+                "passes=" + passes +
+                ", chunksRead=" + chunksRead +
+                ", chunksWritten=" + chunksWritten +
+                ", bytesRead=" + bytesRead +
+                ", bytesWritten=" + bytesWritten +
+                ", timeSpent=" + timeSpent +
+                ", timeThrottled=" + timeThrottled +
+                '}';
+    }
+}
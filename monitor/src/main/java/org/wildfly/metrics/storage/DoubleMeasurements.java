@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.Arrays;
+
+/**
+ * Columnar, primitive representation of the measurements of a metric of type {@link MetricStorage.ValueType#DOUBLE}:
+ * parallel arrays of timestamps and values.
+ * <p>
+ * Instances can be reused across queries, see {@link MetricStorage#getDoubleMeasurements(String, long, long, DoubleMeasurements)}.
+ * The backing arrays grow as needed and are only valid up to {@link #size()}.
+ *
+ * @see Measurements
+ */
+public class DoubleMeasurements {
+
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+
+    public DoubleMeasurements() {
+        this(16);
+    }
+
+    public DoubleMeasurements(int capacity) {
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    public void add(long timestamp, double value) {
+        if(size == timestamps.length)
+        {
+            int capacity = Math.max(16, size * 2);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Resets the size, but retains the allocated capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public double getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * @return the backing array, valid up to {@link #size()}
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return the backing array, valid up to {@link #size()}
+     */
+    public double[] getValues() {
+        return values;
+    }
+}
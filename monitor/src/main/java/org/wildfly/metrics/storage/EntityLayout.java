@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.EntityIterable;
+import jetbrains.exodus.entitystore.PersistentStoreTransaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * One entity per measurement, linked to the metric.
+ */
+class EntityLayout implements StorageLayout {
+
+    private static final String MEASUREMENT_TO_METRIC = "measurement-metric";
+    private static final String TYPE_MEASUREMENT = "measurement";
+
+    @Override
+    public void write(PersistentStoreTransaction txn, Series series, long timestamp, long value) {
+        final Entity metric = txn.getEntity(series.getEntityId());
+        final Entity measurement = txn.newEntity(TYPE_MEASUREMENT);
+        measurement.setProperty("timestamp", timestamp);
+        measurement.setProperty("value", value);
+        measurement.addLink(MEASUREMENT_TO_METRIC, metric);
+    }
+
+    /**
+     * Only updates the measurements of the same timestamp: the measurements are read in the order
+     * they have been created, new ones would follow the more recent ones.
+     */
+    @Override
+    public Measurements fold(PersistentStoreTransaction txn, Series series, Measurements points) {
+        EntityIterable links = txn.findLinks(TYPE_MEASUREMENT, txn.getEntity(series.getEntityId()), MEASUREMENT_TO_METRIC);
+
+        Measurements folded = new Measurements();
+        for (int i = 0; i < points.size(); i++) {
+            Entity existing = txn.find(TYPE_MEASUREMENT, "timestamp", points.getTimestamp(i)).intersect(links).getFirst();
+            if(existing != null)
+            {
+                existing.setProperty("value", points.getValue(i));
+                folded.add(points.getTimestamp(i), points.getValue(i));
+            }
+        }
+        return folded;
+    }
+
+    @Override
+    public void read(PersistentStoreTransaction txn, Series series, long from, long to, MeasurementVisitor visitor) {
+        final Entity metric = txn.getEntity(series.getEntityId());
+        EntityIterable links = txn.findLinks(TYPE_MEASUREMENT, metric, MEASUREMENT_TO_METRIC);
+
+        // within range
+        EntityIterable slice = txn.find(TYPE_MEASUREMENT, "timestamp", from, to);
+
+        slice.intersect(links).forEach(entity -> visitor.visit(
+                (Long) entity.getProperty("timestamp"),
+                (Long) entity.getProperty("value")
+        ));
+    }
+
+    @Override
+    public long getFirstTimestamp(PersistentStoreTransaction txn, Series series) {
+        Entity first = sorted(txn, series, true).getFirst();
+        return null == first ? Long.MAX_VALUE : (Long) first.getProperty("timestamp");
+    }
+
+    @Override
+    public long getLastTimestamp(PersistentStoreTransaction txn, Series series) {
+        Entity last = sorted(txn, series, false).getFirst();
+        return null == last ? Long.MIN_VALUE : (Long) last.getProperty("timestamp");
+    }
+
+    private static EntityIterable sorted(PersistentStoreTransaction txn, Series series, boolean ascending) {
+        EntityIterable links = txn.findLinks(TYPE_MEASUREMENT, txn.getEntity(series.getEntityId()), MEASUREMENT_TO_METRIC);
+        return txn.sort(TYPE_MEASUREMENT, "timestamp", links, ascending);
+    }
+
+    /**
+     * The range lookup on the timestamp index is shared by the series.
+     */
+    @Override
+    public List<Supplier<Measurements>> readAll(PersistentStoreTransaction txn, List<Series> series, long from, long to) {
+        EntityIterable slice = txn.find(TYPE_MEASUREMENT, "timestamp", from, to);
+
+        List<Supplier<Measurements>> parts = new ArrayList<>(series.size());
+        for (Series s : series) {
+            EntityIterable links = txn.findLinks(TYPE_MEASUREMENT, txn.getEntity(s.getEntityId()), MEASUREMENT_TO_METRIC);
+
+            Measurements points = new Measurements();
+            slice.intersect(links).forEach(entity -> points.add(
+                    (Long) entity.getProperty("timestamp"),
+                    (Long) entity.getProperty("value")
+            ));
+            parts.add(() -> points);
+        }
+        return parts;
+    }
+}
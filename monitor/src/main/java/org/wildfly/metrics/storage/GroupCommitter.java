@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces asynchronous writes into shared transactions (group commit).
+ * <p>
+ * Writes are queued and drained by a single committer thread. It commits everything that is pending at once,
+ * after waiting up to <code>maxDelay</code> for further writes, unless <code>maxPoints</code> have been collected before.
+ * Sharing a transaction saves the cost of a commit per write. The writes only share a sync to disk
+ * if the storage forces each commit (see {@link MetricStorageConfig#setDurableWrites(boolean)}), which is off by default.
+ * <p>
+ * The futures of all writes are completed once their transaction has been committed. If the transaction fails,
+ * the writes of the group are committed one by one, so that only the writes that fail on their own are failed.
+ * Writing a measurement again replaces it, retrying the writes that have been applied before the failure is harmless.
+ * <p>
+ * The queue is bounded: writes are rejected rather than blocking the caller when it is full.
+ * The thread is started with the first write.
+ */
+class GroupCommitter {
+
+    private static final Pending STOP = new Pending(null, 0);
+
+    private final BlockingQueue<Pending> queue;
+    private final long maxDelayNanos;
+    private final int maxPoints;
+    private final Consumer<Map<Series, Measurements>> commit;
+
+    // guards the state changes, so that nothing is queued after the committer has stopped
+    private final Object lock = new Object();
+    private Thread thread;
+    private boolean stopped;
+
+    GroupCommitter(int queueSize, long maxDelay, int maxPoints, Consumer<Map<Series, Measurements>> commit) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+        this.maxPoints = maxPoints;
+        this.commit = commit;
+    }
+
+    /**
+     * @param points the measurements to be written, must not be modified afterwards
+     * @return completes once the measurements have been committed, fails with a {@link RejectedExecutionException}
+     *         if the queue is full or the committer has been stopped
+     */
+    CompletableFuture<Void> submit(Map<Series, Measurements> points) {
+        int size = 0;
+        for (Measurements measurements : points.values()) {
+            size += measurements.size();
+        }
+
+        Pending pending = new Pending(points, size);
+        synchronized (lock) {
+            if(stopped)
+                return rejected("Storage has been stopped");
+
+            if(null == thread)
+            {
+                thread = new Thread(this::run, "metric-storage-commit");
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            if(!queue.offer(pending))
+                return rejected("Too many pending writes");
+        }
+        return pending.future;
+    }
+
+    private static CompletableFuture<Void> rejected(String message) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new RejectedExecutionException(message));
+        return future;
+    }
+
+    private void run() {
+        List<Pending> group = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                group.add(queue.take());
+                queue.drainTo(group);
+
+                int size = size(group);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (size < maxPoints && !isStopped(group)) {
+                    long remaining = deadline - System.nanoTime();
+                    if(remaining <= 0)
+                        break;
+
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if(null == next)
+                        break;
+
+                    group.add(next);
+                    size += next.size;
+                }
+            } catch (InterruptedException e) {
+                // not expected, the committer is stopped through the queue
+                for (Pending pending : group) {
+                    pending.future.completeExceptionally(e);
+                }
+                return;
+            }
+
+            // nothing is queued after STOP
+            running = !isStopped(group);
+            commit(group);
+            group.clear();
+        }
+    }
+
+    private static boolean isStopped(List<Pending> group) {
+        return !group.isEmpty() && group.get(group.size() - 1) == STOP;
+    }
+
+    private static int size(List<Pending> group) {
+        int size = 0;
+        for (Pending pending : group) {
+            size += pending.size;
+        }
+        return size;
+    }
+
+    private void commit(List<Pending> group) {
+        Map<Series, Measurements> merged = new LinkedHashMap<>();
+        int writes = 0;
+        for (Pending pending : group) {
+            if(pending == STOP)
+                continue;
+
+            writes++;
+            pending.points.forEach((series, points) -> {
+                Measurements target = merged.computeIfAbsent(series, s -> new Measurements(points.size()));
+                for (int i = 0; i < points.size(); i++) {
+                    target.add(points.getTimestamp(i), points.getValue(i));
+                }
+            });
+        }
+
+        try {
+            if(!merged.isEmpty())
+                commit.accept(merged);
+        } catch (Throwable t) {
+            for (Pending pending : group) {
+                if(writes > 1 && pending != STOP)
+                    commitAlone(pending);
+                else
+                    pending.future.completeExceptionally(t);
+            }
+            return;
+        }
+
+        for (Pending pending : group) {
+            pending.future.complete(null);
+        }
+    }
+
+    private void commitAlone(Pending pending) {
+        try {
+            commit.accept(pending.points);
+        } catch (Throwable t) {
+            pending.future.completeExceptionally(t);
+            return;
+        }
+        pending.future.complete(null);
+    }
+
+    /**
+     * Commits the pending writes and stops the committer thread. Writes submitted afterwards are rejected.
+     */
+    void stop() {
+        Thread committer;
+        synchronized (lock) {
+            if(stopped)
+                return;
+
+            stopped = true;
+            committer = thread;
+        }
+
+        if(null == committer)
+            return;
+
+        try {
+            // the queue may be full, the committer makes room
+            queue.put(STOP);
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Pending {
+        final Map<Series, Measurements> points;
+        final int size;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(Map<Series, Measurements> points, int size) {
+            this.points = points;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The most recent measurements of all series, held in memory until they are flushed to the storage.
+ * <p>
+ * Every measurement is appended to a write-ahead log before it becomes visible, so that the head
+ * can be restored after a crash (see {@link #replay(File, SeriesCatalog)}). By default the log is written, but not synced:
+ * it survives a crash of the process but not necessarily of the operating system. With <code>sync</code> each append
+ * is forced to disk before it's acknowledged.
+ * <p>
+ * A flush moves the measurements aside (see {@link #beginFlush()}), along with their log: the head receives
+ * new measurements while they are written to the storage, in a new log. The measurements that are being flushed
+ * remain visible until they have been committed, then their log is deleted. A crash in between leaves measurements
+ * in the log that have been stored already, the caller skips them when the log is replayed.
+ * <p>
+ * Not thread safe, {@link WritePipeline} and {@link MergedReads} synchronize on the instance.
+ */
+class HeadBlock {
+
+    static final String LOG_FILE = "head.wal";
+    private static final String FLUSHING_SUFFIX = ".flushing";
+
+    // series id, timestamp, value
+    private static final int RECORD_BYTES = 20;
+
+    private final File log;
+    private FileChannel channel;
+    private final int maxPoints;
+    private final boolean sync;
+
+    private Map<Series, Measurements> heads = new LinkedHashMap<>();
+    private int size;
+
+    // the measurements that are being flushed, null if there are none
+    private Map<Series, Measurements> flushing;
+    // the buffers of the previous flush, the same series are likely to be written again
+    private Map<Series, Measurements> spare;
+
+    // the most recent timestamp in the storage, by series id. Only known for series that have been flushed.
+    private final Map<Integer, Long> persistedEnd = new HashMap<>();
+
+    /**
+     * @param sync forces every append to disk
+     */
+    HeadBlock(File log, int maxPoints, boolean sync) {
+        this.log = log;
+        this.maxPoints = maxPoints;
+        this.sync = sync;
+        this.channel = open(log);
+    }
+
+    private static FileChannel open(File log) {
+        try {
+            return FileChannel.open(log.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open "+log, e);
+        }
+    }
+
+    /**
+     * @return the log of the measurements that are being flushed
+     */
+    static File flushingLog(File log) {
+        return new File(log.getPath() + FLUSHING_SUFFIX);
+    }
+
+    /**
+     * Reads the measurements that have been logged, but not flushed before the storage was closed:
+     * those that were being flushed, followed by the more recent ones.
+     */
+    static Map<Series, Measurements> replay(File log, SeriesCatalog catalog) {
+        Map<Series, Measurements> points = new LinkedHashMap<>();
+        replay(flushingLog(log), catalog, points);
+        replay(log, catalog, points);
+        return points;
+    }
+
+    private static void replay(File log, SeriesCatalog catalog, Map<Series, Measurements> points) {
+        if(!log.exists())
+            return;
+
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read fully
+            }
+            buffer.flip();
+
+            // an incomplete record at the end has never been acknowledged
+            while (buffer.remaining() >= RECORD_BYTES) {
+                Series series = catalog.get(buffer.getInt());
+                long timestamp = buffer.getLong();
+                long value = buffer.getLong();
+                if(series != null)
+                    points.computeIfAbsent(series, s -> new Measurements()).add(timestamp, value);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to replay "+log, e);
+        }
+    }
+
+    /**
+     * @return true if the head exceeds it's size and should be flushed
+     */
+    boolean append(Map<Series, Measurements> points) {
+        int n = 0;
+        for (Measurements measurements : points.values()) {
+            n += measurements.size();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(n * RECORD_BYTES);
+        points.forEach((series, measurements) -> {
+            for (int i = 0; i < measurements.size(); i++) {
+                buffer.putInt(series.getId());
+                buffer.putLong(measurements.getTimestamp(i));
+                buffer.putLong(measurements.getValue(i));
+            }
+        });
+        buffer.flip();
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if(sync)
+                channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write "+log, e);
+        }
+
+        points.forEach((series, measurements) -> {
+            Measurements head = heads.computeIfAbsent(series, s -> new Measurements());
+            for (int i = 0; i < measurements.size(); i++) {
+                head.add(measurements.getTimestamp(i), measurements.getValue(i));
+            }
+        });
+        size += n;
+
+        return size >= maxPoints;
+    }
+
+    /**
+     * @return true if there is nothing to be flushed
+     */
+    boolean isEmpty() {
+        return size == 0 && null == flushing;
+    }
+
+    /**
+     * Moves the measurements aside to be flushed and continues with a new log. If the previous flush has failed,
+     * it's measurements are returned again, the measurements that have been added since remain in the head.
+     *
+     * @return the measurements to be flushed, valid until {@link #flushed(Map)}
+     */
+    Map<Series, Measurements> beginFlush() {
+        if(flushing != null)
+            return flushing;
+
+        try {
+            channel.close();
+            Files.move(log.toPath(), flushingLog(log).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to rotate "+log, e);
+        }
+        channel = open(log);
+
+        flushing = heads;
+        heads = null == spare ? new LinkedHashMap<>() : spare;
+        spare = null;
+        size = 0;
+        return flushing;
+    }
+
+    boolean isPersistedEndKnown(Series series) {
+        return persistedEnd.containsKey(series.getId());
+    }
+
+    /**
+     * Invoked once the measurements of {@link #beginFlush()} have been committed. Drops them and their log.
+     *
+     * @param ends the most recent timestamp in the storage, of the series that have been flushed
+     */
+    void flushed(Map<Integer, Long> ends) {
+        ends.forEach((id, end) -> persistedEnd.merge(id, end, Math::max));
+
+        for (Measurements points : flushing.values()) {
+            points.clear();
+        }
+        spare = flushing;
+        flushing = null;
+
+        File flushed = flushingLog(log);
+        if(!flushed.delete() && flushed.exists())
+            throw new RuntimeException("Failed to delete "+flushed);
+    }
+
+    /**
+     * Copies the measurements of a series within <code>[from, to]</code>, except those that are being flushed.
+     */
+    void read(Series series, long from, long to, Measurements results) {
+        copy(heads.get(series), from, to, results);
+    }
+
+    /**
+     * Copies the measurements of a series within <code>[from, to]</code> that are being flushed.
+     * They precede the others.
+     */
+    void readFlushing(Series series, long from, long to, Measurements results) {
+        if(flushing != null)
+            copy(flushing.get(series), from, to, results);
+    }
+
+    private static void copy(Measurements head, long from, long to, Measurements results) {
+        if(null == head)
+            return;
+
+        for (int i = 0; i < head.size(); i++) {
+            long timestamp = head.getTimestamp(i);
+            if(timestamp >= from && timestamp <= to)
+                results.add(timestamp, head.getValue(i));
+        }
+    }
+
+    /**
+     * @return true if the head holds a measurement of the series with the given timestamp
+     */
+    boolean contains(Series series, long timestamp) {
+        return contains(heads.get(series), timestamp) || (flushing != null && contains(flushing.get(series), timestamp));
+    }
+
+    private static boolean contains(Measurements head, long timestamp) {
+        if(null == head)
+            return false;
+
+        for (int i = head.size() - 1; i >= 0; i--) {
+            if(head.getTimestamp(i) == timestamp)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the storage doesn't contain any measurements of the series at or after <code>from</code>,
+     *         apart from those that are being flushed
+     */
+    boolean covers(Series series, long from) {
+        Long end = persistedEnd.get(series.getId());
+        return end != null && end < from;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close "+log, e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Cursor;
+
+/**
+ * Binary keys and values for the raw Xodus stores.
+ * <p>
+ * Keys are <code>(seriesId, timestamp)</code> in big-endian order, so that the natural byte order of a store
+ * groups all entries of a series and orders them by time. The sign bit of the timestamp is flipped,
+ * which keeps negative timestamps in order as well. Stores that hold several entries per timestamp
+ * append a suffix that tells them apart.
+ */
+final class Keys {
+
+    static final int KEY_LENGTH = 12;
+
+    private Keys() {
+    }
+
+    static ArrayByteIterable key(int seriesId, long timestamp) {
+        byte[] bytes = new byte[KEY_LENGTH];
+        writeInt(bytes, 0, seriesId);
+        writeLong(bytes, 4, timestamp ^ Long.MIN_VALUE);
+        return new ArrayByteIterable(bytes);
+    }
+
+    static ArrayByteIterable key(int seriesId, long timestamp, long suffix) {
+        byte[] bytes = new byte[KEY_LENGTH + 8];
+        writeInt(bytes, 0, seriesId);
+        writeLong(bytes, 4, timestamp ^ Long.MIN_VALUE);
+        writeLong(bytes, KEY_LENGTH, suffix);
+        return new ArrayByteIterable(bytes);
+    }
+
+    static int seriesId(ByteIterable key) {
+        return readInt(key.getBytesUnsafe(), 0);
+    }
+
+    static long timestamp(ByteIterable key) {
+        return readLong(key.getBytesUnsafe(), 4) ^ Long.MIN_VALUE;
+    }
+
+    static long suffix(ByteIterable key) {
+        return readLong(key.getBytesUnsafe(), KEY_LENGTH);
+    }
+
+    static ArrayByteIterable longValue(long value) {
+        byte[] bytes = new byte[8];
+        writeLong(bytes, 0, value);
+        return new ArrayByteIterable(bytes);
+    }
+
+    static long longValue(ByteIterable value) {
+        return readLong(value.getBytesUnsafe(), 0);
+    }
+
+    /**
+     * @return the oldest timestamp of a series within the store of the cursor, {@link Long#MAX_VALUE} if there is none
+     */
+    static long firstTimestamp(Cursor cursor, int seriesId) {
+        if(null == cursor.getSearchKeyRange(key(seriesId, Long.MIN_VALUE)) || seriesId(cursor.getKey()) != seriesId)
+            return Long.MAX_VALUE;
+        return timestamp(cursor.getKey());
+    }
+
+    /**
+     * Bisects the timestamps of the series with range searches, i.e. up to 64 seeks, independent of the number
+     * of entries. Stepping back from a search would take a single one, but doesn't reliably reach the preceding entry
+     * with the cursors of stores with prefixing.
+     *
+     * @return the most recent timestamp of a series within the store of the cursor, {@link Long#MIN_VALUE} if there is none
+     */
+    static long lastTimestamp(Cursor cursor, int seriesId) {
+        if(null == cursor.getSearchKeyRange(key(seriesId, Long.MIN_VALUE)) || seriesId(cursor.getKey()) != seriesId)
+            return Long.MIN_VALUE;
+
+        // there is an entry at 'last', there are none after 'bound'
+        long last = timestamp(cursor.getKey());
+        long bound = Long.MAX_VALUE;
+        while (last < bound) {
+            long mid = last + ((bound - last) >>> 1) + 1;
+            if(null == cursor.getSearchKeyRange(key(seriesId, mid)) || seriesId(cursor.getKey()) != seriesId)
+                bound = mid - 1;
+            else
+                last = timestamp(cursor.getKey());
+        }
+        return last;
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24)
+                | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8)
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
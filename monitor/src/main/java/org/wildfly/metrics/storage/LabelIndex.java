@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index from labels to series ids.
+ * <p>
+ * Each label value, and each label name, maps to a posting list: the sorted ids of the series that carry it.
+ * A selector is resolved by intersecting the posting lists of its matchers, starting with the shortest one,
+ * so that the cost depends on the number of matches rather than on the number of series.
+ * <p>
+ * Kept in memory along with the {@link SeriesCatalog}, it's rebuilt from the labels of the metric keys when the storage is opened.
+ */
+class LabelIndex {
+
+    private static final int[] NONE = new int[0];
+
+    // label name -> label value -> series ids
+    private final Map<String, Map<String, Postings>> byValue = new HashMap<>();
+
+    // label name -> series ids, regardless of the value
+    private final Map<String, Postings> byName = new HashMap<>();
+
+    synchronized void add(int id, Labels labels) {
+        labels.asMap().forEach((name, value) -> {
+            byName.computeIfAbsent(name, n -> new Postings()).add(id);
+            byValue.computeIfAbsent(name, n -> new HashMap<>()).computeIfAbsent(value, v -> new Postings()).add(id);
+        });
+    }
+
+    /**
+     * @return the sorted ids of the series that match all matchers of the selector
+     */
+    synchronized int[] select(Selector selector) {
+        List<Selector.Matcher> matchers = selector.getMatchers();
+        if(matchers.isEmpty())
+            throw new IllegalArgumentException("Empty selector");
+
+        List<Postings> lists = new ArrayList<>(matchers.size());
+        for (Selector.Matcher matcher : matchers) {
+            Postings postings = matcher.isAny() ?
+                    byName.get(matcher.name) :
+                    byValue.getOrDefault(matcher.name, Collections.emptyMap()).get(matcher.value);
+
+            if(null == postings)
+                return NONE;
+            lists.add(postings);
+        }
+
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        Postings shortest = lists.get(0);
+        int[] result = new int[shortest.size];
+        int n = 0;
+
+        // the lists are sorted, the search in each list continues where the last one ended
+        int[] cursors = new int[lists.size()];
+        next:
+        for (int i = 0; i < shortest.size; i++) {
+            int id = shortest.ids[i];
+            for (int k = 1; k < lists.size(); k++) {
+                Postings other = lists.get(k);
+                int pos = Arrays.binarySearch(other.ids, cursors[k], other.size, id);
+                if(pos < 0)
+                {
+                    cursors[k] = -pos - 1;
+                    if(cursors[k] == other.size)
+                        break next;
+                    continue next;
+                }
+                cursors[k] = pos + 1;
+            }
+            result[n++] = id;
+        }
+
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            // ids are usually assigned in ascending order
+            if(size == 0 || ids[size - 1] < id)
+            {
+                ensureCapacity();
+                ids[size++] = id;
+                return;
+            }
+
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if(pos >= 0)
+                return;
+
+            pos = -pos - 1;
+            ensureCapacity();
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        private void ensureCapacity() {
+            if(size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+        }
+    }
+}
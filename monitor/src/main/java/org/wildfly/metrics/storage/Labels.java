@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The labels of a series, i.e. <code>host=master, server=server-one, attribute=heap-memory-usage</code>.
+ * Immutable, ordered by label name.
+ *
+ * @see MetricStorage#registerIfAbsent(Map)
+ * @see Selector
+ */
+public final class Labels {
+
+    public static final Labels EMPTY = new Labels(Collections.emptyMap());
+
+    private final Map<String, String> labels;
+
+    private Labels(Map<String, String> labels) {
+        this.labels = labels;
+    }
+
+    /**
+     * @param namesAndValues alternating label names and values
+     */
+    public static Labels of(String... namesAndValues) {
+        if(namesAndValues.length % 2 != 0)
+            throw new IllegalArgumentException("Expected pairs of names and values");
+
+        Map<String, String> labels = new TreeMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            labels.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return of(labels);
+    }
+
+    /**
+     * @param labels label values by name, empty values are skipped
+     */
+    public static Labels of(Map<String, String> labels) {
+        Map<String, String> copy = new TreeMap<>();
+        labels.forEach((name, value) -> {
+            if(null == name || name.isEmpty())
+                throw new IllegalArgumentException("Invalid label name: "+name);
+            if(value != null && !value.isEmpty())
+                copy.put(name, value);
+        });
+        return copy.isEmpty() ? EMPTY : new Labels(Collections.unmodifiableMap(copy));
+    }
+
+    /**
+     * @return the value of a label, or null if the series doesn't carry it
+     */
+    public String get(String name) {
+        return labels.get(name);
+    }
+
+    /**
+     * @return a read-only view, ordered by label name
+     */
+    public Map<String, String> asMap() {
+        return labels;
+    }
+
+    public boolean isEmpty() {
+        return labels.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Labels)) return false;
+        return labels.equals(((Labels) o).labels);
+    }
+
+    @Override
+    public int hashCode() {
+        return labels.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return labels.toString();
+    }
+}
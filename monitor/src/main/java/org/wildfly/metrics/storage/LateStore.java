@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.StoreConfig;
+import jetbrains.exodus.env.Transaction;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Measurements that arrived at or before the watermark of their series (see {@link ReorderBuffer}),
+ * kept apart from the layouts, which require ascending timestamps.
+ * <p>
+ * A single raw Xodus store keyed by <code>(seriesId, timestamp)</code> (see {@link Keys}). Writing the same timestamp
+ * twice replaces the previous value, the store doesn't grow with retries. On reads, late measurements are merged
+ * into the measurements of the layout and replace those of the same timestamp (last write wins), see {@link Merge}.
+ * <p>
+ * Late measurements are folded into the layouts that can take them when the storage is flushed (see {@link StorageLayout#fold}),
+ * only those that the layout can't take remain.
+ * <p>
+ * The ids of the series that have late measurements are held in memory, so that reads of the other series
+ * don't touch the store. Once all measurements of a series have been folded, the series remains visible
+ * to the transactions that began before.
+ */
+class LateStore {
+
+    static final String STORE_NAME = "late-measurements";
+
+    private final Environment environment;
+    private final Store store;
+
+    // committed state: Long.MAX_VALUE for the series that have late measurements,
+    // the high address of the transaction that has folded the last of them for the others, see #contains(Transaction, Series)
+    private final ConcurrentMap<Integer, Long> series = new ConcurrentHashMap<>();
+
+    // uncommitted state of the current write transaction
+    private final Set<Integer> added = new HashSet<>();
+    private final Set<Integer> folded = new HashSet<>();
+
+    LateStore(Environment environment) {
+        this.environment = environment;
+        this.store = environment.computeInTransaction(txn -> {
+            Store store = environment.openStore(STORE_NAME, StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING, txn);
+
+            // one seek per series
+            try (Cursor cursor = store.openCursor(txn)) {
+                boolean found = cursor.getSearchKeyRange(Keys.key(0, Long.MIN_VALUE)) != null;
+                while (found) {
+                    int id = Keys.seriesId(cursor.getKey());
+                    series.put(id, Long.MAX_VALUE);
+                    found = id < Integer.MAX_VALUE && cursor.getSearchKeyRange(Keys.key(id + 1, Long.MIN_VALUE)) != null;
+                }
+            }
+            return store;
+        });
+    }
+
+    void begin() {
+        added.clear();
+        folded.clear();
+    }
+
+    /**
+     * @return true if the timestamp hasn't been written before, false if a previous value has been replaced
+     */
+    boolean put(Transaction txn, Series series, long timestamp, long value) {
+        ByteIterable key = Keys.key(series.getId(), timestamp);
+        boolean exists = store.get(txn, key) != null;
+        store.put(txn, key, Keys.longValue(value));
+        added.add(series.getId());
+        return !exists;
+    }
+
+    /**
+     * Removes late measurements that have been written to the layout.
+     */
+    void remove(Transaction txn, Series series, Measurements points) {
+        for (int i = 0; i < points.size(); i++) {
+            store.delete(txn, Keys.key(series.getId(), points.getTimestamp(i)));
+        }
+
+        try (Cursor cursor = store.openCursor(txn)) {
+            if(Keys.firstTimestamp(cursor, series.getId()) == Long.MAX_VALUE)
+                folded.add(series.getId());
+        }
+    }
+
+    void committed() {
+        if(!folded.isEmpty())
+        {
+            // the transaction has been committed, later ones begin at or after this address
+            long address = environment.computeInReadonlyTransaction(Transaction::getHighAddress);
+            for (Integer id : folded) {
+                series.put(id, address);
+            }
+        }
+        for (Integer id : added) {
+            series.put(id, Long.MAX_VALUE);
+        }
+        added.clear();
+        folded.clear();
+    }
+
+    /**
+     * @return true if the series may have late measurements
+     */
+    boolean contains(Series series) {
+        Long state = this.series.get(series.getId());
+        return state != null && state == Long.MAX_VALUE;
+    }
+
+    /**
+     * @return true if the series may have late measurements within the snapshot of the transaction,
+     *         including those that have been folded after it began
+     */
+    boolean contains(Transaction txn, Series series) {
+        Long state = this.series.get(series.getId());
+        return state != null && txn.getHighAddress() < state;
+    }
+
+    /**
+     * @return the ids of the series that have late measurements
+     */
+    Set<Integer> getSeries() {
+        Set<Integer> ids = new HashSet<>();
+        this.series.forEach((id, state) -> {
+            if(state == Long.MAX_VALUE)
+                ids.add(id);
+        });
+        return ids;
+    }
+
+    /**
+     * Copies the late measurements of a series within <code>[from, to]</code>, ordered by time.
+     * Within a write transaction, this includes those that it has written.
+     */
+    void read(Transaction txn, Series series, long from, long to, Measurements results) {
+        try (Cursor cursor = store.openCursor(txn)) {
+            if(null == cursor.getSearchKeyRange(Keys.key(series.getId(), from)))
+                return;
+
+            do {
+                ByteIterable key = cursor.getKey();
+                if(Keys.seriesId(key) != series.getId())
+                    break;
+
+                long timestamp = Keys.timestamp(key);
+                if(timestamp > to)
+                    break;
+
+                results.add(timestamp, Keys.longValue(cursor.getValue()));
+            }
+            while (cursor.getNext());
+        }
+    }
+
+    /**
+     * @return the oldest late timestamp of a series, {@link Long#MAX_VALUE} if there is none
+     */
+    long getFirstTimestamp(Transaction txn, Series series) {
+        if(!contains(txn, series))
+            return Long.MAX_VALUE;
+
+        try (Cursor cursor = store.openCursor(txn)) {
+            return Keys.firstTimestamp(cursor, series.getId());
+        }
+    }
+
+    /**
+     * @return the most recent late timestamp of a series, {@link Long#MIN_VALUE} if there is none
+     */
+    long getLastTimestamp(Transaction txn, Series series) {
+        if(!contains(txn, series))
+            return Long.MIN_VALUE;
+
+        try (Cursor cursor = store.openCursor(txn)) {
+            return Keys.lastTimestamp(cursor, series.getId());
+        }
+    }
+
+    /**
+     * Removes the late measurements older than <code>before</code>.
+     *
+     * @return the number of measurements removed
+     */
+    int expire(Transaction txn, long before) {
+        int removed = 0;
+        try (Cursor cursor = store.openCursor(txn)) {
+            for (Integer id : series.keySet()) {
+                if(null == cursor.getSearchKeyRange(Keys.key(id, Long.MIN_VALUE)))
+                    continue;
+
+                do {
+                    ByteIterable key = cursor.getKey();
+                    if(Keys.seriesId(key) != id || Keys.timestamp(key) >= before)
+                        break;
+
+                    cursor.deleteCurrent();
+                    removed++;
+                }
+                while (cursor.getNext());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Merges late measurements into a stream of measurements ordered by time.
+     * Late measurements replace those of the same timestamp. {@link #finish()} passes on the remaining ones.
+     */
+    static final class Merge implements MeasurementVisitor {
+
+        private final Measurements late;
+        private final MeasurementVisitor target;
+        private int next;
+
+        /**
+         * @param late ordered by time, unique timestamps
+         */
+        Merge(Measurements late, MeasurementVisitor target) {
+            this.late = late;
+            this.target = target;
+        }
+
+        @Override
+        public void visit(long timestamp, long value) {
+            while (next < late.size() && late.getTimestamp(next) < timestamp) {
+                target.visit(late.getTimestamp(next), late.getValue(next));
+                next++;
+            }
+
+            if(next < late.size() && late.getTimestamp(next) == timestamp)
+            {
+                target.visit(timestamp, late.getValue(next));
+                next++;
+                return;
+            }
+
+            target.visit(timestamp, value);
+        }
+
+        void finish() {
+            while (next < late.size()) {
+                target.visit(late.getTimestamp(next), late.getValue(next));
+                next++;
+            }
+        }
+    }
+}
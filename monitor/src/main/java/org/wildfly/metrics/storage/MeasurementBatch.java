@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Collects measurements for several metrics, to be written within a single transaction.
+ *
+ * <pre>
+ *     MeasurementBatch batch = new MeasurementBatch()
+ *          .add("heap", now, 512)
+ *          .add("threads", now, 42);
+ *
+ *     storage.addMeasurements(batch);
+ * </pre>
+ *
+ * Measurements can also be added by series id (see {@link MetricStorage#getOrCreateSeries(String)}),
+ * which avoids the lookup of the metric name. Double values need to be added to metrics
+ * of type {@link MetricStorage.ValueType#DOUBLE}, long values to the others.
+ *
+ * @see MetricStorage#addMeasurements(MeasurementBatch)
+ */
+public class MeasurementBatch {
+
+    private final Map<String, Measurements> points = new LinkedHashMap<>();
+    private final Map<Integer, Measurements> pointsById = new HashMap<>();
+
+    // the IEEE 754 bits of double values
+    private final Map<String, Measurements> doublePoints = new LinkedHashMap<>();
+    private final Map<Integer, Measurements> doublePointsById = new HashMap<>();
+
+    private int size;
+
+    public MeasurementBatch add(String metricName, long timestamp, long value) {
+        return add(MetricStorage.ValueType.LONG, metricName, timestamp, value);
+    }
+
+    public MeasurementBatch add(String metricName, long timestamp, double value) {
+        return add(MetricStorage.ValueType.DOUBLE, metricName, timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    public MeasurementBatch add(int seriesId, long timestamp, long value) {
+        return add(MetricStorage.ValueType.LONG, seriesId, timestamp, value);
+    }
+
+    public MeasurementBatch add(int seriesId, long timestamp, double value) {
+        return add(MetricStorage.ValueType.DOUBLE, seriesId, timestamp, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * @param value the value, or the bits of a double value
+     */
+    MeasurementBatch add(MetricStorage.ValueType type, String metricName, long timestamp, long value) {
+        Map<String, Measurements> target = type == MetricStorage.ValueType.DOUBLE ? doublePoints : points;
+        target.computeIfAbsent(metricName, key -> new Measurements()).add(timestamp, value);
+        size++;
+        return this;
+    }
+
+    MeasurementBatch add(MetricStorage.ValueType type, int seriesId, long timestamp, long value) {
+        Map<Integer, Measurements> target = type == MetricStorage.ValueType.DOUBLE ? doublePointsById : pointsById;
+        target.computeIfAbsent(seriesId, key -> new Measurements()).add(timestamp, value);
+        size++;
+        return this;
+    }
+
+    /**
+     * @return the total number of measurements in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param consumer receives the measurements that have been added by name, the values of doubles as their bits
+     */
+    void forEach(MetricStorage.ValueType type, BiConsumer<String, Measurements> consumer) {
+        (type == MetricStorage.ValueType.DOUBLE ? doublePoints : points).forEach(consumer);
+    }
+
+    void forEachSeries(MetricStorage.ValueType type, ObjIntConsumer<Measurements> consumer) {
+        (type == MetricStorage.ValueType.DOUBLE ? doublePointsById : pointsById).forEach(
+                (seriesId, measurements) -> consumer.accept(measurements, seriesId)
+        );
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.Arrays;
+
+/**
+ * Columnar, primitive representation of measurements: parallel arrays of timestamps and values.
+ * <p>
+ * Instances can be reused across queries to avoid allocations, see {@link MetricStorage#getMeasurements(String, long, long, Measurements)}.
+ * The backing arrays grow as needed and are only valid up to {@link #size()}.
+ */
+public class Measurements {
+
+    private long[] timestamps;
+    private long[] values;
+    private int size;
+
+    public Measurements() {
+        this(16);
+    }
+
+    public Measurements(int capacity) {
+        this.timestamps = new long[capacity];
+        this.values = new long[capacity];
+    }
+
+    public void add(long timestamp, long value) {
+        if(size == timestamps.length)
+        {
+            int capacity = Math.max(16, size * 2);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Resets the size, but retains the allocated capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public long getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * @return the backing array, valid up to {@link #size()}
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return the backing array, valid up to {@link #size()}
+     */
+    public long[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.entitystore.PersistentEntityStoreImpl;
+import jetbrains.exodus.entitystore.PersistentStoreTransaction;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Reads the measurements of the layout along with those that are kept apart or held in memory:
+ * the late measurements (see {@link LateStore}), the head and the reorder buffer of the {@link WritePipeline}.
+ * <p>
+ * The buffers are only locked while they are copied, the layout is read outside of their locks.
+ * Measurements that are written in between are read once: the copies are reconciled with the read transaction.
+ */
+class MergedReads {
+
+    private final PersistentEntityStoreImpl store;
+    private final StorageLayout measurements;
+    private final LateStore late;
+
+    // null if measurements are written through
+    private final HeadBlock head;
+    private final ReorderBuffer reorder;
+    private final long reorderWindow;
+
+    MergedReads(PersistentEntityStoreImpl store, StorageLayout measurements, LateStore late,
+                HeadBlock head, ReorderBuffer reorder, long reorderWindow) {
+        this.store = store;
+        this.measurements = measurements;
+        this.late = late;
+        this.head = head;
+        this.reorder = reorder;
+        this.reorderWindow = reorderWindow;
+    }
+
+    /**
+     * @return the most recent timestamp of a series in the storage (including the late measurements) or held in memory,
+     *         {@link Long#MIN_VALUE} if there is none
+     */
+    long getLastTimestamp(Series series) {
+        Measurements recent = new Measurements();
+        long end = Long.MIN_VALUE;
+        PersistentStoreTransaction txn = beginRead(series, Long.MIN_VALUE, Long.MAX_VALUE, recent);
+        if(txn != null)
+        {
+            try {
+                end = Math.max(measurements.getLastTimestamp(txn, series), late.getLastTimestamp(txn.getEnvironmentTransaction(), series));
+            } finally {
+                txn.abort();
+            }
+        }
+        for (int i = 0; i < recent.size(); i++) {
+            end = Math.max(end, recent.getTimestamp(i));
+        }
+        return end;
+    }
+
+    /**
+     * Begins a read transaction, and copies the measurements within <code>[from, to]</code> that are held in memory:
+     * the head, followed by the measurements within the reorder window.
+     *
+     * @return null if the head covers the range and the storage doesn't need to be read
+     */
+    PersistentStoreTransaction beginRead(Series series, long from, long to, Measurements recent) {
+        if(reorderWindow <= 0)
+            return beginHeadRead(series, from, to, recent);
+
+        // the reorder lock is only held for the copy, released measurements are written outside of it
+        Measurements buffered = new Measurements(0);
+        synchronized (reorder) {
+            reorder.read(series, from, to, buffered);
+        }
+        if(buffered.isEmpty())
+            return beginHeadRead(series, from, to, recent);
+
+        Measurements inHead = new Measurements(0);
+        PersistentStoreTransaction txn = beginHeadRead(series, from, to, inHead);
+        merge(txn, series, to, inHead, buffered, recent);
+        return txn;
+    }
+
+    /**
+     * Begins a read transaction for several series, along with the measurements of each that are held in memory.
+     */
+    PersistentStoreTransaction beginRead(List<Series> series, long from, long to, Measurements[] recent) {
+        for (int i = 0; i < recent.length; i++) {
+            recent[i] = new Measurements(0);
+        }
+
+        if(reorderWindow <= 0)
+            return beginHeadRead(series, from, to, recent);
+
+        Measurements[] buffered = new Measurements[recent.length];
+        synchronized (reorder) {
+            for (int i = 0; i < recent.length; i++) {
+                buffered[i] = new Measurements(0);
+                reorder.read(series.get(i), from, to, buffered[i]);
+            }
+        }
+
+        Measurements[] inHead = new Measurements[recent.length];
+        for (int i = 0; i < recent.length; i++) {
+            inHead[i] = new Measurements(0);
+        }
+        PersistentStoreTransaction txn = beginHeadRead(series, from, to, inHead);
+        for (int i = 0; i < recent.length; i++) {
+            if(buffered[i].isEmpty())
+                recent[i] = inHead[i];
+            else
+                merge(txn, series.get(i), to, inHead[i], buffered[i], recent[i]);
+        }
+        return txn;
+    }
+
+    /**
+     * Appends the measurements copied from the reorder buffer to those copied from the head.
+     * <p>
+     * The copied measurements may have been written in between: released measurements are newer than anything
+     * written before, so the head and the storage only hold them from the first copied timestamp on.
+     * Those of the head are dropped, the stored ones are omitted from the copy.
+     */
+    private void merge(PersistentStoreTransaction txn, Series series, long to, Measurements inHead, Measurements buffered, Measurements recent) {
+        long first = buffered.getTimestamp(0);
+        for (int i = 0; i < inHead.size() && inHead.getTimestamp(i) < first; i++) {
+            recent.add(inHead.getTimestamp(i), inHead.getValue(i));
+        }
+
+        Measurements stored = new Measurements(0);
+        if(txn != null)
+            measurements.read(txn, series, first, to, stored::add);
+
+        int j = 0;
+        for (int i = 0; i < buffered.size(); i++) {
+            long timestamp = buffered.getTimestamp(i);
+            while (j < stored.size() && stored.getTimestamp(j) < timestamp) {
+                j++;
+            }
+            if(j < stored.size() && stored.getTimestamp(j) == timestamp)
+                continue;
+            recent.add(timestamp, buffered.getValue(i));
+        }
+    }
+
+    private PersistentStoreTransaction beginHeadRead(List<Series> series, long from, long to, Measurements[] recent) {
+        if(null == head)
+            return store.beginReadonlyTransaction();
+
+        Measurements[] flushing = new Measurements[recent.length];
+        Measurements[] active = new Measurements[recent.length];
+        PersistentStoreTransaction txn;
+        synchronized (head) {
+            for (int i = 0; i < recent.length; i++) {
+                flushing[i] = new Measurements(0);
+                active[i] = new Measurements(0);
+                head.readFlushing(series.get(i), from, to, flushing[i]);
+                head.read(series.get(i), from, to, active[i]);
+            }
+            txn = store.beginReadonlyTransaction();
+        }
+
+        for (int i = 0; i < recent.length; i++) {
+            addHead(txn, series.get(i), flushing[i], active[i], recent[i]);
+        }
+        return txn;
+    }
+
+    private PersistentStoreTransaction beginHeadRead(Series series, long from, long to, Measurements recent) {
+        if(null == head)
+            return store.beginReadonlyTransaction();
+
+        Measurements flushing = new Measurements(0);
+        Measurements active = new Measurements(0);
+        PersistentStoreTransaction txn;
+        synchronized (head) {
+            head.readFlushing(series, from, to, flushing);
+            head.read(series, from, to, active);
+            txn = head.covers(series, from) && !late.contains(series) ? null : store.beginReadonlyTransaction();
+        }
+
+        addHead(txn, series, flushing, active, recent);
+        return txn;
+    }
+
+    /**
+     * The head is swapped out before it's flushed, a transaction that begins while the flush is written
+     * may or may not include the measurements that are being flushed. They are only added if it doesn't:
+     * they follow all measurements that had been stored before. The segments of {@link MetricStorage.Layout#SEGMENTS} are read
+     * without a transaction, reads that overlap the end of a flush may see its measurements twice.
+     */
+    private void addHead(PersistentStoreTransaction txn, Series series, Measurements flushing, Measurements active, Measurements recent) {
+        if(!flushing.isEmpty() && (null == txn || measurements.getLastTimestamp(txn, series) < flushing.getTimestamp(0)))
+        {
+            for (int i = 0; i < flushing.size(); i++) {
+                recent.add(flushing.getTimestamp(i), flushing.getValue(i));
+            }
+        }
+        for (int i = 0; i < active.size(); i++) {
+            recent.add(active.getTimestamp(i), active.getValue(i));
+        }
+    }
+
+    /**
+     * @return a visitor that merges the late measurements within <code>[from, to]</code> into those passed to it,
+     *         null if the series doesn't have any late measurements within the range
+     */
+    LateStore.Merge mergeLate(PersistentStoreTransaction txn, Series series, long from, long to, MeasurementVisitor visitor) {
+        if(!late.contains(txn.getEnvironmentTransaction(), series))
+            return null;
+
+        Measurements points = new Measurements();
+        late.read(txn.getEnvironmentTransaction(), series, from, to, points);
+        return points.isEmpty() ? null : new LateStore.Merge(points, visitor);
+    }
+
+    /**
+     * Reads the measurements of a series within <code>[from, to]</code>, the layout divides the work between the threads of the pool.
+     *
+     * @param results receives the stored measurements, followed by those held in memory
+     * @return the results
+     */
+    Measurements read(Series series, long from, long to, ForkJoinPool pool, Measurements results) {
+        Measurements recent = new Measurements();
+
+        PersistentStoreTransaction txn = beginRead(series, from, to, recent);
+        if(txn != null)
+        {
+            try {
+                measurements.read(txn, series, from, to, pool, results);
+
+                Measurements stored = new Measurements(results.size());
+                LateStore.Merge merge = mergeLate(txn, series, from, to, stored::add);
+                if(merge != null)
+                {
+                    for (int i = 0; i < results.size(); i++) {
+                        merge.visit(results.getTimestamp(i), results.getValue(i));
+                    }
+                    for (int i = 0; i < recent.size(); i++) {
+                        merge.visit(recent.getTimestamp(i), recent.getValue(i));
+                    }
+                    merge.finish();
+
+                    results.clear();
+                    recent = stored;
+                }
+            } finally {
+                txn.abort();
+            }
+        }
+
+        for (int i = 0; i < recent.size(); i++) {
+            results.add(recent.getTimestamp(i), recent.getValue(i));
+        }
+
+        return results;
+    }
+
+    /**
+     * Reads the measurements of several series within a single read transaction.
+     *
+     * @param series ordered by id
+     * @param pool decodes the measurements of the series, null to decode them sequentially
+     * @return the measurements of each series, in the same order
+     */
+    Measurements[] readAll(List<Series> series, long from, long to, ForkJoinPool pool) {
+        int numSeries = series.size();
+        Measurements[] recent = new Measurements[numSeries];
+        Measurements[] latePoints = new Measurements[numSeries];
+        List<Supplier<Measurements>> parts;
+
+        PersistentStoreTransaction txn = beginRead(series, from, to, recent);
+        try {
+            parts = measurements.readAll(txn, series, from, to);
+
+            for (int i = 0; i < numSeries; i++) {
+                if(late.contains(txn.getEnvironmentTransaction(), series.get(i)))
+                {
+                    Measurements points = new Measurements();
+                    late.read(txn.getEnvironmentTransaction(), series.get(i), from, to, points);
+                    if(!points.isEmpty())
+                        latePoints[i] = points;
+                }
+            }
+        } finally {
+            txn.abort();
+        }
+
+        IntFunction<Measurements> complete = i -> complete(parts.get(i).get(), latePoints[i], recent[i]);
+
+        Measurements[] results;
+        if(null == pool)
+        {
+            results = new Measurements[numSeries];
+            for (int i = 0; i < numSeries; i++) {
+                results[i] = complete.apply(i);
+            }
+        }
+        else
+        {
+            results = ParallelScan.invoke(pool, numSeries, complete);
+        }
+
+        return results;
+    }
+
+    /**
+     * Appends the measurements held in memory to the stored ones, and merges the late ones.
+     */
+    private static Measurements complete(Measurements stored, Measurements latePoints, Measurements recent) {
+        if(null == latePoints)
+        {
+            for (int i = 0; i < recent.size(); i++) {
+                stored.add(recent.getTimestamp(i), recent.getValue(i));
+            }
+            return stored;
+        }
+
+        Measurements merged = new Measurements(stored.size() + latePoints.size() + recent.size());
+        LateStore.Merge merge = new LateStore.Merge(latePoints, merged::add);
+        for (int i = 0; i < stored.size(); i++) {
+            merge.visit(stored.getTimestamp(i), stored.getValue(i));
+        }
+        for (int i = 0; i < recent.size(); i++) {
+            merge.visit(recent.getTimestamp(i), recent.getValue(i));
+        }
+        merge.finish();
+        return merged;
+    }
+
+    /**
+     * Passes the measurements of a series within <code>[from, to]</code> to the visitor, while they are read.
+     */
+    void visit(Series series, long from, long to, MeasurementVisitor visitor) {
+        Measurements recent = new Measurements();
+        MeasurementVisitor target = visitor;
+        LateStore.Merge merge = null;
+
+        PersistentStoreTransaction txn = beginRead(series, from, to, recent);
+        if(txn != null)
+        {
+            try {
+                merge = mergeLate(txn, series, from, to, visitor);
+                if(merge != null)
+                    target = merge;
+
+                measurements.read(txn, series, from, to, target);
+            } finally {
+                txn.abort();
+            }
+        }
+
+        for (int i = 0; i < recent.size(); i++) {
+            target.visit(recent.getTimestamp(i), recent.getValue(i));
+        }
+
+        if(merge != null)
+            merge.finish();
+    }
+
+    /**
+     * Removes the measurements that have been replaced by late ones (the late ones are part of the storage).
+     */
+    void omitReplaced(PersistentStoreTransaction txn, Series series, Measurements recent) {
+        Measurements replaced = new Measurements();
+        late.read(txn.getEnvironmentTransaction(), series, recent.getTimestamp(0), recent.getTimestamp(recent.size() - 1), replaced);
+        if(replaced.isEmpty())
+            return;
+
+        Measurements retained = new Measurements(recent.size());
+        int next = 0;
+        for (int i = 0; i < recent.size(); i++) {
+            long timestamp = recent.getTimestamp(i);
+            while (next < replaced.size() && replaced.getTimestamp(next) < timestamp) {
+                next++;
+            }
+            if(next == replaced.size() || replaced.getTimestamp(next) != timestamp)
+                retained.add(timestamp, recent.getValue(i));
+        }
+
+        recent.clear();
+        for (int i = 0; i < retained.size(); i++) {
+            recent.add(retained.getTimestamp(i), retained.getValue(i));
+        }
+    }}
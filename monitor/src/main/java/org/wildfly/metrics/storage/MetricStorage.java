@@ -22,45 +22,208 @@ package org.wildfly.metrics.storage;
 import jetbrains.exodus.entitystore.Entity;
 import jetbrains.exodus.entitystore.EntityId;
 import jetbrains.exodus.entitystore.EntityIterable;
+import jetbrains.exodus.entitystore.PersistentEntityStore;
 import jetbrains.exodus.entitystore.PersistentEntityStoreImpl;
 import jetbrains.exodus.entitystore.PersistentEntityStores;
+import jetbrains.exodus.entitystore.PersistentStoreTransaction;
+import jetbrains.exodus.entitystore.StoreTransaction;
 import jetbrains.exodus.env.Environment;
 import jetbrains.exodus.env.EnvironmentConfig;
 import jetbrains.exodus.env.Environments;
+import jetbrains.exodus.env.Transaction;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Heiko Braun
  * @since 24/06/15
  */
-public class MetricStorage {
+public class MetricStorage implements MetricStore {
 
+    /**
+     * The physical representation of measurements.
+     * The layout is chosen when a storage is created and cannot be changed afterwards.
+     */
+    public enum Layout {
+
+        /**
+         * One entity per measurement
+         */
+        ENTITY,
+
+        /**
+         * Compressed, time bounded chunks per metric (delta-of-delta timestamps, XOR encoded values)
+         */
+        CHUNKED,
+
+        /**
+         * One record per measurement in an ordered key-value store, keyed by <code>(seriesId, timestamp)</code>
+         */
+        ORDERED,
+
+        /**
+         * Memory mapped, append-only segment files per metric, next to the entity store
+         */
+        SEGMENTS
+    }
+
+    /**
+     * The type of the values of a metric, chosen when the metric is registered.
+     * Both are stored as 64 bits: double values as their IEEE 754 bits, which the XOR encoding of
+     * the compressed layouts is designed for (unchanged values cost a single bit, similar ones the differing bits).
+     */
+    public enum ValueType {
+        LONG,
+        DOUBLE
+    }
 
-    private static final String METRIC_TO_MEASUREMENT = "metric-measurement";
-    private static final String MEASUREMENT_TO_METRIC = "measurement-metric";
     private static final String KEY_TO_KEYS = "key_keys";
 
+    private static final String LABEL_PREFIX = "label.";
+
     private static final String TYPE_METRIC_KEYS = "metric.keys";
     private static final String TYPE_METRIC_KEY = "metric.key";
-    private static final String TYPE_MEASUREMENT = "measurement";
+
+    // the first window that is searched for the most recent measurements
+    private static final long LAST_WINDOW = TimeUnit.MINUTES.toMillis(1);
 
     private final PersistentEntityStoreImpl store;
+    private final Layout layout;
+    private final StorageLayout measurements;
+    private final Rollups rollups;
+    private final long retention;
+    private final SeriesCatalog catalog = new SeriesCatalog();
+
+    // writes are serialized, the layouts keep per transaction state
+    private final Object writeLock = new Object();
 
     private EntityId keysId;
 
+    private final ScheduledExecutorService flusher;
+    private final LateStore late;
+
+    // null if the newest measurements aren't kept in memory
+    private final RecentPoints recentPoints;
+
+    // measurements pass the reorder buffer and the head on their way to the layout, reads merge them back in
+    private final WritePipeline writes;
+    private final MergedReads reads;
+
+    private final GroupCommitter committer;
+
+    // null if the layout doesn't support compaction
+    private final ChunkCompactor compactor;
+
     public MetricStorage(String dataDir) {
+        this(dataDir, Layout.ENTITY);
+    }
+
+    public MetricStorage(String dataDir, Layout layout) {
+        this(dataDir, layout, Rollups.DEFAULT_RESOLUTIONS);
+    }
+
+    /**
+     * @param dataDir
+     * @param layout
+     * @param rollupResolutions the bucket sizes (in ms) of the rollups that are maintained for all metrics, may be empty.
+     *                          Rollups that didn't exist before are populated from the raw data when the storage is opened.
+     */
+    public MetricStorage(String dataDir, Layout layout, long[] rollupResolutions) {
+        this(dataDir, createConfig(layout, rollupResolutions));
+    }
+
+    public MetricStorage(String dataDir, MetricStorageConfig config) {
 
-        EnvironmentConfig config = new EnvironmentConfig();
-        config.setManagementEnabled(false); //disable jmx
-        Environment environment = Environments.newContextualInstance(dataDir, config);
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setManagementEnabled(false); //disable jmx
+        envConfig.setLogDurableWrite(config.isDurableWrites());
+        Environment environment = Environments.newContextualInstance(dataDir, envConfig);
 
         store = PersistentEntityStores.newInstance(environment);
 
+        this.layout = config.getLayout();
+        this.retention = config.getRetention();
+        this.measurements = createLayout(config, store, dataDir);
+        this.rollups = new Rollups(environment, config.getRollupResolutions());
+        this.late = new LateStore(environment);
+        this.recentPoints = config.getRecentPoints() > 0 ? new RecentPoints(config.getRecentPoints(), config.getRecentMaxBytes()) : null;
+
         createSchema();
+        store.executeInTransaction(txn -> measurements.open((PersistentStoreTransaction) txn, resolveAll(catalog.getNames())));
+
+        this.writes = new WritePipeline(
+                store, measurements, rollups, late, catalog, recentPoints, writeLock, config, new File(dataDir, HeadBlock.LOG_FILE)
+        );
+        this.reads = writes.getReads();
+
+        // flushes the head and releases the buffers of series that didn't receive measurements for a while
+        long flushInterval = config.getHeadFlushInterval() > 0 ? config.getHeadFlushInterval() : config.getReorderWindow();
+        if(flushInterval > 0)
+        {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metric-storage-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(
+                    this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS
+            );
+        }
+        else
+        {
+            this.flusher = null;
+        }
+
+        this.committer = new GroupCommitter(
+                config.getCommitQueueSize(), config.getCommitMaxDelay(), config.getCommitMaxPoints(), this::commitGroup
+        );
+
+        if(layout == Layout.CHUNKED)
+        {
+            this.compactor = new ChunkCompactor(config.getCompactionRate(), () -> resolveAll(catalog.getNames()), this::compact);
+            if(config.getCompactionInterval() > 0)
+                compactor.start(config.getCompactionInterval());
+        }
+        else
+        {
+            this.compactor = null;
+        }
+    }
+
+    private static MetricStorageConfig createConfig(Layout layout, long[] rollupResolutions) {
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(layout);
+        config.setRollupResolutions(rollupResolutions);
+        return config;
+    }
+
+    private static StorageLayout createLayout(MetricStorageConfig config, PersistentEntityStore store, String dataDir) {
+        switch (config.getLayout()) {
+            case CHUNKED:
+                return new ChunkedLayout(store, config.getChunkCacheSize());
+            case ORDERED:
+                return new OrderedLayout(store.getEnvironment(), config.getPartitionSize());
+            case SEGMENTS:
+                return new SegmentLayout(new File(dataDir), config.getSegmentCapacity(), config.isDurableWrites());
+            default:
+                return new EntityLayout();
+        }
     }
 
     private void createSchema() {
@@ -69,117 +232,1210 @@ public class MetricStorage {
                 txn -> {
                     Entity keys = null;
                     EntityIterable records = txn.getAll(TYPE_METRIC_KEYS);
-                    if (records.isEmpty())
+                    if (records.isEmpty()) {
                         keys = txn.newEntity(TYPE_METRIC_KEYS);
-                    else
+                        keys.setProperty("layout", layout.name());
+                    }
+                    else {
                         keys = records.getFirst();
 
+                        // stores created before the layouts have been introduced don't carry the property
+                        String existing = (String) keys.getProperty("layout");
+                        if(!layout.name().equals(existing == null ? Layout.ENTITY.name() : existing))
+                            throw new IllegalStateException("Storage has been created with layout "+existing+", but "+layout+" was requested");
+                    }
+
                     MetricStorage.this.keysId = keys.getId();
+
+                    loadCatalog(txn, keys);
                 }
         );
     }
 
+    /**
+     * Metric keys created before the catalog has been introduced don't carry an id.
+     * They are assigned one when the storage is opened.
+     */
+    private void loadCatalog(StoreTransaction txn, Entity keys) {
+        List<Entity> unassigned = new LinkedList<>();
+
+        txn.findLinks(TYPE_METRIC_KEY, keys, KEY_TO_KEYS).forEach(
+                entity -> {
+                    Integer id = (Integer) entity.getProperty("id");
+                    if(null == id)
+                        unassigned.add(entity);
+                    else
+                        catalog.add(new Series(id, (String) entity.getProperty("name"), entity.getId(), readLabels(entity), readType(entity)));
+                }
+        );
+
+        for (Entity entity : unassigned) {
+            int id = catalog.nextId();
+            entity.setProperty("id", id);
+            catalog.add(new Series(id, (String) entity.getProperty("name"), entity.getId(), Labels.EMPTY, readType(entity)));
+        }
+    }
+
+    /**
+     * Metric keys created before the value types have been introduced don't carry the property
+     */
+    private static ValueType readType(Entity entity) {
+        String type = (String) entity.getProperty("type");
+        return null == type ? ValueType.LONG : ValueType.valueOf(type);
+    }
+
+    private static Labels readLabels(Entity entity) {
+        Map<String, String> labels = new HashMap<>();
+        for (String property : entity.getPropertyNames()) {
+            if(property.startsWith(LABEL_PREFIX))
+                labels.put(property.substring(LABEL_PREFIX.length()), (String) entity.getProperty(property));
+        }
+        return labels.isEmpty() ? Labels.EMPTY : Labels.of(labels);
+    }
+
+    private static void writeLabels(Entity entity, Labels labels) {
+        labels.asMap().forEach((name, value) -> entity.setProperty(LABEL_PREFIX + name, value));
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
     /**
      * Retrieve previously created metric names
      * @see #registerMetric(String)
      * @return
      */
+    @Override
     public Set<String> getMetricNames() {
+        return catalog.getNames();
+    }
 
-        final Set<String> metricsNames = store.computeInReadonlyTransaction(txn -> {
+    /**
+     * Adds a new metric name.
+     * All metric names need to registered before any of the other operations (i.e. queries) are performed.
+     *
+     * @param metricName
+     * @throws RuntimeException if the metric name has already been registered
+     */
+    @Override
+    public void registerMetric(String metricName) {
+        synchronized (writeLock) {
+            if(catalog.contains(metricName))
+                throw new RuntimeException("metric name already registered: "+metricName);
 
-            Set<String> res = new HashSet<String>();
+            createSeries(Collections.singletonList(metricName));
+        }
+    }
 
-            Entity keys = txn.getEntity(keysId);
-            EntityIterable links = txn.findLinks(TYPE_METRIC_KEY, keys, KEY_TO_KEYS);
-            links.forEach(
-                    entity -> res.add((String) entity.getProperty("name"))
-            );
+    /**
+     * Adds a new metric with values of the given type.
+     *
+     * @see #registerMetric(String)
+     * @param metricName
+     * @param type
+     * @throws RuntimeException if the metric name has already been registered
+     */
+    @Override
+    public void registerMetric(String metricName, ValueType type) {
+        synchronized (writeLock) {
+            if(catalog.contains(metricName))
+                throw new RuntimeException("metric name already registered: "+metricName);
 
-            return res;
-        });
+            createSeries(Collections.singletonMap(metricName, Labels.EMPTY), type);
+        }
+    }
 
-        return metricsNames;
+    /**
+     * Adds a new metric name, unless it already exists.
+     * Safe to be called concurrently for the same name.
+     *
+     * @param metricName
+     * @return true if the metric has been created
+     */
+    @Override
+    public boolean registerIfAbsent(String metricName) {
+        return registerIfAbsent(metricName, ValueType.LONG);
     }
 
     /**
-     * Adds a new metric name.
-     * All metric names need to registered before any of the other operations (i.e. queries) are performed.
+     * Adds a new metric with values of the given type, unless it already exists.
      *
      * @param metricName
+     * @param type
+     * @return true if the metric has been created
+     * @throws IllegalArgumentException if the metric exists with values of a different type
      */
-    public void registerMetric(String metricName) {
-        store.executeInTransaction(
-                txn -> {
+    @Override
+    public boolean registerIfAbsent(String metricName, ValueType type) {
+        Series series = catalog.get(metricName);
+        if(null == series)
+        {
+            synchronized (writeLock) {
+                series = catalog.get(metricName);
+                if(null == series)
+                {
+                    createSeries(Collections.singletonMap(metricName, Labels.EMPTY), type);
+                    return true;
+                }
+            }
+        }
 
-                    // prevent duplicates
-                    txn.getAll(TYPE_METRIC_KEY).forEach(
-                            entity -> {
-                                if(entity.getProperty("name").equals(metricName))
-                                    throw new RuntimeException("metric name already registered: "+metricName);
-                            }
-                    );
+        checkType(series, type);
+        return false;
+    }
+
+    /**
+     * Adds a new metric along with its labels and the type of its values, unless it already exists.
+     * An existing metric keeps the type of its values, its labels are assigned as by {@link #getOrCreateSeries(String, Labels)}.
+     *
+     * @param metricName
+     * @param labels
+     * @param type the type of the values, if the metric is created
+     * @return a stable series id, see {@link #getValueType(int)} for the type of its values
+     */
+    @Override
+    public int registerIfAbsent(String metricName, Labels labels, ValueType type) {
+        Series series = catalog.get(metricName);
+        if(null == series)
+        {
+            synchronized (writeLock) {
+                series = catalog.get(metricName);
+                if(null == series)
+                    return createSeries(Collections.singletonMap(metricName, labels), type).get(0).getId();
+            }
+        }
+        return getOrCreateSeries(metricName, labels);
+    }
+
+    /**
+     * @return the type of the values of a metric
+     * @throws IllegalArgumentException if the metric has not been registered
+     */
+    @Override
+    public ValueType getValueType(String metricName) {
+        return resolve(metricName).getType();
+    }
+
+    /**
+     * @return the type of the values of a series
+     * @throws IllegalArgumentException if the series id is unknown
+     */
+    @Override
+    public ValueType getValueType(int seriesId) {
+        return resolve(seriesId).getType();
+    }
+
+    /**
+     * Adds all metric names that don't exist yet, within a single transaction.
+     *
+     * @param metricNames
+     */
+    @Override
+    public void registerIfAbsent(Collection<String> metricNames) {
+        synchronized (writeLock) {
+            Set<String> missing = new LinkedHashSet<>();
+            for (String metricName : metricNames) {
+                if(!catalog.contains(metricName))
+                    missing.add(metricName);
+            }
+
+            if(!missing.isEmpty())
+                createSeries(new ArrayList<>(missing));
+        }
+    }
+
+    /**
+     * Adds all metrics that don't exist yet along with their labels, within a single transaction.
+     * The labels of existing metrics are not changed, unless they don't carry any yet
+     * (i.e. metrics that have been registered by name only).
+     *
+     * @see #select(Selector)
+     * @param metrics the labels by metric name
+     */
+    @Override
+    public void registerIfAbsent(Map<String, Labels> metrics) {
+        synchronized (writeLock) {
+            Map<String, Labels> missing = new LinkedHashMap<>();
+            List<Series> unlabeled = new ArrayList<>();
+            metrics.forEach((metricName, labels) -> {
+                Series series = catalog.get(metricName);
+                if(null == series)
+                    missing.put(metricName, labels);
+                else if(series.getLabels().isEmpty() && !labels.isEmpty())
+                    unlabeled.add(new Series(series.getId(), metricName, series.getEntityId(), labels, series.getType()));
+            });
+
+            if(!unlabeled.isEmpty())
+            {
+                store.executeInTransaction(txn -> {
+                    for (Series series : unlabeled) {
+                        writeLabels(txn.getEntity(series.getEntityId()), series.getLabels());
+                    }
+                });
+                for (Series series : unlabeled) {
+                    catalog.add(series);
+                }
+            }
+
+            if(!missing.isEmpty())
+                createSeries(missing, ValueType.LONG);
+        }
+    }
 
+    /**
+     * @return the labels of a metric, empty if it has been registered by name only
+     * @throws IllegalArgumentException if the metric has not been registered
+     */
+    @Override
+    public Labels getLabels(String metricName) {
+        return resolve(metricName).getLabels();
+    }
+
+    /**
+     * Resolves the metrics whose labels match the selector, through an inverted index:
+     * the cost depends on the number of matching metrics, not on the number of registered metrics.
+     *
+     * @param selector an empty selector matches all metrics
+     * @return the names of the matching metrics
+     */
+    @Override
+    public Set<String> select(Selector selector) {
+        if(selector.getMatchers().isEmpty())
+            return getMetricNames();
+
+        Set<String> names = new LinkedHashSet<>();
+        for (Series series : catalog.select(selector)) {
+            names.add(series.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Resolves the numeric series id of a metric, registers the metric if it doesn't exist yet.
+     *
+     * @param metricName
+     * @return a stable series id
+     */
+    @Override
+    public int getOrCreateSeries(String metricName) {
+        Series series = catalog.get(metricName);
+        if(null == series)
+        {
+            synchronized (writeLock) {
+                series = catalog.get(metricName);
+                if(null == series)
+                    series = createSeries(Collections.singletonList(metricName)).get(0);
+            }
+        }
+        return series.getId();
+    }
+
+    /**
+     * Resolves the numeric series id of a metric, registers the metric along with its labels if it doesn't exist yet.
+     * The labels of an existing metric are only assigned if it doesn't carry any yet.
+     *
+     * @see #registerIfAbsent(Map)
+     * @param metricName
+     * @param labels
+     * @return a stable series id
+     */
+    @Override
+    public int getOrCreateSeries(String metricName, Labels labels) {
+        Series series = catalog.get(metricName);
+        if(null == series || (series.getLabels().isEmpty() && !labels.isEmpty()))
+        {
+            registerIfAbsent(Collections.singletonMap(metricName, labels));
+            series = catalog.get(metricName);
+        }
+        return series.getId();
+    }
+
+    /**
+     * Resolves the numeric series id of a metric, registers the metric along with its labels and the type of its values
+     * if it doesn't exist yet.
+     *
+     * @see #getOrCreateSeries(String, Labels)
+     * @return a stable series id
+     * @throws IllegalArgumentException if the metric exists with values of a different type
+     */
+    @Override
+    public int getOrCreateSeries(String metricName, Labels labels, ValueType type) {
+        Series series = catalog.get(metricName);
+        if(null == series)
+        {
+            synchronized (writeLock) {
+                series = catalog.get(metricName);
+                if(null == series)
+                    return createSeries(Collections.singletonMap(metricName, labels), type).get(0).getId();
+            }
+        }
+
+        checkType(series, type);
+        return getOrCreateSeries(metricName, labels);
+    }
+
+    /**
+     * @param seriesId
+     * @return the name of the metric the series id has been assigned to
+     * @throws IllegalArgumentException if the series id is unknown
+     */
+    @Override
+    public String getMetricName(int seriesId) {
+        return resolve(seriesId).getName();
+    }
+
+    /**
+     * Persists new metric keys. The catalog acts as the unique index on the metric names,
+     * callers need to hold the write lock and make sure the names don't exist yet.
+     */
+    private List<Series> createSeries(List<String> metricNames) {
+        Map<String, Labels> unlabeled = new LinkedHashMap<>();
+        for (String metricName : metricNames) {
+            unlabeled.put(metricName, Labels.EMPTY);
+        }
+        return createSeries(unlabeled, ValueType.LONG);
+    }
+
+    private List<Series> createSeries(Map<String, Labels> metrics, ValueType type) {
+        List<String> metricNames = new ArrayList<>(metrics.keySet());
+        int firstId = catalog.nextId();
+
+        List<EntityId> entityIds = store.computeInTransaction(
+                txn -> {
                     Entity keys = txn.getEntity(keysId);
-                    Entity key = txn.newEntity(TYPE_METRIC_KEY);
-                    key.setProperty("name", metricName);
-                    key.addLink(KEY_TO_KEYS, keys);
+                    List<EntityId> res = new ArrayList<>(metricNames.size());
+
+                    for (int i = 0; i < metricNames.size(); i++) {
+                        Entity key = txn.newEntity(TYPE_METRIC_KEY);
+                        key.setProperty("name", metricNames.get(i));
+                        key.setProperty("id", firstId + i);
+                        key.setProperty("type", type.name());
+                        writeLabels(key, metrics.get(metricNames.get(i)));
+                        key.addLink(KEY_TO_KEYS, keys);
+                        res.add(key.getId());
+                    }
 
-                    txn.commit();
+                    return res;
                 }
         );
+
+        List<Series> created = new ArrayList<>(metricNames.size());
+        for (int i = 0; i < metricNames.size(); i++) {
+            String metricName = metricNames.get(i);
+            Series series = new Series(firstId + i, metricName, entityIds.get(i), metrics.get(metricName), type);
+            catalog.add(series);
+            created.add(series);
+        }
+        return created;
     }
 
     /**
      * Adds a new measurement for a metric
+     * <p>
+     * The measurements of a metric are written in time order. Within the reorder window
+     * (see {@link MetricStorageConfig#setReorderWindow(long)}) they may arrive in any order, they are buffered in memory
+     * until the window has passed. Measurements older than the window, and measurements of a timestamp that has been
+     * written before, are kept apart: they replace the previous value of the same timestamp (last write wins)
+     * without adding records, so that retried writes don't inflate the storage. The rollups reflect the first value
+     * that has been written for a timestamp.
      *
      * @param metricName
      * @param timestamp
      * @param value
      */
+    @Override
     public void addMeasurement(String metricName, long timestamp, long value) {
-        store.executeInTransaction(
-                txn -> {
-                    Entity metric = txn.find(TYPE_METRIC_KEY, "name", metricName).getFirst();
+        writes.ingest(single(resolve(metricName, ValueType.LONG), timestamp, value));
+    }
 
-                    final Entity measurement = txn.newEntity(TYPE_MEASUREMENT);
-                    measurement.setProperty("timestamp", timestamp);
-                    measurement.setProperty("value", value);
-                    measurement.addLink(MEASUREMENT_TO_METRIC, metric);
+    /**
+     * Adds a new measurement for a metric of type {@link ValueType#DOUBLE}.
+     *
+     * @see #addMeasurement(String, long, long)
+     * @param metricName
+     * @param timestamp
+     * @param value
+     * @throws IllegalArgumentException if the metric has not been registered with double values
+     */
+    @Override
+    public void addMeasurement(String metricName, long timestamp, double value) {
+        writes.ingest(single(resolve(metricName, ValueType.DOUBLE), timestamp, Double.doubleToRawLongBits(value)));
+    }
 
-                    txn.commit();
-                }
-        );
+    /**
+     * Adds a new measurement for a series, without resolving the metric name.
+     *
+     * @see #addMeasurement(String, long, long)
+     * @see #getOrCreateSeries(String)
+     * @param seriesId
+     * @param timestamp
+     * @param value
+     * @throws IllegalArgumentException if the series id is unknown
+     */
+    @Override
+    public void addMeasurement(int seriesId, long timestamp, long value) {
+        writes.ingest(single(resolve(seriesId, ValueType.LONG), timestamp, value));
     }
 
+    /**
+     * @see #addMeasurement(int, long, long)
+     * @see #addMeasurement(String, long, double)
+     */
+    @Override
+    public void addMeasurement(int seriesId, long timestamp, double value) {
+        writes.ingest(single(resolve(seriesId, ValueType.DOUBLE), timestamp, Double.doubleToRawLongBits(value)));
+    }
+
+    /**
+     * Adds several measurements for a metric within a single transaction.
+     *
+     * @see #addMeasurement(String, long, long)
+     * @param metricName
+     * @param timestamps
+     * @param values the values, matching the timestamps by index
+     */
+    @Override
+    public void addMeasurements(String metricName, long[] timestamps, long[] values) {
+        if(timestamps.length != values.length)
+            throw new IllegalArgumentException("Number of timestamps and values don't match: "+timestamps.length+" != "+values.length);
+
+        Series series = resolve(metricName, ValueType.LONG);
+
+        Measurements points = new Measurements(timestamps.length);
+        for (int i = 0; i < timestamps.length; i++) {
+            points.add(timestamps[i], values[i]);
+        }
+        writes.ingest(Collections.singletonMap(series, points));
+    }
+
+    /**
+     * Adds several measurements for a metric of type {@link ValueType#DOUBLE} within a single transaction.
+     *
+     * @see #addMeasurement(String, long, double)
+     * @param metricName
+     * @param timestamps
+     * @param values the values, matching the timestamps by index
+     */
+    @Override
+    public void addMeasurements(String metricName, long[] timestamps, double[] values) {
+        if(timestamps.length != values.length)
+            throw new IllegalArgumentException("Number of timestamps and values don't match: "+timestamps.length+" != "+values.length);
+
+        Series series = resolve(metricName, ValueType.DOUBLE);
+
+        Measurements points = new Measurements(timestamps.length);
+        for (int i = 0; i < timestamps.length; i++) {
+            points.add(timestamps[i], Double.doubleToRawLongBits(values[i]));
+        }
+        writes.ingest(Collections.singletonMap(series, points));
+    }
+
+    /**
+     * Adds the measurements of several metrics within a single transaction.
+     *
+     * @see #addMeasurement(String, long, long)
+     * @param batch
+     */
+    @Override
+    public void addMeasurements(MeasurementBatch batch) {
+        if(batch.isEmpty())
+            return;
+
+        // resolve upfront, unknown metrics fail the whole batch
+        writes.ingest(resolve(batch));
+    }
+
+    /**
+     * Adds a new measurement for a metric without waiting for the transaction.
+     * <p>
+     * Asynchronous writes are queued and committed together by a background thread (group commit),
+     * concurrent writers share a transaction instead of committing one each. A write that fails doesn't fail
+     * the others of its group, they are committed one by one.
+     * See {@link MetricStorageConfig#setCommitMaxDelay(long)} and {@link MetricStorageConfig#setCommitMaxPoints(int)}.
+     *
+     * @param metricName
+     * @param timestamp
+     * @param value
+     * @return completes once the measurement has been committed (or has been added to the head, if enabled).
+     *         Fails with a {@link java.util.concurrent.RejectedExecutionException} if too many writes are pending
+     *         (see {@link MetricStorageConfig#setCommitQueueSize(int)}) or the storage has been stopped.
+     * @throws IllegalArgumentException if the metric has not been registered
+     */
+    @Override
+    public CompletableFuture<Void> addMeasurementAsync(String metricName, long timestamp, long value) {
+        return committer.submit(single(resolve(metricName, ValueType.LONG), timestamp, value));
+    }
+
+    /**
+     * @see #addMeasurementAsync(String, long, long)
+     * @see #addMeasurement(String, long, double)
+     */
+    @Override
+    public CompletableFuture<Void> addMeasurementAsync(String metricName, long timestamp, double value) {
+        return committer.submit(single(resolve(metricName, ValueType.DOUBLE), timestamp, Double.doubleToRawLongBits(value)));
+    }
+
+    /**
+     * Adds a new measurement for a series without waiting for the transaction.
+     *
+     * @see #addMeasurementAsync(String, long, long)
+     * @throws IllegalArgumentException if the series id is unknown
+     */
+    @Override
+    public CompletableFuture<Void> addMeasurementAsync(int seriesId, long timestamp, long value) {
+        return committer.submit(single(resolve(seriesId, ValueType.LONG), timestamp, value));
+    }
+
+    /**
+     * @see #addMeasurementAsync(String, long, double)
+     */
+    @Override
+    public CompletableFuture<Void> addMeasurementAsync(int seriesId, long timestamp, double value) {
+        return committer.submit(single(resolve(seriesId, ValueType.DOUBLE), timestamp, Double.doubleToRawLongBits(value)));
+    }
+
+    /**
+     * Adds the measurements of several metrics without waiting for the transaction.
+     * The batch is committed atomically, possibly along with other writes.
+     *
+     * @see #addMeasurementAsync(String, long, long)
+     * @param batch must not be modified afterwards
+     * @return completes once the measurements have been committed
+     * @throws IllegalArgumentException if any of the metrics has not been registered
+     */
+    @Override
+    public CompletableFuture<Void> addMeasurementsAsync(MeasurementBatch batch) {
+        if(batch.isEmpty())
+            return CompletableFuture.completedFuture(null);
+
+        return committer.submit(resolve(batch));
+    }
+
+    /**
+     * Invoked by the committer thread with the writes that have been queued meanwhile.
+     */
+    private void commitGroup(Map<Series, Measurements> points) {
+        writes.ingest(points);
+    }
+
+    private Series resolve(String metricName) {
+        Series series = catalog.get(metricName);
+        if(null == series)
+            throw new IllegalArgumentException("Unknown metric: "+metricName);
+        return series;
+    }
+
+    private Series resolve(int seriesId) {
+        Series series = catalog.get(seriesId);
+        if(null == series)
+            throw new IllegalArgumentException("Unknown series: "+seriesId);
+        return series;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the metric is unknown, or has values of a different type
+     */
+    private Series resolve(String metricName, ValueType type) {
+        Series series = resolve(metricName);
+        checkType(series, type);
+        return series;
+    }
+
+    private Series resolve(int seriesId, ValueType type) {
+        Series series = resolve(seriesId);
+        checkType(series, type);
+        return series;
+    }
+
+    private static void checkType(Series series, ValueType type) {
+        if(series.getType() != type)
+            throw new IllegalArgumentException("Metric "+series.getName()+" has "+series.getType()+" values, not "+type);
+    }
+
+    private static Map<Series, Measurements> single(Series series, long timestamp, long value) {
+        Measurements points = new Measurements(1);
+        points.add(timestamp, value);
+        return Collections.singletonMap(series, points);
+    }
+
+    /**
+     * Resolves the measurements of a batch by series, the ones that have been added by name and by id are combined.
+     */
+    private Map<Series, Measurements> resolve(MeasurementBatch batch) {
+        Map<Series, Measurements> resolved = new LinkedHashMap<>();
+        for (ValueType type : ValueType.values()) {
+            batch.forEach(type, (metricName, points) -> resolved.merge(resolve(metricName, type), points, MetricStorage::concat));
+            batch.forEachSeries(type, (points, seriesId) -> resolved.merge(resolve(seriesId, type), points, MetricStorage::concat));
+        }
+        return resolved;
+    }
+
+    private static Measurements concat(Measurements first, Measurements second) {
+        Measurements all = new Measurements(first.size() + second.size());
+        for (int i = 0; i < first.size(); i++) {
+            all.add(first.getTimestamp(i), first.getValue(i));
+        }
+        for (int i = 0; i < second.size(); i++) {
+            all.add(second.getTimestamp(i), second.getValue(i));
+        }
+        return all;
+    }
+
+    /**
+     * Writes the measurements that are buffered in memory to the storage: the ones within the reorder window
+     * (see {@link MetricStorageConfig#setReorderWindow(long)}) and the head.
+     * <p>
+     * Invoked periodically if the head is enabled (see {@link MetricStorageConfig#setHeadFlushInterval(long)}) or
+     * the reorder window is. The periodic flush only releases the measurements of the metrics that haven't received
+     * new ones for the duration of the window.
+     * <p>
+     * Late measurements are then written to the layout, where it can take them (see {@link LateStore}).
+     * Afterwards the measurements that the layout holds outside of the entity store are forced to disk
+     * (the segments of {@link Layout#SEGMENTS}, unless they are forced with each write, see {@link MetricStorageConfig#setDurableWrites(boolean)}).
+     * <p>
+     * Measurements can't be added while the head is flushed.
+     */
+    @Override
+    public void flush() {
+        writes.flush(true);
+    }
+
+    private void flushQuietly() {
+        try {
+            writes.flush(false);
+        } catch (Throwable t) {
+            StorageLogger.LOGGER.error("Failed to flush measurements", t);
+        }
+    }
+
+    /**
+     * Retrieve the measurements of a metric within <code>[from, to]</code>.
+     *
+     * @see #getMeasurements(String, long, long, Measurements)
+     * @return a list of <code>{timestamp, value}</code> tuples
+     */
+    @Override
     public List<Long[]> getMeasurements(String metricName, long from, long to) {
 
-        List<Long[]> results = store.computeInReadonlyTransaction(txn -> {
-            Entity metric = txn.find(TYPE_METRIC_KEY, "name", metricName).getFirst();
-            EntityIterable links = txn.findLinks(TYPE_MEASUREMENT, metric, MEASUREMENT_TO_METRIC);
+        Measurements measurements = getMeasurements(metricName, from, to, new Measurements());
+
+        List<Long[]> results = new ArrayList<>(measurements.size());
+        for (int i = 0; i < measurements.size(); i++) {
+            results.add(new Long[] {measurements.getTimestamp(i), measurements.getValue(i)});
+        }
+        return results;
+    }
+
+    /**
+     * Retrieve the measurements of a metric within <code>[from, to]</code> into a caller supplied buffer.
+     * Doesn't allocate per measurement, the buffer can be reused across queries.
+     *
+     * @param metricName
+     * @param from
+     * @param to
+     * @param results will be cleared before the measurements are added
+     * @return the results
+     */
+    @Override
+    public Measurements getMeasurements(String metricName, long from, long to, Measurements results) {
 
-            // within range
-            EntityIterable slice = txn.find(TYPE_MEASUREMENT, "timestamp", from, to);
+        results.clear();
+        visitMeasurements(metricName, from, to, results::add);
+        return results;
+    }
 
-            List<Long[]> res = new LinkedList<Long[]>();
-            slice.intersect(links).forEach(entity -> {
-                Long[] tuple = new Long[2];
-                tuple[0] = (Long) entity.getProperty("timestamp");
-                tuple[1] = (Long) entity.getProperty("value");
-                res.add(tuple);
-            });
+    /**
+     * Retrieve the measurements of a metric within <code>[from, to]</code>, dividing the work between the threads of a pool.
+     * <p>
+     * Xodus transactions are bound to the thread that began them, the storage is therefore read by the calling thread
+     * and only the remaining work is done in parallel: chunks are decoded in parallel ({@link Layout#CHUNKED}),
+     * segments are scanned in parallel ({@link Layout#SEGMENTS}). The other layouts are read sequentially.
+     * The parts are concatenated in time order. Worthwhile for long ranges.
+     *
+     * @param metricName
+     * @param from
+     * @param to
+     * @param results will be cleared before the measurements are added
+     * @param pool executes the reads, i.e. {@link ForkJoinPool#commonPool()}
+     * @return the results
+     */
+    @Override
+    public Measurements getMeasurements(String metricName, long from, long to, Measurements results, ForkJoinPool pool) {
 
-            return res;
-        });
+        Series series = resolve(metricName, ValueType.LONG);
+        results.clear();
+        if(recentPoints != null && recentPoints.read(series, from, to, results))
+            return results;
+
+        return reads.read(series, from, to, pool, results);
+    }
+
+    /**
+     * Retrieve the measurements of several metrics within <code>[from, to]</code>, i.e. the metrics of a dashboard.
+     * <p>
+     * The metrics are resolved once and read within a single read transaction, they reflect the same state
+     * of the storage. Layouts share their index lookups between the metrics where possible.
+     * The values of metrics of type {@link ValueType#DOUBLE} are returned as their bits.
+     *
+     * @param metricNames
+     * @param from
+     * @param to
+     * @return the measurements of each metric, ordered by series id (see {@link MultiSeriesResult#indexOf(String)})
+     * @throws IllegalArgumentException if any of the metrics has not been registered
+     */
+    @Override
+    public MultiSeriesResult getMeasurements(Collection<String> metricNames, long from, long to) {
+        return query(resolveAll(metricNames), from, to, null);
+    }
+
+    /**
+     * Retrieve the measurements of several metrics, decoding them in parallel: the storage is read by the calling thread,
+     * the measurements of each metric are decoded by the threads of the pool ({@link Layout#CHUNKED}, {@link Layout#SEGMENTS}).
+     *
+     * @see #getMeasurements(Collection, long, long)
+     * @param pool decodes the measurements, i.e. {@link ForkJoinPool#commonPool()}
+     */
+    @Override
+    public MultiSeriesResult getMeasurements(Collection<String> metricNames, long from, long to, ForkJoinPool pool) {
+        return query(resolveAll(metricNames), from, to, pool);
+    }
+
+    /**
+     * Retrieve the measurements of the metrics whose labels match the selector.
+     *
+     * @see #select(Selector)
+     * @see #getMeasurements(Collection, long, long)
+     */
+    @Override
+    public MultiSeriesResult getMeasurements(Selector selector, long from, long to) {
+        return query(selectSeries(selector), from, to, null);
+    }
+
+    /**
+     * @see #getMeasurements(Selector, long, long)
+     * @see #getMeasurements(Collection, long, long, ForkJoinPool)
+     */
+    @Override
+    public MultiSeriesResult getMeasurements(Selector selector, long from, long to, ForkJoinPool pool) {
+        return query(selectSeries(selector), from, to, pool);
+    }
+
+    /**
+     * @return the series ordered by id
+     */
+    private List<Series> resolveAll(Collection<String> metricNames) {
+        Set<Series> series = new HashSet<>();
+        for (String metricName : metricNames) {
+            series.add(resolve(metricName));
+        }
+
+        List<Series> sorted = new ArrayList<>(series);
+        sorted.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return sorted;
+    }
+
+    /**
+     * @return the series ordered by id
+     */
+    private List<Series> selectSeries(Selector selector) {
+        if(!selector.getMatchers().isEmpty())
+            return catalog.select(selector);
+
+        return resolveAll(catalog.getNames());
+    }
+
+    /**
+     * @param series ordered by id
+     * @param pool decodes the measurements of the series, null to decode them sequentially
+     */
+    private MultiSeriesResult query(List<Series> series, long from, long to, ForkJoinPool pool) {
+        return MultiSeriesResult.of(series, reads.readAll(series, from, to, pool));
+    }
+
+    /**
+     * Streams the measurements of a metric within <code>[from, to]</code> to a visitor.
+     * The measurements are not materialized: the visitor is invoked while they are read,
+     * within the scope of a single read transaction.
+     *
+     * @param metricName
+     * @param from
+     * @param to
+     * @param visitor must not write to this storage
+     */
+    @Override
+    public void visitMeasurements(String metricName, long from, long to, MeasurementVisitor visitor) {
+        visit(resolve(metricName, ValueType.LONG), from, to, visitor);
+    }
+
+    /**
+     * Retrieve the measurements of a metric of type {@link ValueType#DOUBLE} within <code>[from, to]</code>
+     * into a caller supplied buffer.
+     *
+     * @see #getMeasurements(String, long, long, Measurements)
+     * @param results will be cleared before the measurements are added
+     * @return the results
+     */
+    @Override
+    public DoubleMeasurements getDoubleMeasurements(String metricName, long from, long to, DoubleMeasurements results) {
+
+        results.clear();
+        visitDoubleMeasurements(metricName, from, to, results::add);
+        return results;
+    }
+
+    /**
+     * Streams the measurements of a metric of type {@link ValueType#DOUBLE} within <code>[from, to]</code> to a visitor.
+     *
+     * @see #visitMeasurements(String, long, long, MeasurementVisitor)
+     * @param visitor must not write to this storage
+     */
+    @Override
+    public void visitDoubleMeasurements(String metricName, long from, long to, DoubleMeasurementVisitor visitor) {
+        visit(resolve(metricName, ValueType.DOUBLE), from, to,
+                (timestamp, value) -> visitor.visit(timestamp, Double.longBitsToDouble(value)));
+    }
+
+    private void visit(Series series, long from, long to, MeasurementVisitor visitor) {
+        Measurements recent = new Measurements();
+
+        // the visitor is invoked outside of the lock of the ring
+        if(recentPoints != null && recentPoints.read(series, from, to, recent))
+        {
+            for (int i = 0; i < recent.size(); i++) {
+                visitor.visit(recent.getTimestamp(i), recent.getValue(i));
+            }
+            return;
+        }
+
+        reads.visit(series, from, to, visitor);
+    }
+
+    /**
+     * Retrieve the <code>n</code> most recent measurements of a metric, i.e. its current value with <code>n = 1</code>.
+     * <p>
+     * If enabled (see {@link MetricStorageConfig#setRecentPoints(int)}), they are answered from memory at constant cost,
+     * as long as <code>n</code> doesn't exceed the measurements kept per metric. Otherwise the storage is read
+     * backwards from the most recent measurement, in growing windows.
+     *
+     * @param metricName
+     * @param n
+     * @param results will be cleared before the measurements are added, in time order
+     * @return the results
+     */
+    @Override
+    public Measurements getLast(String metricName, int n, Measurements results) {
+        return getLast(resolve(metricName, ValueType.LONG), n, results);
+    }
+
+    /**
+     * Retrieve the <code>n</code> most recent measurements of a metric of type {@link ValueType#DOUBLE}.
+     *
+     * @see #getLast(String, int, Measurements)
+     * @param results will be cleared before the measurements are added, in time order
+     * @return the results
+     */
+    @Override
+    public DoubleMeasurements getLastDouble(String metricName, int n, DoubleMeasurements results) {
+        Measurements points = getLast(resolve(metricName, ValueType.DOUBLE), n, new Measurements());
+
+        results.clear();
+        for (int i = 0; i < points.size(); i++) {
+            results.add(points.getTimestamp(i), Double.longBitsToDouble(points.getValue(i)));
+        }
+        return results;
+    }
+
+    private Measurements getLast(Series series, int n, Measurements results) {
+        if(n <= 0)
+            throw new IllegalArgumentException("Invalid number of measurements: "+n);
+
+        results.clear();
+        if(recentPoints != null && recentPoints.readLast(series, n, results))
+            return results;
+
+        // the bounds of the series are known, but not where its last n measurements begin
+        Measurements recent = new Measurements();
+        long first = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        PersistentStoreTransaction txn = reads.beginRead(series, Long.MIN_VALUE, Long.MAX_VALUE, recent);
+        if(txn != null)
+        {
+            try {
+                Transaction envTxn = txn.getEnvironmentTransaction();
+                first = Math.min(measurements.getFirstTimestamp(txn, series), late.getFirstTimestamp(envTxn, series));
+                end = Math.max(measurements.getLastTimestamp(txn, series), late.getLastTimestamp(envTxn, series));
+            } finally {
+                txn.abort();
+            }
+        }
+        for (int i = 0; i < recent.size(); i++) {
+            first = Math.min(first, recent.getTimestamp(i));
+            end = Math.max(end, recent.getTimestamp(i));
+        }
+        if(first > end)
+            return results;
+
+        Measurements window = new Measurements();
+        long span = LAST_WINDOW;
+        while (true)
+        {
+            long from = end < Long.MIN_VALUE + span ? Long.MIN_VALUE : end - span;
+
+            window.clear();
+            visit(series, from, end, window::add);
+            if(window.size() >= n || from <= first)
+                break;
+
+            span = span > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : span * 2;
+        }
+
+        for (int i = Math.max(0, window.size() - n); i < window.size(); i++) {
+            results.add(window.getTimestamp(i), window.getValue(i));
+        }
+        return results;
+    }
+
+    /**
+     * Aggregates the measurements of a metric into buckets of <code>step</code> ms, aligned to multiples of the step.
+     * The first and last bucket cover the full step, even if <code>from</code> or <code>to</code> fall within them.
+     * <p>
+     * The buckets are computed from the coarsest rollup whose resolution evenly divides the step.
+     * Without a suitable rollup the raw measurements are aggregated.
+     *
+     * @param metricName
+     * @param from
+     * @param to
+     * @param step the bucket size in ms
+     * @param results will be cleared before the buckets are added, empty buckets are omitted
+     * @return the results
+     * @throws IllegalArgumentException if the metric has double values, the rollups only aggregate long values
+     */
+    @Override
+    public Buckets getBuckets(String metricName, long from, long to, long step, Buckets results) {
+        if(step <= 0)
+            throw new IllegalArgumentException("Invalid step: "+step);
+
+        Series series = resolve(metricName, ValueType.LONG);
+        results.clear();
+
+        long start = Rollups.bucket(from, step);
+        long lastBucket = Rollups.bucket(to, step);
+        long end = lastBucket > Long.MAX_VALUE - step ? Long.MAX_VALUE : lastBucket + step - 1;
+
+        MeasurementVisitor merge = (timestamp, value) -> results.merge(Rollups.bucket(timestamp, step), value, value, value, 1);
+        Measurements recent = new Measurements();
+
+        PersistentStoreTransaction txn = reads.beginRead(series, start, end, recent);
+        if(txn != null)
+        {
+            try {
+                if(!rollups.read(txn.getEnvironmentTransaction(), series, start, end, step, results))
+                {
+                    // the measurements held in memory are merged along with the stored ones
+                    LateStore.Merge withLate = reads.mergeLate(txn, series, start, end, merge);
+                    if(withLate != null)
+                    {
+                        measurements.read(txn, series, start, end, withLate);
+                        for (int i = 0; i < recent.size(); i++) {
+                            withLate.visit(recent.getTimestamp(i), recent.getValue(i));
+                        }
+                        withLate.finish();
+                        return results;
+                    }
+
+                    measurements.read(txn, series, start, end, merge);
+                }
+                else if(!recent.isEmpty() && late.contains(txn.getEnvironmentTransaction(), series))
+                {
+                    // the rollups hold the late measurements
+                    reads.omitReplaced(txn, series, recent);
+                }
+            } finally {
+                txn.abort();
+            }
+        }
+
+        for (int i = 0; i < recent.size(); i++) {
+            merge.visit(recent.getTimestamp(i), recent.getValue(i));
+        }
 
         return results;
     }
 
+    /**
+     * Aggregates the measurements of a metric within <code>[from, to]</code>, inside the storage.
+     * Buckets of the rollups that are entirely within the range are used as they are,
+     * only the remainders at the edges are read from the raw measurements.
+     *
+     * @param metricName
+     * @param from
+     * @param to
+     * @return the aggregate
+     * @throws IllegalArgumentException if the metric has double values, the summaries only aggregate long values
+     */
+    @Override
+    public Aggregate getAggregate(String metricName, long from, long to) {
+
+        Series series = resolve(metricName, ValueType.LONG);
+        Measurements recent = new Measurements();
+
+        Aggregate result = getAggregate(series, from, to, recent);
+        for (int i = 0; i < recent.size(); i++) {
+            result.add(recent.getTimestamp(i), recent.getValue(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param recent receives the measurements held in memory, they are skipped if null.
+     *               Measurements that have been replaced by late ones are omitted.
+     */
+    private Aggregate getAggregate(Series series, long from, long to, Measurements recent) {
+        Aggregate result = new Aggregate();
+
+        PersistentStoreTransaction txn = null == recent ? store.beginReadonlyTransaction() : reads.beginRead(series, from, to, recent);
+        if(txn != null)
+        {
+            try {
+                rollups.aggregate(txn.getEnvironmentTransaction(), series, from, to, result,
+                        (start, end) -> {
+                            // summaries don't reflect late measurements
+                            LateStore.Merge merge = reads.mergeLate(txn, series, start, end, result::add);
+                            if(null == merge)
+                            {
+                                measurements.aggregate(txn, series, start, end, result);
+                            }
+                            else
+                            {
+                                measurements.read(txn, series, start, end, merge);
+                                merge.finish();
+                            }
+                        }
+                );
+
+                if(recent != null && !recent.isEmpty() && late.contains(txn.getEnvironmentTransaction(), series))
+                    reads.omitReplaced(txn, series, recent);
+            } finally {
+                txn.abort();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the counters of the read cache, i.e. to size it (see {@link MetricStorageConfig#setChunkCacheSize(long)}).
+     *         Only the {@link Layout#CHUNKED} layout maintains a cache.
+     */
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return measurements.getCacheStatistics();
+    }
+
+    /**
+     * @return the memory usage and the hit ratio of the recent measurements (see {@link MetricStorageConfig#setRecentPoints(int)}),
+     *         null if they are disabled. The evictions count the metrics that are read from the storage, because they
+     *         exceeded the budget.
+     */
+    @Override
+    public CacheStatistics getRecentStatistics() {
+        return recentPoints != null ? recentPoints.getStatistics() : null;
+    }
+
+    /**
+     * Merges the small adjacent chunks of all metrics into chunks of the optimal size and rebuilds their summaries,
+     * in the calling thread. Runs periodically in the background, if enabled (see {@link MetricStorageConfig#setCompactionInterval(long)}).
+     * <p>
+     * The work is done in small steps that hold up writers only briefly, and throttled to the configured rate
+     * (see {@link MetricStorageConfig#setCompactionRate(long)}).
+     *
+     * @throws UnsupportedOperationException if the layout doesn't support compaction (only {@link Layout#CHUNKED} does)
+     */
+    @Override
+    public void compact() {
+        if(null == compactor)
+            throw new UnsupportedOperationException("Compaction is not supported by the "+layout+" layout");
+
+        compactor.run();
+    }
+
+    private ChunkCompactor.Merge compact(Series series, long maxBytes) {
+        ChunkCompactor.Merge[] merge = new ChunkCompactor.Merge[1];
+        writes.write(txn -> merge[0] = measurements.compact(txn, series, maxBytes));
+        return merge[0];
+    }
+
+    /**
+     * @return the bytes reclaimed by the compaction and the time spent on it, null if the layout doesn't support compaction
+     */
+    @Override
+    public CompactionStatistics getCompactionStatistics() {
+        return compactor != null ? compactor.getStatistics() : null;
+    }
+
+    /**
+     * Drops the raw measurements older than <code>before</code>.
+     * Data is removed in whole partitions, measurements that share a partition with newer ones are retained.
+     * Late measurements (see {@link #addMeasurement(String, long, long)}) are removed individually.
+     * Rollups are not affected.
+     *
+     * @param before
+     * @return the number of partitions that have been dropped
+     * @throws UnsupportedOperationException if the layout doesn't support expiration (only {@link Layout#ORDERED} and {@link Layout#SEGMENTS} do)
+     */
+    @Override
+    public int expire(long before) {
+        int[] dropped = new int[1];
+        writes.write(txn -> {
+            dropped[0] = measurements.expire(txn, before);
+            late.expire(txn.getEnvironmentTransaction(), before);
+        });
+
+        if(recentPoints != null)
+            recentPoints.expire(before);
+        return dropped[0];
+    }
+
+    /**
+     * Applies the configured retention (see {@link MetricStorageConfig#setRetention(long)}).
+     * Expected to be invoked periodically, i.e. once per partition.
+     *
+     * @return the number of partitions that have been dropped
+     */
+    @Override
+    public int enforceRetention() {
+        if(retention <= 0)
+            return 0;
+
+        return expire(System.currentTimeMillis() - retention);
+    }
+
     public void start() {
 
     }
 
+    @Override
     public void stop() {
+        committer.stop();
+        if(compactor != null)
+            compactor.stop();
+
+        if(flusher != null)
+        {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+        writes.close();
 
+        writes.write(measurements::seal);
+        measurements.close();
+        store.close();
     }
 }
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options of a {@link MetricStorage}. Changes don't affect storages that have already been opened.
+ */
+public class MetricStorageConfig {
+
+    public static final long DEFAULT_PARTITION_SIZE = TimeUnit.DAYS.toMillis(1);
+    public static final int DEFAULT_HEAD_MAX_POINTS = 10000;
+    public static final int DEFAULT_SEGMENT_CAPACITY = 16 * 1024;
+    public static final long DEFAULT_CHUNK_CACHE_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_COMMIT_QUEUE_SIZE = 16 * 1024;
+    public static final long DEFAULT_COMMIT_MAX_DELAY = 2;
+    public static final int DEFAULT_COMMIT_MAX_POINTS = 10000;
+    public static final long DEFAULT_RECENT_MAX_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_COMPACTION_RATE = 4 * 1024 * 1024;
+
+    private MetricStorage.Layout layout = MetricStorage.Layout.ENTITY;
+    private long[] rollupResolutions = Rollups.DEFAULT_RESOLUTIONS.clone();
+    private long partitionSize = DEFAULT_PARTITION_SIZE;
+    private long retention = 0;
+    private long headFlushInterval = 0;
+    private boolean durableWrites = false;
+    private int headMaxPoints = DEFAULT_HEAD_MAX_POINTS;
+    private int segmentCapacity = DEFAULT_SEGMENT_CAPACITY;
+    private long chunkCacheSize = DEFAULT_CHUNK_CACHE_SIZE;
+    private int commitQueueSize = DEFAULT_COMMIT_QUEUE_SIZE;
+    private long commitMaxDelay = DEFAULT_COMMIT_MAX_DELAY;
+    private int commitMaxPoints = DEFAULT_COMMIT_MAX_POINTS;
+    private long reorderWindow = 0;
+    private int recentPoints = 0;
+    private long recentMaxBytes = DEFAULT_RECENT_MAX_BYTES;
+    private long compactionInterval = 0;
+    private long compactionRate = DEFAULT_COMPACTION_RATE;
+
+    public MetricStorage.Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * The layout is chosen when a storage is created and cannot be changed afterwards.
+     */
+    public void setLayout(MetricStorage.Layout layout) {
+        this.layout = layout;
+    }
+
+    public long[] getRollupResolutions() {
+        return rollupResolutions.clone();
+    }
+
+    /**
+     * @param rollupResolutions the bucket sizes (in ms) of the rollups that are maintained for all metrics, may be empty
+     */
+    public void setRollupResolutions(long[] rollupResolutions) {
+        this.rollupResolutions = rollupResolutions.clone();
+    }
+
+    public long getPartitionSize() {
+        return partitionSize;
+    }
+
+    /**
+     * The time span (in ms) of a partition, the unit of retention.
+     * Only used by the {@link MetricStorage.Layout#ORDERED} layout. Must not change for an existing storage.
+     */
+    public void setPartitionSize(long partitionSize) {
+        if(partitionSize <= 0)
+            throw new IllegalArgumentException("Invalid partition size: "+partitionSize);
+        this.partitionSize = partitionSize;
+    }
+
+    public long getRetention() {
+        return retention;
+    }
+
+    /**
+     * How long (in ms) raw measurements are retained, see {@link MetricStorage#enforceRetention()}.
+     * Zero or less retains them forever.
+     */
+    public void setRetention(long retention) {
+        this.retention = retention;
+    }
+
+    public long getHeadFlushInterval() {
+        return headFlushInterval;
+    }
+
+    /**
+     * Buffers measurements in memory and flushes them to the storage in the given interval (ms).
+     * Zero or less writes measurements through to the storage.
+     */
+    public void setHeadFlushInterval(long headFlushInterval) {
+        this.headFlushInterval = headFlushInterval;
+    }
+
+    public boolean isDurableWrites() {
+        return durableWrites;
+    }
+
+    /**
+     * Forces writes to disk before they are acknowledged: every transaction, every append to the log of the head
+     * (see {@link #setHeadFlushInterval(long)}) and the segments of {@link MetricStorage.Layout#SEGMENTS}.
+     * Without it (the default) writes survive a crash of the process, but not necessarily of the operating system.
+     * Segments are then forced when the storage is flushed.
+     */
+    public void setDurableWrites(boolean durableWrites) {
+        this.durableWrites = durableWrites;
+    }
+
+    public int getHeadMaxPoints() {
+        return headMaxPoints;
+    }
+
+    /**
+     * The number of buffered measurements that causes a flush before the interval has elapsed.
+     */
+    public void setHeadMaxPoints(int headMaxPoints) {
+        if(headMaxPoints <= 0)
+            throw new IllegalArgumentException("Invalid number of points: "+headMaxPoints);
+        this.headMaxPoints = headMaxPoints;
+    }
+
+    public int getSegmentCapacity() {
+        return segmentCapacity;
+    }
+
+    /**
+     * The number of measurements per segment file.
+     * Only used by the {@link MetricStorage.Layout#SEGMENTS} layout, applies to segments created afterwards.
+     */
+    public void setSegmentCapacity(int segmentCapacity) {
+        if(segmentCapacity <= 0)
+            throw new IllegalArgumentException("Invalid segment capacity: "+segmentCapacity);
+        this.segmentCapacity = segmentCapacity;
+    }
+
+    public long getChunkCacheSize() {
+        return chunkCacheSize;
+    }
+
+    /**
+     * The budget (in bytes) of the cache that holds decoded chunks, see {@link MetricStorage#getCacheStatistics()}.
+     * Only used by the {@link MetricStorage.Layout#CHUNKED} layout. Zero or less disables the cache.
+     */
+    public void setChunkCacheSize(long chunkCacheSize) {
+        this.chunkCacheSize = chunkCacheSize;
+    }
+
+    public int getCommitQueueSize() {
+        return commitQueueSize;
+    }
+
+    /**
+     * The number of asynchronous writes that can be pending (see {@link MetricStorage#addMeasurementAsync(String, long, long)}).
+     * Writes beyond that are rejected.
+     */
+    public void setCommitQueueSize(int commitQueueSize) {
+        if(commitQueueSize <= 0)
+            throw new IllegalArgumentException("Invalid queue size: "+commitQueueSize);
+        this.commitQueueSize = commitQueueSize;
+    }
+
+    public long getCommitMaxDelay() {
+        return commitMaxDelay;
+    }
+
+    /**
+     * The time (in ms) an asynchronous write may wait for others to share its transaction.
+     * Zero commits what is pending right away.
+     */
+    public void setCommitMaxDelay(long commitMaxDelay) {
+        if(commitMaxDelay < 0)
+            throw new IllegalArgumentException("Invalid delay: "+commitMaxDelay);
+        this.commitMaxDelay = commitMaxDelay;
+    }
+
+    public int getCommitMaxPoints() {
+        return commitMaxPoints;
+    }
+
+    /**
+     * The number of measurements that causes a group commit before the delay has elapsed.
+     */
+    public void setCommitMaxPoints(int commitMaxPoints) {
+        if(commitMaxPoints <= 0)
+            throw new IllegalArgumentException("Invalid number of points: "+commitMaxPoints);
+        this.commitMaxPoints = commitMaxPoints;
+    }
+
+    public long getReorderWindow() {
+        return reorderWindow;
+    }
+
+    /**
+     * The time span (in ms) within which measurements may arrive out of order.
+     * Measurements are buffered in memory for the duration of the window and written in time order.
+     * Measurements older than the window are kept apart from the others, see {@link MetricStorage#addMeasurement(String, long, long)}.
+     * Zero (the default) doesn't buffer anything.
+     */
+    public void setReorderWindow(long reorderWindow) {
+        if(reorderWindow < 0)
+            throw new IllegalArgumentException("Invalid window: "+reorderWindow);
+        this.reorderWindow = reorderWindow;
+    }
+
+    public int getRecentPoints() {
+        return recentPoints;
+    }
+
+    /**
+     * The number of measurements per metric that are kept in memory to answer queries for the most recent ones,
+     * see {@link MetricStorage#getLast(String, int, Measurements)}. Range queries that begin within them are answered
+     * from memory as well. Zero (the default) disables it.
+     */
+    public void setRecentPoints(int recentPoints) {
+        if(recentPoints < 0)
+            throw new IllegalArgumentException("Invalid number of points: "+recentPoints);
+        this.recentPoints = recentPoints;
+    }
+
+    public long getRecentMaxBytes() {
+        return recentMaxBytes;
+    }
+
+    /**
+     * The budget (in bytes) of the recent measurements, see {@link MetricStorage#getRecentStatistics()}.
+     * Metrics beyond the budget are read from the storage.
+     */
+    public void setRecentMaxBytes(long recentMaxBytes) {
+        if(recentMaxBytes <= 0)
+            throw new IllegalArgumentException("Invalid budget: "+recentMaxBytes);
+        this.recentMaxBytes = recentMaxBytes;
+    }
+
+    public long getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    /**
+     * The time (in ms) between two passes of the background compaction, that merges small chunks
+     * (see {@link MetricStorage#compact()}). Only used by the {@link MetricStorage.Layout#CHUNKED} layout.
+     * Zero (the default) disables it.
+     */
+    public void setCompactionInterval(long compactionInterval) {
+        if(compactionInterval < 0)
+            throw new IllegalArgumentException("Invalid interval: "+compactionInterval);
+        this.compactionInterval = compactionInterval;
+    }
+
+    public long getCompactionRate() {
+        return compactionRate;
+    }
+
+    /**
+     * The bytes per second the compaction may read and write. It pauses between its steps to stay within the rate.
+     */
+    public void setCompactionRate(long compactionRate) {
+        if(compactionRate <= 0)
+            throw new IllegalArgumentException("Invalid rate: "+compactionRate);
+        this.compactionRate = compactionRate;
+    }
+}
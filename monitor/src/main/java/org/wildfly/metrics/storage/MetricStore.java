@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The operations on stored metrics, provided by a single {@link MetricStorage} and by a {@link ShardedMetricStorage}
+ * alike. The semantics of each operation are described by {@link MetricStorage}, the sharded storage notes where
+ * it differs (i.e. batches aren't atomic across shards).
+ */
+public interface MetricStore {
+
+    // metrics and series
+
+    Set<String> getMetricNames();
+
+    void registerMetric(String metricName);
+
+    void registerMetric(String metricName, MetricStorage.ValueType type);
+
+    boolean registerIfAbsent(String metricName);
+
+    boolean registerIfAbsent(String metricName, MetricStorage.ValueType type);
+
+    void registerIfAbsent(Collection<String> metricNames);
+
+    void registerIfAbsent(Map<String, Labels> metrics);
+
+    int registerIfAbsent(String metricName, Labels labels, MetricStorage.ValueType type);
+
+    MetricStorage.ValueType getValueType(String metricName);
+
+    MetricStorage.ValueType getValueType(int seriesId);
+
+    Labels getLabels(String metricName);
+
+    Set<String> select(Selector selector);
+
+    int getOrCreateSeries(String metricName);
+
+    int getOrCreateSeries(String metricName, Labels labels);
+
+    int getOrCreateSeries(String metricName, Labels labels, MetricStorage.ValueType type);
+
+    String getMetricName(int seriesId);
+
+    // writes
+
+    void addMeasurement(String metricName, long timestamp, long value);
+
+    void addMeasurement(String metricName, long timestamp, double value);
+
+    void addMeasurement(int seriesId, long timestamp, long value);
+
+    void addMeasurement(int seriesId, long timestamp, double value);
+
+    void addMeasurements(String metricName, long[] timestamps, long[] values);
+
+    void addMeasurements(String metricName, long[] timestamps, double[] values);
+
+    void addMeasurements(MeasurementBatch batch);
+
+    CompletableFuture<Void> addMeasurementAsync(String metricName, long timestamp, long value);
+
+    CompletableFuture<Void> addMeasurementAsync(String metricName, long timestamp, double value);
+
+    CompletableFuture<Void> addMeasurementAsync(int seriesId, long timestamp, long value);
+
+    CompletableFuture<Void> addMeasurementAsync(int seriesId, long timestamp, double value);
+
+    CompletableFuture<Void> addMeasurementsAsync(MeasurementBatch batch);
+
+    // reads
+
+    List<Long[]> getMeasurements(String metricName, long from, long to);
+
+    Measurements getMeasurements(String metricName, long from, long to, Measurements results);
+
+    Measurements getMeasurements(String metricName, long from, long to, Measurements results, ForkJoinPool pool);
+
+    void visitMeasurements(String metricName, long from, long to, MeasurementVisitor visitor);
+
+    MultiSeriesResult getMeasurements(Collection<String> metricNames, long from, long to);
+
+    MultiSeriesResult getMeasurements(Collection<String> metricNames, long from, long to, ForkJoinPool pool);
+
+    MultiSeriesResult getMeasurements(Selector selector, long from, long to);
+
+    MultiSeriesResult getMeasurements(Selector selector, long from, long to, ForkJoinPool pool);
+
+    DoubleMeasurements getDoubleMeasurements(String metricName, long from, long to, DoubleMeasurements results);
+
+    void visitDoubleMeasurements(String metricName, long from, long to, DoubleMeasurementVisitor visitor);
+
+    Measurements getLast(String metricName, int n, Measurements results);
+
+    DoubleMeasurements getLastDouble(String metricName, int n, DoubleMeasurements results);
+
+    Buckets getBuckets(String metricName, long from, long to, long step, Buckets results);
+
+    Aggregate getAggregate(String metricName, long from, long to);
+
+    // maintenance and statistics
+
+    void flush();
+
+    void compact();
+
+    int expire(long before);
+
+    int enforceRetention();
+
+    CacheStatistics getCacheStatistics();
+
+    CacheStatistics getRecentStatistics();
+
+    CompactionStatistics getCompactionStatistics();
+
+    void stop();
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The measurements of several metrics within the same time range, in columnar form: the timestamps and values
+ * of all metrics are held in two parallel arrays, the measurements of a metric occupy a contiguous range of them.
+ *
+ * <pre>
+ *     MultiSeriesResult result = storage.getMeasurements(Selector.parse("host=a"), from, to);
+ *     for (int s = 0; s < result.getSeriesCount(); s++) {
+ *         for (int i = result.getStart(s); i < result.getEnd(s); i++) {
+ *             result.getTimestamps()[i];
+ *             result.getValues()[i];
+ *         }
+ *     }
+ * </pre>
+ *
+ * The values of metrics of type {@link MetricStorage.ValueType#DOUBLE} are held as their IEEE 754 bits,
+ * see {@link #getDoubleValue(int)}.
+ *
+ * @see MetricStorage#getMeasurements(java.util.Collection, long, long)
+ */
+public class MultiSeriesResult {
+
+    private final String[] names;
+    private final MetricStorage.ValueType[] types;
+    private final int[] offsets;
+    private final long[] timestamps;
+    private final long[] values;
+
+    private Map<String, Integer> index;
+
+    private MultiSeriesResult(String[] names, MetricStorage.ValueType[] types, int[] offsets, long[] timestamps, long[] values) {
+        this.names = names;
+        this.types = types;
+        this.offsets = offsets;
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    /**
+     * @param parts the measurements of the series, matching them by index
+     */
+    static MultiSeriesResult of(List<Series> series, Measurements[] parts) {
+        String[] names = new String[series.size()];
+        MetricStorage.ValueType[] types = new MetricStorage.ValueType[series.size()];
+        int[] offsets = new int[series.size() + 1];
+        for (int i = 0; i < parts.length; i++) {
+            names[i] = series.get(i).getName();
+            types[i] = series.get(i).getType();
+            offsets[i + 1] = offsets[i] + parts[i].size();
+        }
+
+        long[] timestamps = new long[offsets[parts.length]];
+        long[] values = new long[offsets[parts.length]];
+        for (int i = 0; i < parts.length; i++) {
+            System.arraycopy(parts[i].getTimestamps(), 0, timestamps, offsets[i], parts[i].size());
+            System.arraycopy(parts[i].getValues(), 0, values, offsets[i], parts[i].size());
+        }
+
+        return new MultiSeriesResult(names, types, offsets, timestamps, values);
+    }
+
+    /**
+     * Combines results of disjoint metrics, i.e. from several shards.
+     */
+    static MultiSeriesResult concat(List<MultiSeriesResult> results) {
+        int numSeries = 0;
+        int numPoints = 0;
+        for (MultiSeriesResult result : results) {
+            numSeries += result.getSeriesCount();
+            numPoints += result.size();
+        }
+
+        String[] names = new String[numSeries];
+        MetricStorage.ValueType[] types = new MetricStorage.ValueType[numSeries];
+        int[] offsets = new int[numSeries + 1];
+        long[] timestamps = new long[numPoints];
+        long[] values = new long[numPoints];
+
+        int series = 0;
+        for (MultiSeriesResult result : results) {
+            int base = offsets[series];
+            System.arraycopy(result.timestamps, 0, timestamps, base, result.size());
+            System.arraycopy(result.values, 0, values, base, result.size());
+            for (int i = 0; i < result.getSeriesCount(); i++) {
+                names[series] = result.names[i];
+                types[series] = result.types[i];
+                offsets[series + 1] = base + result.offsets[i + 1];
+                series++;
+            }
+        }
+
+        return new MultiSeriesResult(names, types, offsets, timestamps, values);
+    }
+
+    public int getSeriesCount() {
+        return names.length;
+    }
+
+    public String getName(int series) {
+        return names[series];
+    }
+
+    public MetricStorage.ValueType getType(int series) {
+        return types[series];
+    }
+
+    /**
+     * @return the index of the metric's series, -1 if it's not part of the result
+     */
+    public synchronized int indexOf(String metricName) {
+        if(null == index)
+        {
+            index = new HashMap<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                index.put(names[i], i);
+            }
+        }
+        Integer i = index.get(metricName);
+        return null == i ? -1 : i;
+    }
+
+    /**
+     * @return the position of the first measurement of a series
+     */
+    public int getStart(int series) {
+        return offsets[series];
+    }
+
+    /**
+     * @return the position after the last measurement of a series
+     */
+    public int getEnd(int series) {
+        return offsets[series + 1];
+    }
+
+    /**
+     * @return the total number of measurements
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * @return the timestamps of all series
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return the values of all series
+     */
+    public long[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param i the position of a measurement of a series of type {@link MetricStorage.ValueType#DOUBLE}
+     */
+    public double getDoubleValue(int i) {
+        return Double.longBitsToDouble(values[i]);
+    }
+
+    /**
+     * @return a copy of the measurements of a series
+     */
+    public Measurements getMeasurements(int series) {
+        Measurements result = new Measurements(getEnd(series) - getStart(series));
+        for (int i = getStart(series); i < getEnd(series); i++) {
+            result.add(timestamps[i], values[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.entitystore.PersistentStoreTransaction;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.StoreConfig;
+import jetbrains.exodus.env.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * One record per measurement in raw Xodus stores, keyed by <code>(seriesId, timestamp)</code> (see {@link Keys}).
+ * <p>
+ * A range query is a single cursor seek to <code>(seriesId, from)</code> followed by a sequential scan,
+ * that only touches the data of the requested series. Its cost depends on the size of the result,
+ * not on the total number of series. Writing the same timestamp twice replaces the previous value.
+ * <p>
+ * The measurements are partitioned by time: each partition is a separate store that covers a fixed time span.
+ * Expired partitions are dropped as a whole, without touching the individual records.
+ */
+class OrderedLayout implements StorageLayout {
+
+    static final String STORE_PREFIX = "measurements-";
+
+    private final Environment environment;
+    private final long partitionSize;
+
+    // committed state: partitions by start
+    private final NavigableMap<Long, Store> partitions = new ConcurrentSkipListMap<>();
+
+    // uncommitted state of the current write transaction
+    private final Map<Long, Store> created = new HashMap<>();
+    private final List<Long> dropped = new ArrayList<>();
+
+    OrderedLayout(Environment environment, long partitionSize) {
+        this.environment = environment;
+        this.partitionSize = partitionSize;
+
+        environment.executeInTransaction(txn -> {
+            for (String name : environment.getAllStoreNames(txn)) {
+                if(name.startsWith(STORE_PREFIX))
+                {
+                    long start = Long.parseLong(name.substring(STORE_PREFIX.length()));
+                    partitions.put(start, environment.openStore(name, StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING, txn));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void begin() {
+        created.clear();
+        dropped.clear();
+    }
+
+    @Override
+    public void write(PersistentStoreTransaction txn, Series series, long timestamp, long value) {
+        partition(txn.getEnvironmentTransaction(), Rollups.bucket(timestamp, partitionSize)).put(
+                txn.getEnvironmentTransaction(),
+                Keys.key(series.getId(), timestamp),
+                Keys.longValue(value)
+        );
+    }
+
+    /**
+     * Late measurements are written like the others, they replace those of the same timestamp.
+     */
+    @Override
+    public Measurements fold(PersistentStoreTransaction txn, Series series, Measurements points) {
+        for (int i = 0; i < points.size(); i++) {
+            write(txn, series, points.getTimestamp(i), points.getValue(i));
+        }
+        return points;
+    }
+
+    private Store partition(Transaction txn, long start) {
+        Store store = partitions.get(start);
+        if(null == store)
+            store = created.get(start);
+
+        if(null == store)
+        {
+            store = environment.openStore(STORE_PREFIX + start, StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING, txn);
+            created.put(start, store);
+        }
+
+        return store;
+    }
+
+    @Override
+    public void committed() {
+        partitions.putAll(created);
+        for (Long start : dropped) {
+            partitions.remove(start);
+        }
+        created.clear();
+        dropped.clear();
+    }
+
+    @Override
+    public void read(PersistentStoreTransaction txn, Series series, long from, long to, MeasurementVisitor visitor) {
+        Transaction envTxn = txn.getEnvironmentTransaction();
+
+        long first = Rollups.bucket(from, partitionSize);
+        for (Store partition : partitions.subMap(first, true, to, true).values()) {
+            scan(envTxn, partition, series, from, to, visitor);
+        }
+    }
+
+    @Override
+    public long getFirstTimestamp(PersistentStoreTransaction txn, Series series) {
+        for (Store partition : partitions.values()) {
+            try (Cursor cursor = partition.openCursor(txn.getEnvironmentTransaction())) {
+                long first = Keys.firstTimestamp(cursor, series.getId());
+                if(first != Long.MAX_VALUE)
+                    return first;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long getLastTimestamp(PersistentStoreTransaction txn, Series series) {
+        for (Store partition : partitions.descendingMap().values()) {
+            try (Cursor cursor = partition.openCursor(txn.getEnvironmentTransaction())) {
+                long last = Keys.lastTimestamp(cursor, series.getId());
+                if(last != Long.MIN_VALUE)
+                    return last;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static void scan(Transaction txn, Store partition, Series series, long from, long to, MeasurementVisitor visitor) {
+        try (Cursor cursor = partition.openCursor(txn)) {
+            scan(cursor, series, from, to, visitor);
+        }
+    }
+
+    private static void scan(Cursor cursor, Series series, long from, long to, MeasurementVisitor visitor) {
+        if(null == cursor.getSearchKeyRange(Keys.key(series.getId(), from)))
+            return;
+
+        do {
+            ByteIterable key = cursor.getKey();
+            if(Keys.seriesId(key) != series.getId())
+                break;
+
+            long timestamp = Keys.timestamp(key);
+            if(timestamp > to)
+                break;
+
+            visitor.visit(timestamp, Keys.longValue(cursor.getValue()));
+        }
+        while (cursor.getNext());
+    }
+
+    /**
+     * A single cursor per partition serves all series: they are sought in the order of their ids,
+     * i.e. in key order, so that consecutive seeks share the path through the tree.
+     */
+    @Override
+    public List<Supplier<Measurements>> readAll(PersistentStoreTransaction txn, List<Series> series, long from, long to) {
+        Transaction envTxn = txn.getEnvironmentTransaction();
+
+        Measurements[] results = new Measurements[series.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Measurements();
+        }
+
+        long first = Rollups.bucket(from, partitionSize);
+        for (Store partition : partitions.subMap(first, true, to, true).values()) {
+            try (Cursor cursor = partition.openCursor(envTxn)) {
+                for (int i = 0; i < results.length; i++) {
+                    scan(cursor, series.get(i), from, to, results[i]::add);
+                }
+            }
+        }
+
+        List<Supplier<Measurements>> parts = new ArrayList<>(results.length);
+        for (Measurements result : results) {
+            parts.add(() -> result);
+        }
+        return parts;
+    }
+
+    @Override
+    public int expire(PersistentStoreTransaction txn, long before) {
+        // the last start of a partition that entirely precedes 'before'
+        long last = before < Long.MIN_VALUE + partitionSize ? Long.MIN_VALUE : before - partitionSize;
+
+        for (Long start : partitions.keySet()) {
+            if(start > last)
+                break;
+
+            environment.removeStore(STORE_PREFIX + start, txn.getEnvironmentTransaction());
+            dropped.add(start);
+        }
+        return dropped.size();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+/**
+ * Computes the parts of a query result on a {@link ForkJoinPool} and concatenates them in order.
+ */
+final class ParallelScan extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    // parts per thread, to balance parts of uneven size
+    static final int PARTS_PER_THREAD = 4;
+
+    private final IntFunction<Measurements> scan;
+    private final Measurements[] parts;
+    private final int lo;
+    private final int hi;
+
+    private ParallelScan(IntFunction<Measurements> scan, Measurements[] parts, int lo, int hi) {
+        this.scan = scan;
+        this.parts = parts;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    /**
+     * @param numParts
+     * @param scan computes a part, invoked concurrently
+     * @param results receives the parts in the order of their index
+     */
+    static void invoke(ForkJoinPool pool, int numParts, IntFunction<Measurements> scan, Measurements results) {
+        for (Measurements part : invoke(pool, numParts, scan)) {
+            for (int i = 0; i < part.size(); i++) {
+                results.add(part.getTimestamp(i), part.getValue(i));
+            }
+        }
+    }
+
+    /**
+     * @return the parts, by index
+     */
+    static Measurements[] invoke(ForkJoinPool pool, int numParts, IntFunction<Measurements> scan) {
+        Measurements[] parts = new Measurements[numParts];
+        pool.invoke(new ParallelScan(scan, parts, 0, numParts));
+        return parts;
+    }
+
+    @Override
+    protected void compute() {
+        if(hi - lo > 1)
+        {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ParallelScan(scan, parts, lo, mid), new ParallelScan(scan, parts, mid, hi));
+        }
+        else if(hi > lo)
+        {
+            parts[lo] = scan.apply(lo);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wildfly.metrics.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The newest measurements of each series in fixed-size ring buffers of primitives, populated on write.
+ * <p>
+ * A ring holds <b>all</b> measurements of its series after a certain timestamp: the most recent one in the storage
+ * when the ring was created, or the newest one that has been pushed out since. Reads that begin after it are answered
+ * from memory, without touching the storage. Late measurements within the ring are merged into it, the last write wins.
+ * <p>
+ * Memory is bounded by a budget: series that are tracked once the budget is used up don't get a ring.
+ * Writers are expected to be serialized by the caller, readers synchronize on the individual rings.
+ */
+class RecentPoints {
+
+    // two arrays of longs per ring, plus the fields and headers
+    private static final int RING_OVERHEAD = 96;
+
+    private final int capacity;
+    private final long maxBytes;
+
+    private volatile Ring[] byId = new Ring[64];
+    private long bytes;
+    private int entries;
+    private long rejected;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the number of measurements per series
+     * @param maxBytes the budget of all rings
+     */
+    RecentPoints(int capacity, long maxBytes) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+    }
+
+    private long ringBytes() {
+        return RING_OVERHEAD + 16L * capacity;
+    }
+
+    boolean isTracked(Series series) {
+        return get(series) != null;
+    }
+
+    /**
+     * Creates the ring of a series, unless the budget is used up.
+     *
+     * @param end the most recent timestamp of the series in the storage, {@link Long#MIN_VALUE} if there is none
+     */
+    synchronized void track(Series series, long end) {
+        int id = series.getId();
+        if(id < byId.length && byId[id] != null)
+            return;
+
+        if(bytes + ringBytes() > maxBytes)
+        {
+            rejected++;
+            return;
+        }
+
+        Ring[] rings = id >= byId.length ? Arrays.copyOf(byId, Math.max(id + 1, byId.length * 2)) : byId;
+        rings[id] = new Ring(capacity, end);
+        byId = rings;
+
+        bytes += ringBytes();
+        entries++;
+    }
+
+    private Ring get(Series series) {
+        Ring[] rings = byId;
+        return series.getId() < rings.length ? rings[series.getId()] : null;
+    }
+
+    /**
+     * Adds the measurements of a series that have been written, in the order they have been written.
+     */
+    void add(Series series, Measurements points) {
+        Ring ring = get(series);
+        if(null == ring)
+            return;
+
+        synchronized (ring) {
+            for (int i = 0; i < points.size(); i++) {
+                ring.add(points.getTimestamp(i), points.getValue(i));
+            }
+        }
+    }
+
+    /**
+     * Copies the measurements within <code>[from, to]</code>, if the ring holds all of them.
+     *
+     * @return false if the storage needs to be read
+     */
+    boolean read(Series series, long from, long to, Measurements target) {
+        Ring ring = get(series);
+        boolean covered = false;
+        if(ring != null)
+        {
+            synchronized (ring) {
+                covered = ring.read(from, to, target);
+            }
+        }
+
+        (covered ? hits : misses).incrementAndGet();
+        return covered;
+    }
+
+    /**
+     * Copies the <code>n</code> most recent measurements, in time order, if the ring holds them.
+     * A ring that holds all measurements of its series can answer any <code>n</code>.
+     *
+     * @return false if the storage needs to be read
+     */
+    boolean readLast(Series series, int n, Measurements target) {
+        Ring ring = get(series);
+        boolean covered = false;
+        if(ring != null)
+        {
+            synchronized (ring) {
+                covered = ring.readLast(n, target);
+            }
+        }
+
+        (covered ? hits : misses).incrementAndGet();
+        return covered;
+    }
+
+    /**
+     * Drops the measurements older than <code>before</code>, they may have been removed from the storage.
+     */
+    void expire(long before) {
+        for (Ring ring : byId) {
+            if(ring != null)
+            {
+                synchronized (ring) {
+                    ring.expire(before);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the memory usage of the rings. The evictions count the series that didn't get a ring within the budget.
+     */
+    synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(maxBytes, bytes, entries, hits.get(), misses.get(), rejected);
+    }
+
+    private static final class Ring {
+
+        private final long[] timestamps;
+        private final long[] values;
+        private int start;
+        private int size;
+
+        // the ring holds all measurements after this timestamp
+        private long after;
+
+        Ring(int capacity, long after) {
+            this.timestamps = new long[capacity];
+            this.values = new long[capacity];
+            this.after = after;
+        }
+
+        private int index(int i) {
+            int index = start + i;
+            return index < timestamps.length ? index : index - timestamps.length;
+        }
+
+        /**
+         * @return the logical position of the first measurement at or after the timestamp
+         */
+        private int search(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if(timestamps[index(mid)] < timestamp)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        void add(long timestamp, long value) {
+            if(timestamp <= after)
+                return;
+
+            // the common case: a new measurement
+            if(0 == size || timestamp > timestamps[index(size - 1)])
+            {
+                if(size == timestamps.length)
+                    evict();
+                timestamps[index(size)] = timestamp;
+                values[index(size)] = value;
+                size++;
+                return;
+            }
+
+            int position = search(timestamp);
+            if(timestamps[index(position)] == timestamp)
+            {
+                values[index(position)] = value;
+                return;
+            }
+
+            if(size == timestamps.length)
+            {
+                // older than anything the ring retains
+                if(0 == position)
+                {
+                    after = timestamp;
+                    return;
+                }
+                evict();
+                position--;
+            }
+
+            for (int i = size; i > position; i--) {
+                timestamps[index(i)] = timestamps[index(i - 1)];
+                values[index(i)] = values[index(i - 1)];
+            }
+            timestamps[index(position)] = timestamp;
+            values[index(position)] = value;
+            size++;
+        }
+
+        private void evict() {
+            after = timestamps[start];
+            start = index(1);
+            size--;
+        }
+
+        boolean read(long from, long to, Measurements target) {
+            if(from <= after)
+                return false;
+
+            for (int i = search(from); i < size && timestamps[index(i)] <= to; i++) {
+                target.add(timestamps[index(i)], values[index(i)]);
+            }
+            return true;
+        }
+
+        boolean readLast(int n, Measurements target) {
+            if(n > size && after != Long.MIN_VALUE)
+                return false;
+
+            for (int i = Math.max(0, size - n); i < size; i++) {
+                target.add(timestamps[index(i)], values[index(i)]);
+            }
+            return true;
+        }
+
+        void expire(long before) {
+            while (size > 0 && timestamps[start] < before) {
+                evict();
+            }
+            if(before != Long.MIN_VALUE)
+                after = Math.max(after, before - 1);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Orders the measurements of each series before they are written, tolerating points that arrive late.
+ * <p>
+ * Each series has a watermark: the most recent timestamp seen, minus the reorder window.
+ * Measurements after the watermark are buffered, sorted by time and released once the watermark has passed them.
+ * Writing the same timestamp twice within the window replaces the buffered value.
+ * Measurements at or before the watermark (late points and duplicates of released points) are passed on separately,
+ * so that the layouts only ever see strictly ascending timestamps per series.
+ * <p>
+ * With a window of zero nothing is buffered: in-order measurements are released right away, the watermark
+ * is the most recent timestamp that has been released.
+ * <p>
+ * Released measurements are still read until the caller has written them (see {@link #written(Iterable)}),
+ * so that they don't disappear from reads in between.
+ * <p>
+ * Not thread safe, {@link WritePipeline} and {@link MergedReads} synchronize on the instance.
+ */
+class ReorderBuffer {
+
+    private final long window;
+    private final Map<Series, Pending> pending = new HashMap<>();
+    private int size;
+
+    ReorderBuffer(long window) {
+        this.window = window;
+    }
+
+    /**
+     * @return false if the watermark of the series needs to be initialized, see {@link #track(Series, long)}
+     */
+    boolean isTracked(Series series) {
+        return pending.containsKey(series);
+    }
+
+    /**
+     * @param end the most recent timestamp of the series in the storage, {@link Long#MIN_VALUE} if there is none
+     */
+    void track(Series series, long end) {
+        pending.put(series, new Pending(end));
+    }
+
+    /**
+     * @param released receives the measurements that have left the window, ordered by time
+     * @param late receives the measurements at or before the watermark, in the order they have been added
+     */
+    void add(Series series, Measurements points, long now, Map<Series, Measurements> released, Map<Series, Measurements> late) {
+        Pending buffer = pending.get(series);
+        if(null == buffer)
+            throw new IllegalStateException("Series is not tracked: "+series);
+
+        for (int i = 0; i < points.size(); i++) {
+            long timestamp = points.getTimestamp(i);
+            if(timestamp <= buffer.watermark)
+            {
+                late.computeIfAbsent(series, s -> new Measurements()).add(timestamp, points.getValue(i));
+            }
+            else
+            {
+                if(buffer.put(timestamp, points.getValue(i)))
+                    size++;
+                buffer.max = Math.max(buffer.max, timestamp);
+            }
+        }
+        buffer.lastAdded = now;
+
+        long watermark = buffer.max < Long.MIN_VALUE + window ? Long.MIN_VALUE : buffer.max - window;
+        release(series, buffer, watermark, released);
+    }
+
+    /**
+     * Releases the measurements of the series that haven't received any for the duration of the window.
+     */
+    void releaseIdle(long now, Map<Series, Measurements> released) {
+        pending.forEach((series, buffer) -> {
+            if(buffer.size > 0 && now - buffer.lastAdded >= window)
+                release(series, buffer, buffer.max, released);
+        });
+    }
+
+    /**
+     * Releases all buffered measurements.
+     */
+    void releaseAll(Map<Series, Measurements> released) {
+        pending.forEach((series, buffer) -> release(series, buffer, buffer.max, released));
+    }
+
+    private void release(Series series, Pending buffer, long watermark, Map<Series, Measurements> released) {
+        if(watermark <= buffer.watermark)
+            return;
+
+        buffer.watermark = watermark;
+
+        int n = 0;
+        while (n < buffer.size && buffer.timestamps[n] <= watermark) {
+            n++;
+        }
+        if(n == 0)
+            return;
+
+        Measurements target = released.computeIfAbsent(series, s -> new Measurements(buffer.size));
+        if(null == buffer.releasing)
+            buffer.releasing = new Measurements(n);
+        for (int i = 0; i < n; i++) {
+            target.add(buffer.timestamps[i], buffer.values[i]);
+            buffer.releasing.add(buffer.timestamps[i], buffer.values[i]);
+        }
+        buffer.remove(n);
+        size -= n;
+    }
+
+    /**
+     * Stops reading the measurements that have been released for the series, once they have been written.
+     */
+    void written(Iterable<Series> series) {
+        for (Series s : series) {
+            Pending buffer = pending.get(s);
+            if(buffer != null)
+                buffer.releasing = null;
+        }
+    }
+
+    /**
+     * Copies the measurements of a series within <code>[from, to]</code> that are buffered
+     * or released but not written yet, ordered by time.
+     */
+    void read(Series series, long from, long to, Measurements results) {
+        Pending buffer = pending.get(series);
+        if(null == buffer)
+            return;
+
+        // released ones precede the buffered ones
+        Measurements releasing = buffer.releasing;
+        for (int i = 0; releasing != null && i < releasing.size(); i++) {
+            long timestamp = releasing.getTimestamp(i);
+            if(timestamp > to)
+                break;
+            if(timestamp >= from)
+                results.add(timestamp, releasing.getValue(i));
+        }
+
+        for (int i = 0; i < buffer.size; i++) {
+            long timestamp = buffer.timestamps[i];
+            if(timestamp > to)
+                break;
+            if(timestamp >= from)
+                results.add(timestamp, buffer.values[i]);
+        }
+    }
+
+    /**
+     * @return the number of buffered measurements
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * The measurements of a series after the watermark, ordered by time.
+     */
+    private static final class Pending {
+        long watermark;
+        long max;
+        long lastAdded;
+
+        // released, but not written yet
+        Measurements releasing;
+
+        long[] timestamps = new long[8];
+        long[] values = new long[8];
+        int size;
+
+        Pending(long end) {
+            this.watermark = end;
+            this.max = end;
+        }
+
+        /**
+         * @return true if the timestamp has been added, false if an existing value has been replaced
+         */
+        boolean put(long timestamp, long value) {
+            int pos;
+            if(size == 0 || timestamps[size - 1] < timestamp)
+            {
+                pos = size;
+            }
+            else
+            {
+                pos = Arrays.binarySearch(timestamps, 0, size, timestamp);
+                if(pos >= 0)
+                {
+                    values[pos] = value;
+                    return false;
+                }
+                pos = -pos - 1;
+            }
+
+            if(size == timestamps.length)
+            {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(timestamps, pos, timestamps, pos + 1, size - pos);
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+            timestamps[pos] = timestamp;
+            values[pos] = value;
+            size++;
+            return true;
+        }
+
+        void remove(int n) {
+            System.arraycopy(timestamps, n, timestamps, 0, size - n);
+            System.arraycopy(values, n, values, 0, size - n);
+            size -= n;
+        }
+    }
+}
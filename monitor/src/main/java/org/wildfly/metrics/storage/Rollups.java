@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.StoreConfig;
+import jetbrains.exodus.env.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downsampled copies of all series at fixed resolutions (tiers), maintained at write time.
+ * <p>
+ * Each tier is a raw Xodus store that holds one <code>(min, max, sum, count, last timestamp, last value)</code> record per series and bucket,
+ * keyed by <code>(seriesId, bucketStart)</code> (see {@link Keys}).
+ * Writes are aggregated in memory for the duration of a transaction and merged into the stored buckets on {@link #flush(Transaction)}.
+ * A value that replaces a previous one can't be merged, the previous one can't be taken out of the minimum and maximum:
+ * the buckets that contain it are rebuilt from the raw data instead (see {@link #invalidate(Series, long)}).
+ * Like the layouts, this doesn't keep state across transactions.
+ */
+class Rollups {
+
+    static final long[] DEFAULT_RESOLUTIONS = {
+            TimeUnit.MINUTES.toMillis(1),
+            TimeUnit.HOURS.toMillis(1),
+            TimeUnit.DAYS.toMillis(1)
+    };
+
+    private static final String STORE_PREFIX = "rollup-";
+    private static final int RECORD_BYTES = 48;
+
+    private final long[] resolutions;
+    private final Store[] stores;
+    private final boolean[] created;
+
+    // uncommitted state of the current write transaction, by tier
+    private final List<Map<BucketKey, long[]>> pending;
+    private final List<Map<BucketKey, Series>> invalid;
+    private final List<Map<BucketKey, long[]>> rebuilt;
+
+    Rollups(Environment environment, long[] resolutions) {
+        this.resolutions = resolutions.clone();
+        Arrays.sort(this.resolutions);
+
+        this.stores = new Store[this.resolutions.length];
+        this.created = new boolean[this.resolutions.length];
+        this.pending = new ArrayList<>(this.resolutions.length);
+        this.invalid = new ArrayList<>(this.resolutions.length);
+        this.rebuilt = new ArrayList<>(this.resolutions.length);
+        for (int tier = 0; tier < this.resolutions.length; tier++) {
+            pending.add(new HashMap<>());
+            invalid.add(new HashMap<>());
+            rebuilt.add(new HashMap<>());
+        }
+
+        environment.executeInTransaction(txn -> {
+            List<String> existing = environment.getAllStoreNames(txn);
+            for (int tier = 0; tier < this.resolutions.length; tier++) {
+                long resolution = this.resolutions[tier];
+                if(resolution <= 0)
+                    throw new IllegalArgumentException("Invalid rollup resolution: "+resolution);
+
+                String name = STORE_PREFIX + resolution;
+                created[tier] = !existing.contains(name);
+                stores[tier] = environment.openStore(name, StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING, txn);
+            }
+        });
+    }
+
+    /**
+     * @return true if any of the tiers didn't exist before and needs to be populated from the raw data
+     */
+    boolean hasCreatedTiers() {
+        for (boolean b : created) {
+            if(b) return true;
+        }
+        return false;
+    }
+
+    void begin() {
+        for (int tier = 0; tier < resolutions.length; tier++) {
+            pending.get(tier).clear();
+            invalid.get(tier).clear();
+            rebuilt.get(tier).clear();
+        }
+    }
+
+    void write(Series series, long timestamp, long value) {
+        for (int tier = 0; tier < resolutions.length; tier++) {
+            aggregate(tier, series, timestamp, value);
+        }
+    }
+
+    /**
+     * Only writes to the tiers that have been created when the storage was opened.
+     */
+    void backfill(Series series, long timestamp, long value) {
+        for (int tier = 0; tier < resolutions.length; tier++) {
+            if(created[tier])
+                aggregate(tier, series, timestamp, value);
+        }
+    }
+
+    /**
+     * Marks the buckets that contain a timestamp whose value has been replaced, see {@link #rebuild(RawRead)}.
+     */
+    void invalidate(Series series, long timestamp) {
+        for (int tier = 0; tier < resolutions.length; tier++) {
+            invalid.get(tier).put(new BucketKey(series.getId(), bucket(timestamp, resolutions[tier])), series);
+        }
+    }
+
+    /**
+     * Rebuilds the invalidated buckets from the raw data, which has to include the writes of the transaction so far:
+     * they replace what has been aggregated for them. Later writes are merged into the rebuilt buckets.
+     */
+    void rebuild(RawRead raw) {
+        for (int tier = 0; tier < resolutions.length; tier++) {
+            long resolution = resolutions[tier];
+            for (Map.Entry<BucketKey, Series> entry : invalid.get(tier).entrySet()) {
+                BucketKey key = entry.getKey();
+                long end = key.start > Long.MAX_VALUE - resolution + 1 ? Long.MAX_VALUE : key.start + resolution - 1;
+
+                long[][] record = new long[1][];
+                raw.read(entry.getValue(), key.start, end, (timestamp, value) -> {
+                    if(null == record[0])
+                        record[0] = new long[] {value, value, value, 1, timestamp, value};
+                    else
+                        merge(record[0], value, value, value, 1, timestamp, value);
+                });
+
+                pending.get(tier).remove(key);
+                rebuilt.get(tier).put(key, record[0]);
+            }
+            invalid.get(tier).clear();
+        }
+    }
+
+    private void aggregate(int tier, Series series, long timestamp, long value) {
+        BucketKey key = new BucketKey(series.getId(), bucket(timestamp, resolutions[tier]));
+        long[] aggregate = pending.get(tier).get(key);
+        if(null == aggregate)
+            pending.get(tier).put(key, new long[] {value, value, value, 1, timestamp, value});
+        else
+            merge(aggregate, value, value, value, 1, timestamp, value);
+    }
+
+    /**
+     * Rebuilt buckets replace the stored ones, the others are merged into them.
+     */
+    void flush(Transaction txn) {
+        for (int tier = 0; tier < resolutions.length; tier++) {
+            Store store = stores[tier];
+            Map<BucketKey, long[]> replaced = rebuilt.get(tier);
+
+            for (Map.Entry<BucketKey, long[]> entry : replaced.entrySet()) {
+                ArrayByteIterable key = Keys.key(entry.getKey().seriesId, entry.getKey().start);
+                long[] record = entry.getValue();
+                long[] aggregate = pending.get(tier).get(entry.getKey());
+
+                if(null == record && null == aggregate)
+                {
+                    store.delete(txn, key);
+                    continue;
+                }
+
+                if(null == record)
+                    record = aggregate;
+                else if(aggregate != null)
+                    merge(record, aggregate[0], aggregate[1], aggregate[2], aggregate[3], aggregate[4], aggregate[5]);
+                put(txn, store, key, record);
+            }
+
+            for (Map.Entry<BucketKey, long[]> entry : pending.get(tier).entrySet()) {
+                if(replaced.containsKey(entry.getKey()))
+                    continue;
+
+                ArrayByteIterable key = Keys.key(entry.getKey().seriesId, entry.getKey().start);
+                long[] aggregate = entry.getValue();
+
+                ByteIterable existing = store.get(txn, key);
+                if(existing != null)
+                {
+                    long[] record = decode(existing);
+                    merge(record, aggregate[0], aggregate[1], aggregate[2], aggregate[3], aggregate[4], aggregate[5]);
+                    aggregate = record;
+                }
+                put(txn, store, key, aggregate);
+            }
+        }
+    }
+
+    private static void put(Transaction txn, Store store, ArrayByteIterable key, long[] record) {
+        byte[] value = new byte[RECORD_BYTES];
+        for (int i = 0; i < record.length; i++) {
+            Keys.writeLong(value, i * 8, record[i]);
+        }
+        store.put(txn, key, new ArrayByteIterable(value));
+    }
+
+    /**
+     * Reads the buckets of the coarsest tier that evenly divides the step and merges them into buckets of the step size.
+     *
+     * @param from the start of the first bucket, aligned to the step
+     * @param to inclusive
+     * @return false if there is no suitable tier
+     */
+    boolean read(Transaction txn, Series series, long from, long to, long step, Buckets results) {
+
+        int tier = resolutions.length - 1;
+        while (tier >= 0 && (resolutions[tier] > step || step % resolutions[tier] != 0)) {
+            tier--;
+        }
+
+        if(tier < 0)
+            return false;
+
+        try (Cursor cursor = stores[tier].openCursor(txn)) {
+            if(null == cursor.getSearchKeyRange(Keys.key(series.getId(), from)))
+                return true;
+
+            do {
+                ByteIterable key = cursor.getKey();
+                if(Keys.seriesId(key) != series.getId())
+                    break;
+
+                long start = Keys.timestamp(key);
+                if(start > to)
+                    break;
+
+                long[] record = decode(cursor.getValue());
+                results.merge(bucket(start, step), record[0], record[1], record[2], record[3]);
+            }
+            while (cursor.getNext());
+        }
+
+        return true;
+    }
+
+    /**
+     * Aggregates <code>[from, to]</code> from the buckets of the tiers that are fully covered by the range, coarsest first.
+     * The remainders at the edges that aren't covered by any bucket are read from the raw data.
+     */
+    void aggregate(Transaction txn, Series series, long from, long to, Aggregate result, RawScan raw) {
+        aggregate(txn, series, from, to, resolutions.length - 1, result, raw);
+    }
+
+    private void aggregate(Transaction txn, Series series, long from, long to, int tier, Aggregate result, RawScan raw) {
+        if(from > to)
+            return;
+
+        if(tier < 0)
+        {
+            raw.scan(from, to);
+            return;
+        }
+
+        long resolution = resolutions[tier];
+
+        // the first and last bucket that are entirely within the range
+        long first = bucket(from, resolution);
+        if(first < from)
+            first = first > Long.MAX_VALUE - resolution ? Long.MAX_VALUE : first + resolution;
+
+        long last = bucket(to, resolution);
+        boolean partial = to - last < resolution - 1;
+        if(partial && last < Long.MIN_VALUE + resolution)
+            first = Long.MAX_VALUE;
+        else if(partial)
+            last -= resolution;
+
+        if(first > last)
+        {
+            aggregate(txn, series, from, to, tier - 1, result, raw);
+            return;
+        }
+
+        if(from < first)
+            aggregate(txn, series, from, first - 1, tier - 1, result, raw);
+
+        try (Cursor cursor = stores[tier].openCursor(txn)) {
+            if(cursor.getSearchKeyRange(Keys.key(series.getId(), first)) != null)
+            {
+                do {
+                    ByteIterable key = cursor.getKey();
+                    if(Keys.seriesId(key) != series.getId() || Keys.timestamp(key) > last)
+                        break;
+
+                    long[] record = decode(cursor.getValue());
+                    result.merge(record[0], record[1], record[2], record[3], record[4], record[5]);
+                }
+                while (cursor.getNext());
+            }
+        }
+
+        if(to - last > resolution - 1)
+            aggregate(txn, series, last + resolution, to, tier - 1, result, raw);
+    }
+
+    /**
+     * Reads <code>[from, to]</code> from the raw data.
+     */
+    @FunctionalInterface
+    interface RawScan {
+        void scan(long from, long to);
+    }
+
+    /**
+     * Reads the raw measurements of a series within <code>[from, to]</code>, including the late ones.
+     */
+    @FunctionalInterface
+    interface RawRead {
+        void read(Series series, long from, long to, MeasurementVisitor visitor);
+    }
+
+    /**
+     * Records written before the last value has been tracked only carry <code>(min, max, sum, count)</code>.
+     */
+    private static long[] decode(ByteIterable value) {
+        byte[] bytes = value.getBytesUnsafe();
+        long[] record = {0, 0, 0, 0, Long.MIN_VALUE, 0};
+        int fields = Math.min(value.getLength(), RECORD_BYTES) / 8;
+        for (int i = 0; i < fields; i++) {
+            record[i] = Keys.readLong(bytes, i * 8);
+        }
+        return record;
+    }
+
+    /**
+     * @return the start of the bucket that contains the timestamp, {@link Long#MIN_VALUE} if it can't be represented
+     */
+    static long bucket(long timestamp, long resolution) {
+        long start = Math.floorDiv(timestamp, resolution) * resolution;
+        return start > timestamp ? Long.MIN_VALUE : start;
+    }
+
+    private static void merge(long[] aggregate, long min, long max, long sum, long count, long lastTimestamp, long last) {
+        aggregate[0] = Math.min(aggregate[0], min);
+        aggregate[1] = Math.max(aggregate[1], max);
+        aggregate[2] += sum;
+        aggregate[3] += count;
+        if(lastTimestamp >= aggregate[4])
+        {
+            aggregate[4] = lastTimestamp;
+            aggregate[5] = last;
+        }
+    }
+
+    private static final class BucketKey {
+        final int seriesId;
+        final long start;
+
+        BucketKey(int seriesId, long start) {
+            this.seriesId = seriesId;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BucketKey)) return false;
+            BucketKey other = (BucketKey) o;
+            return seriesId == other.seriesId && start == other.start;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * seriesId + Long.hashCode(start);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only file of measurements ordered by time, accessed through a memory mapping.
+ * <p>
+ * Layout: <code>[count:int32][summary count:int32][min:int64][max:int64][sum:int64]</code>,
+ * followed by <code>[timestamp:int64][value:int64]</code> records.
+ * The file is allocated with its full capacity. The count is updated after a record has been written,
+ * a record that has been written only partially is never visible. The summary is updated last,
+ * it is recomputed when a segment is opened and the summary count doesn't match.
+ * The summary doesn't know the type of the values: it isn't used for double values (see {@link SegmentLayout#aggregate}).
+ * <p>
+ * A sparse index holds the timestamp of every {@link #INDEX_INTERVAL}th record, so that a range
+ * can be located by a binary search over the index followed by a short scan.
+ * The index is rebuilt when a segment is opened.
+ * <p>
+ * Appends need to be serialized, reads can happen concurrently.
+ */
+final class Segment {
+
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 16;
+    static final int INDEX_INTERVAL = 128;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long[] index;
+
+    // published after each append, readers don't see records beyond the summary's count
+    private volatile Summary summary = new Summary(0, Long.MAX_VALUE, Long.MIN_VALUE, 0);
+
+    private Segment(File file, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.index = new long[(capacity + INDEX_INTERVAL - 1) / INDEX_INTERVAL];
+    }
+
+    static Segment create(File file, int capacity) {
+        return open(file, HEADER_BYTES + (long) capacity * RECORD_BYTES);
+    }
+
+    static Segment open(File file) {
+        return open(file, file.length());
+    }
+
+    private static Segment open(File file, long size) {
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            Segment segment = new Segment(file, channel, buffer, (int) ((size - HEADER_BYTES) / RECORD_BYTES));
+
+            int count = buffer.getInt(0);
+            for (int i = 0; i < count; i += INDEX_INTERVAL) {
+                segment.index[i / INDEX_INTERVAL] = segment.timestamp(i);
+            }
+
+            if(count > 0 && buffer.getInt(4) == count)
+            {
+                segment.summary = new Summary(count, buffer.getLong(8), buffer.getLong(16), buffer.getLong(24));
+            }
+            else
+            {
+                Summary summary = segment.summary;
+                for (int i = 0; i < count; i++) {
+                    summary = summary.add(segment.value(i));
+                }
+                segment.summary = summary;
+            }
+
+            return segment;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open segment "+file, e);
+        }
+    }
+
+    /**
+     * @return true if the measurement can be appended without violating the order or capacity
+     */
+    boolean accepts(long timestamp) {
+        int n = summary.count;
+        return n < capacity && (n == 0 || timestamp >= timestamp(n - 1));
+    }
+
+    void append(long timestamp, long value) {
+        if(!accepts(timestamp))
+            throw new IllegalArgumentException("Segment "+file.getName()+" doesn't accept "+timestamp);
+
+        Summary next = summary.add(value);
+        int n = next.count - 1;
+
+        int offset = HEADER_BYTES + n * RECORD_BYTES;
+        buffer.putLong(offset, timestamp);
+        buffer.putLong(offset + 8, value);
+
+        if(n % INDEX_INTERVAL == 0)
+            index[n / INDEX_INTERVAL] = timestamp;
+
+        buffer.putInt(0, next.count);
+        buffer.putLong(8, next.min);
+        buffer.putLong(16, next.max);
+        buffer.putLong(24, next.sum);
+        buffer.putInt(4, next.count);
+
+        summary = next;
+    }
+
+    int getCount() {
+        return summary.count;
+    }
+
+    long getStart() {
+        return timestamp(0);
+    }
+
+    long getEnd() {
+        return timestamp(summary.count - 1);
+    }
+
+    private long timestamp(int i) {
+        return buffer.getLong(HEADER_BYTES + i * RECORD_BYTES);
+    }
+
+    private long value(int i) {
+        return buffer.getLong(HEADER_BYTES + i * RECORD_BYTES + 8);
+    }
+
+    void read(long from, long to, MeasurementVisitor visitor) {
+        read(summary.count, from, to, visitor);
+    }
+
+    private void read(int n, long from, long to, MeasurementVisitor visitor) {
+        if(n == 0 || timestamp(0) > to || timestamp(n - 1) < from)
+            return;
+
+        // the last indexed record before 'from'
+        int low = 0;
+        int high = (n - 1) / INDEX_INTERVAL;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(index[mid] < from)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        for (int i = low * INDEX_INTERVAL; i < n; i++) {
+            int offset = HEADER_BYTES + i * RECORD_BYTES;
+            long timestamp = buffer.getLong(offset);
+            if(timestamp > to)
+                break;
+
+            if(timestamp >= from)
+                visitor.visit(timestamp, buffer.getLong(offset + 8));
+        }
+    }
+
+    /**
+     * Uses the summary if the segment is entirely within <code>[from, to]</code>, reads the records otherwise.
+     */
+    void aggregate(long from, long to, Aggregate result) {
+        Summary current = summary;
+        int n = current.count;
+        if(n == 0)
+            return;
+
+        long end = timestamp(n - 1);
+        if(timestamp(0) >= from && end <= to)
+            result.merge(current.min, current.max, current.sum, n, end, value(n - 1));
+        else
+            read(n, from, to, result::add);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the appended records and the header to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close segment "+file, e);
+        }
+    }
+
+    private static final class Summary {
+        final int count;
+        final long min;
+        final long max;
+        final long sum;
+
+        Summary(int count, long min, long max, long sum) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+        }
+
+        Summary add(long value) {
+            return new Summary(count + 1, Math.min(min, value), Math.max(max, value), sum + value);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.entitystore.PersistentStoreTransaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the measurements outside of the entity store, in append-only segment files per series (see {@link Segment}).
+ * The catalog and the rollups remain in the entity store.
+ * <p>
+ * Files are located at <code>segments/&lt;seriesId&gt;/&lt;sequence&gt;.seg</code> within the data directory.
+ * A new segment is started once the current one is full, or when a measurement arrives out of order.
+ * Segments may therefore overlap in time, but the measurements within a segment are ordered.
+ * <p>
+ * Measurements are appended once the transaction that carries the rollups has been committed.
+ * Expired segments are deleted as a whole.
+ * <p>
+ * Appends go to the memory mapping, they survive a crash of the process once they have been made.
+ * With durable writes (see {@link MetricStorageConfig#setDurableWrites(boolean)}) the appended segments are forced
+ * to disk before the write returns, otherwise on {@link #sync()} (i.e. each flush of the storage) and when closed.
+ * A crash between the commit and the append (or, without durable writes, an operating system crash before
+ * the segments have been forced) loses those measurements, while the rollups of the transaction keep them.
+ */
+class SegmentLayout implements StorageLayout {
+
+    static final String DIRECTORY = "segments";
+    static final String SUFFIX = ".seg";
+
+    private final File directory;
+    private final int capacity;
+    private final boolean durable;
+
+    // committed state: segments by series id, in the order of creation
+    private final Map<Integer, List<Segment>> segments = new ConcurrentHashMap<>();
+
+    // uncommitted state of the current write transaction
+    private final Map<Integer, Measurements> pending = new LinkedHashMap<>();
+    private final List<Segment> expired = new ArrayList<>();
+
+    // appended to since they have been forced
+    private final Set<Segment> dirty = ConcurrentHashMap.newKeySet();
+
+    SegmentLayout(File dataDir, int capacity, boolean durable) {
+        this.directory = new File(dataDir, DIRECTORY);
+        this.capacity = capacity;
+        this.durable = durable;
+
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalStateException("Failed to create "+directory);
+
+        File[] seriesDirs = directory.listFiles(File::isDirectory);
+        for (File seriesDir : seriesDirs) {
+            File[] files = seriesDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+            Arrays.sort(files, (a, b) -> Long.compare(sequence(a), sequence(b)));
+
+            List<Segment> list = new CopyOnWriteArrayList<>();
+            for (File file : files) {
+                list.add(Segment.open(file));
+            }
+            segments.put(Integer.parseInt(seriesDir.getName()), list);
+        }
+    }
+
+    private static long sequence(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    @Override
+    public void begin() {
+        pending.clear();
+        expired.clear();
+    }
+
+    @Override
+    public void write(PersistentStoreTransaction txn, Series series, long timestamp, long value) {
+        Measurements buffer = pending.get(series.getId());
+        if(null == buffer)
+        {
+            buffer = new Measurements();
+            pending.put(series.getId(), buffer);
+        }
+        buffer.add(timestamp, value);
+    }
+
+    @Override
+    public void committed() {
+        pending.forEach(this::append);
+        if(durable)
+            sync();
+
+        for (List<Segment> list : segments.values()) {
+            list.removeAll(expired);
+        }
+
+        for (Segment segment : expired) {
+            dirty.remove(segment);
+            segment.close();
+            if(!segment.getFile().delete())
+                throw new IllegalStateException("Failed to delete "+segment.getFile());
+        }
+
+        pending.clear();
+        expired.clear();
+    }
+
+    private void append(Integer seriesId, Measurements buffer) {
+        List<Segment> list = segments.get(seriesId);
+        if(null == list)
+        {
+            list = new CopyOnWriteArrayList<>();
+            segments.put(seriesId, list);
+        }
+
+        Segment current = list.isEmpty() ? null : list.get(list.size() - 1);
+
+        long[] timestamps = buffer.getTimestamps();
+        long[] values = buffer.getValues();
+        for (int i = 0; i < buffer.size(); i++) {
+            if(null == current || !current.accepts(timestamps[i]))
+            {
+                current = create(seriesId, current);
+                list.add(current);
+            }
+            current.append(timestamps[i], values[i]);
+            dirty.add(current);
+        }
+    }
+
+    /**
+     * Segments that are appended to concurrently are marked dirty again.
+     */
+    @Override
+    public void sync() {
+        Iterator<Segment> it = dirty.iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            it.remove();
+            segment.force();
+        }
+    }
+
+    private Segment create(Integer seriesId, Segment previous) {
+        File seriesDir = new File(directory, String.valueOf(seriesId));
+        if(!seriesDir.isDirectory() && !seriesDir.mkdirs())
+            throw new IllegalStateException("Failed to create "+seriesDir);
+
+        long sequence = previous == null ? 0 : sequence(previous.getFile()) + 1;
+        return Segment.create(new File(seriesDir, sequence + SUFFIX), capacity);
+    }
+
+    @Override
+    public void read(PersistentStoreTransaction txn, Series series, long from, long to, MeasurementVisitor visitor) {
+        List<Segment> list = segments.get(series.getId());
+        if(list != null)
+        {
+            for (Segment segment : list) {
+                segment.read(from, to, visitor);
+            }
+        }
+    }
+
+    /**
+     * The summaries of the segments are only used for long values.
+     */
+    @Override
+    public void aggregate(PersistentStoreTransaction txn, Series series, long from, long to, Aggregate result) {
+        if(series.getType() == MetricStorage.ValueType.DOUBLE)
+        {
+            read(txn, series, from, to, result::add);
+            return;
+        }
+
+        List<Segment> list = segments.get(series.getId());
+        if(list != null)
+        {
+            for (Segment segment : list) {
+                segment.aggregate(from, to, result);
+            }
+        }
+    }
+
+    @Override
+    public long getFirstTimestamp(PersistentStoreTransaction txn, Series series) {
+        List<Segment> list = segments.get(series.getId());
+        if(list != null)
+        {
+            for (Segment segment : list) {
+                if(segment.getCount() > 0)
+                    return segment.getStart();
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long getLastTimestamp(PersistentStoreTransaction txn, Series series) {
+        List<Segment> list = segments.get(series.getId());
+        if(list != null)
+        {
+            for (int i = list.size() - 1; i >= 0; i--) {
+                if(list.get(i).getCount() > 0)
+                    return list.get(i).getEnd();
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Segments are read without a transaction: the range is divided evenly between the first and last measurement,
+     * each part is read from all segments of the series.
+     */
+    @Override
+    public void read(PersistentStoreTransaction txn, Series series, long from, long to, ForkJoinPool pool, Measurements results) {
+        List<Segment> list = segments.get(series.getId());
+        if(null == list)
+            return;
+
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (Segment segment : list) {
+            if(segment.getCount() > 0)
+            {
+                start = Math.min(start, segment.getStart());
+                end = Math.max(end, segment.getEnd());
+            }
+        }
+
+        start = Math.max(from, start);
+        end = Math.min(to, end);
+        if(start > end)
+            return;
+
+        int parts = pool.getParallelism() * ParallelScan.PARTS_PER_THREAD;
+        long step = Math.max(1, (end - start) / parts + 1);
+        int numParts = (int) ((end - start) / step) + 1;
+
+        long first = start;
+        long last = end;
+        ParallelScan.invoke(pool, numParts, i -> {
+            long partStart = first + step * i;
+            long partEnd = i == numParts - 1 ? last : partStart + step - 1;
+
+            Measurements part = new Measurements();
+            for (Segment segment : list) {
+                segment.read(partStart, partEnd, part::add);
+            }
+            return part;
+        }, results);
+    }
+
+    /**
+     * Segments are read without a transaction, each part reads the segments of a series.
+     */
+    @Override
+    public List<Supplier<Measurements>> readAll(PersistentStoreTransaction txn, List<Series> series, long from, long to) {
+        List<Supplier<Measurements>> parts = new ArrayList<>(series.size());
+        for (Series s : series) {
+            List<Segment> list = segments.get(s.getId());
+            parts.add(() -> {
+                Measurements points = new Measurements();
+                if(list != null)
+                {
+                    for (Segment segment : list) {
+                        segment.read(from, to, points::add);
+                    }
+                }
+                return points;
+            });
+        }
+        return parts;
+    }
+
+    /**
+     * Only segments that are entirely older than <code>before</code> are removed.
+     * The most recent segment of a series is kept open.
+     */
+    @Override
+    public int expire(PersistentStoreTransaction txn, long before) {
+        for (List<Segment> list : segments.values()) {
+            for (int i = 0; i < list.size() - 1; i++) {
+                Segment segment = list.get(i);
+                if(segment.getEnd() < before && !expired.contains(segment))
+                    expired.add(segment);
+            }
+        }
+        return expired.size();
+    }
+
+    @Override
+    public void close() {
+        for (List<Segment> list : segments.values()) {
+            list.forEach(Segment::close);
+        }
+    }
+}
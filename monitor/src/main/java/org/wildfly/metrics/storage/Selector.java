@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects series by their {@link Labels}: all matchers need to apply.
+ *
+ * <pre>
+ *     Selector selector = Selector.parse("attribute=heap-memory-usage, host=*");
+ *     Set&lt;String&gt; metricNames = storage.select(selector);
+ * </pre>
+ *
+ * A value of <code>*</code> matches any series that carries the label.
+ * An empty selector matches all series.
+ *
+ * @see MetricStorage#select(Selector)
+ */
+public final class Selector {
+
+    public static final String ANY = "*";
+
+    private final List<Matcher> matchers = new ArrayList<>();
+
+    /**
+     * @param selector comma separated <code>name=value</code> pairs
+     */
+    public static Selector parse(String selector) {
+        Selector result = new Selector();
+        for (String token : selector.split(",")) {
+            token = token.trim();
+            if(token.isEmpty())
+                continue;
+
+            int eq = token.indexOf('=');
+            if(eq <= 0 || eq == token.length() - 1)
+                throw new IllegalArgumentException("Malformed matcher: "+token);
+
+            result.matchers.add(new Matcher(token.substring(0, eq).trim(), token.substring(eq + 1).trim()));
+        }
+        return result;
+    }
+
+    /**
+     * Matches series whose label has the given value.
+     */
+    public Selector eq(String name, String value) {
+        if(null == value || value.isEmpty())
+            throw new IllegalArgumentException("Invalid value for "+name+": "+value);
+        matchers.add(new Matcher(name, value));
+        return this;
+    }
+
+    /**
+     * Matches series that carry the label, regardless of its value.
+     */
+    public Selector any(String name) {
+        matchers.add(new Matcher(name, ANY));
+        return this;
+    }
+
+    List<Matcher> getMatchers() {
+        return Collections.unmodifiableList(matchers);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Matcher matcher : matchers) {
+            if(sb.length() > 0)
+                sb.append(", ");
+            sb.append(matcher.name).append('=').append(matcher.value);
+        }
+        return sb.toString();
+    }
+
+    static final class Matcher {
+        final String name;
+        final String value;
+
+        Matcher(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        boolean isAny() {
+            return ANY.equals(value);
+        }
+    }
+}
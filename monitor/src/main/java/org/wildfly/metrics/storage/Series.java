@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.entitystore.EntityId;
+
+/**
+ * A registered metric.
+ */
+final class Series {
+
+    private final int id;
+    private final String name;
+    private final EntityId entityId;
+    private final Labels labels;
+    private final MetricStorage.ValueType type;
+
+    Series(int id, String name, EntityId entityId) {
+        this(id, name, entityId, Labels.EMPTY);
+    }
+
+    Series(int id, String name, EntityId entityId, Labels labels) {
+        this(id, name, entityId, labels, MetricStorage.ValueType.LONG);
+    }
+
+    Series(int id, String name, EntityId entityId, Labels labels, MetricStorage.ValueType type) {
+        this.id = id;
+        this.name = name;
+        this.entityId = entityId;
+        this.labels = labels;
+        this.type = type;
+    }
+
+    /**
+     * @return a stable, dense numeric id
+     */
+    int getId() {
+        return id;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the id of the metric key entity
+     */
+    EntityId getEntityId() {
+        return entityId;
+    }
+
+    Labels getLabels() {
+        return labels;
+    }
+
+    /**
+     * @return the type of the values, the layouts store both as 64 bits
+     */
+    MetricStorage.ValueType getType() {
+        return type;
+    }
+
+    /**
+     * Instances are replaced in the catalog when labels are assigned, they are equal if the ids are.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Series)) return false;
+        return id == ((Series) o).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "Series{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", labels=" + labels +
+                ", type=" + type +
+                '}';
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory index of all registered metrics, by name and by id.
+ * It's populated once when the storage is opened and kept in sync by {@link MetricStorage#registerMetric(String)}.
+ * Lookups don't touch the store and don't lock. Series can be selected by their labels through a {@link LabelIndex}.
+ */
+class SeriesCatalog {
+
+    private final ConcurrentMap<String, Series> byName = new ConcurrentHashMap<>();
+    // the elements are published individually, a larger array replaces the field once it's populated
+    private volatile AtomicReferenceArray<Series> byId = new AtomicReferenceArray<>(64);
+    private int nextId = 0;
+    private final LabelIndex labels = new LabelIndex();
+
+    Series get(String name) {
+        return byName.get(name);
+    }
+
+    Series get(int id) {
+        AtomicReferenceArray<Series> series = byId;
+        return id >= 0 && id < series.length() ? series.get(id) : null;
+    }
+
+    boolean contains(String name) {
+        return byName.containsKey(name);
+    }
+
+    /**
+     * @return a read-only view of the registered names
+     */
+    Set<String> getNames() {
+        return Collections.unmodifiableSet(byName.keySet());
+    }
+
+    /**
+     * @return the matching series, ordered by id
+     */
+    List<Series> select(Selector selector) {
+        int[] ids = labels.select(selector);
+        List<Series> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(get(id));
+        }
+        return result;
+    }
+
+    int size() {
+        return byName.size();
+    }
+
+    /**
+     * @return the id to be used for the next series that's registered
+     */
+    synchronized int nextId() {
+        return nextId;
+    }
+
+    /**
+     * Adds a series, or replaces the series of the same id. Labels can be added, but not removed.
+     */
+    synchronized void add(Series series) {
+        AtomicReferenceArray<Series> ids = byId;
+        if(series.getId() >= ids.length())
+        {
+            AtomicReferenceArray<Series> grown = new AtomicReferenceArray<>(Math.max(series.getId() + 1, ids.length() * 2));
+            for (int i = 0; i < ids.length(); i++) {
+                grown.set(i, ids.get(i));
+            }
+            grown.set(series.getId(), series);
+            byId = grown;
+        }
+        else
+        {
+            ids.set(series.getId(), series);
+        }
+
+        byName.put(series.getName(), series);
+        labels.add(series.getId(), series.getLabels());
+        nextId = Math.max(nextId, series.getId() + 1);
+    }
+}
@@ -0,0 +1,666 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Distributes the metrics across several independent {@link MetricStorage}s (shards), each with it's own
+ * Xodus environment and writer. Writes to different shards don't contend, i.e. to scale the ingest rate
+ * over cores and disks.
+ * <p>
+ * A metric is assigned to a shard by the hash of it's name. Operations on a single metric are routed to it's shard,
+ * operations that span several metrics are scattered across the shards and their results are gathered.
+ * The number of shards can't be changed once a storage has been created.
+ * <p>
+ * Series ids are assigned by each shard, the ids handed out by this class combine them with the index
+ * of the shard (<code>localId * shards + shard</code>), they remain compact and stable.
+ * <p>
+ * Provides the same operations as a single storage (see {@link MetricStore}), callers can use either.
+ */
+public class ShardedMetricStorage implements MetricStore {
+
+    static final String SHARD_FILE = "shard";
+
+    private final MetricStorage[] shards;
+
+    // writes to all but one shard of a batch, null if there is a single shard
+    private final ExecutorService writers;
+
+    /**
+     * Creates the shards within sub directories of <code>dataDir</code>.
+     */
+    public ShardedMetricStorage(String dataDir, int numShards, MetricStorageConfig config) {
+        this(shardDirs(dataDir, numShards), config);
+    }
+
+    /**
+     * @param shardDirs one directory per shard, i.e. on different disks
+     * @param config applies to all shards
+     */
+    public ShardedMetricStorage(List<String> shardDirs, MetricStorageConfig config) {
+        if(shardDirs.isEmpty())
+            throw new IllegalArgumentException("At least one shard is required");
+
+        this.shards = new MetricStorage[shardDirs.size()];
+        for (int i = 0; i < shards.length; i++) {
+            checkShard(new File(shardDirs.get(i)), i, shards.length);
+        }
+
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new MetricStorage(shardDirs.get(i), config);
+            }
+        } catch (RuntimeException e) {
+            for (MetricStorage shard : shards) {
+                if(shard != null)
+                    shard.stop();
+            }
+            throw e;
+        }
+
+        if(shards.length > 1)
+        {
+            AtomicInteger count = new AtomicInteger();
+            this.writers = Executors.newFixedThreadPool(shards.length - 1, runnable -> {
+                Thread thread = new Thread(runnable, "metric-shard-writer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        else
+        {
+            this.writers = null;
+        }
+    }
+
+    private static List<String> shardDirs(String dataDir, int numShards) {
+        if(numShards <= 0)
+            throw new IllegalArgumentException("Invalid number of shards: "+numShards);
+
+        List<String> dirs = new ArrayList<>(numShards);
+        for (int i = 0; i < numShards; i++) {
+            dirs.add(dataDir + File.separator + "shard-" + i);
+        }
+        return dirs;
+    }
+
+    /**
+     * Records the position of a shard when it's created, the assignment of metrics depends on it.
+     */
+    private static void checkShard(File dir, int index, int numShards) {
+        String expected = index + "/" + numShards;
+        File file = new File(dir, SHARD_FILE);
+        try {
+            if(file.exists())
+            {
+                String existing = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+                if(!expected.equals(existing))
+                    throw new IllegalStateException("Shard "+dir+" has been created as "+existing+", but "+expected+" was requested");
+            }
+            else
+            {
+                if(!dir.isDirectory() && !dir.mkdirs())
+                    throw new IllegalStateException("Failed to create "+dir);
+                Files.write(file.toPath(), expected.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to access "+file, e);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the shard the metric is assigned to
+     */
+    public MetricStorage getShard(String metricName) {
+        return shards[shardIndex(metricName)];
+    }
+
+    @Override
+    public Set<String> getMetricNames() {
+        Set<String> names = new HashSet<>();
+        for (MetricStorage shard : shards) {
+            names.addAll(shard.getMetricNames());
+        }
+        return names;
+    }
+
+    @Override
+    public void registerMetric(String metricName) {
+        getShard(metricName).registerMetric(metricName);
+    }
+
+    @Override
+    public void registerMetric(String metricName, MetricStorage.ValueType type) {
+        getShard(metricName).registerMetric(metricName, type);
+    }
+
+    @Override
+    public boolean registerIfAbsent(String metricName) {
+        return getShard(metricName).registerIfAbsent(metricName);
+    }
+
+    @Override
+    public boolean registerIfAbsent(String metricName, MetricStorage.ValueType type) {
+        return getShard(metricName).registerIfAbsent(metricName, type);
+    }
+
+    /**
+     * @see MetricStorage#registerIfAbsent(String, Labels, MetricStorage.ValueType)
+     * @return a stable series id, unique across all shards
+     */
+    @Override
+    public int registerIfAbsent(String metricName, Labels labels, MetricStorage.ValueType type) {
+        int shard = shardIndex(metricName);
+        return globalId(shards[shard].registerIfAbsent(metricName, labels, type), shard);
+    }
+
+    @Override
+    public MetricStorage.ValueType getValueType(String metricName) {
+        return getShard(metricName).getValueType(metricName);
+    }
+
+    @Override
+    public MetricStorage.ValueType getValueType(int seriesId) {
+        return getShard(seriesId).getValueType(localId(seriesId));
+    }
+
+    @Override
+    public void registerIfAbsent(Collection<String> metricNames) {
+        Map<MetricStorage, List<String>> partitioned = new LinkedHashMap<>();
+        for (String metricName : metricNames) {
+            partitioned.computeIfAbsent(getShard(metricName), shard -> new ArrayList<>()).add(metricName);
+        }
+
+        scatter(partitioned.keySet(), shard -> {
+            shard.registerIfAbsent(partitioned.get(shard));
+            return null;
+        });
+    }
+
+    @Override
+    public void registerIfAbsent(Map<String, Labels> metrics) {
+        Map<MetricStorage, Map<String, Labels>> partitioned = new LinkedHashMap<>();
+        metrics.forEach((metricName, labels) ->
+                partitioned.computeIfAbsent(getShard(metricName), shard -> new LinkedHashMap<>()).put(metricName, labels)
+        );
+
+        scatter(partitioned.keySet(), shard -> {
+            shard.registerIfAbsent(partitioned.get(shard));
+            return null;
+        });
+    }
+
+    /**
+     * @see MetricStorage#getOrCreateSeries(String)
+     * @return a stable series id, unique across all shards
+     */
+    @Override
+    public int getOrCreateSeries(String metricName) {
+        int shard = shardIndex(metricName);
+        return globalId(shards[shard].getOrCreateSeries(metricName), shard);
+    }
+
+    /**
+     * @see MetricStorage#getOrCreateSeries(String, Labels)
+     * @return a stable series id, unique across all shards
+     */
+    @Override
+    public int getOrCreateSeries(String metricName, Labels labels) {
+        int shard = shardIndex(metricName);
+        return globalId(shards[shard].getOrCreateSeries(metricName, labels), shard);
+    }
+
+    /**
+     * @see MetricStorage#getOrCreateSeries(String, Labels, MetricStorage.ValueType)
+     * @return a stable series id, unique across all shards
+     */
+    @Override
+    public int getOrCreateSeries(String metricName, Labels labels, MetricStorage.ValueType type) {
+        int shard = shardIndex(metricName);
+        return globalId(shards[shard].getOrCreateSeries(metricName, labels, type), shard);
+    }
+
+    @Override
+    public String getMetricName(int seriesId) {
+        return getShard(seriesId).getMetricName(localId(seriesId));
+    }
+
+    private int shardIndex(String metricName) {
+        return Math.floorMod(metricName.hashCode(), shards.length);
+    }
+
+    private int globalId(int localId, int shard) {
+        return localId * shards.length + shard;
+    }
+
+    private int localId(int seriesId) {
+        return seriesId / shards.length;
+    }
+
+    private MetricStorage getShard(int seriesId) {
+        if(seriesId < 0)
+            throw new IllegalArgumentException("Unknown series: "+seriesId);
+        return shards[seriesId % shards.length];
+    }
+
+    @Override
+    public Labels getLabels(String metricName) {
+        return getShard(metricName).getLabels(metricName);
+    }
+
+    /**
+     * Resolves the selector on all shards.
+     */
+    @Override
+    public Set<String> select(Selector selector) {
+        Set<String> names = new HashSet<>();
+        for (MetricStorage shard : shards) {
+            names.addAll(shard.select(selector));
+        }
+        return names;
+    }
+
+    @Override
+    public void addMeasurement(String metricName, long timestamp, long value) {
+        getShard(metricName).addMeasurement(metricName, timestamp, value);
+    }
+
+    @Override
+    public void addMeasurement(String metricName, long timestamp, double value) {
+        getShard(metricName).addMeasurement(metricName, timestamp, value);
+    }
+
+    @Override
+    public void addMeasurement(int seriesId, long timestamp, long value) {
+        getShard(seriesId).addMeasurement(localId(seriesId), timestamp, value);
+    }
+
+    @Override
+    public void addMeasurement(int seriesId, long timestamp, double value) {
+        getShard(seriesId).addMeasurement(localId(seriesId), timestamp, value);
+    }
+
+    @Override
+    public void addMeasurements(String metricName, long[] timestamps, long[] values) {
+        getShard(metricName).addMeasurements(metricName, timestamps, values);
+    }
+
+    @Override
+    public void addMeasurements(String metricName, long[] timestamps, double[] values) {
+        getShard(metricName).addMeasurements(metricName, timestamps, values);
+    }
+
+    /**
+     * The batch is divided by shard, the shards are written concurrently.
+     * Each shard commits it's part in a single transaction, the batch as a whole isn't atomic.
+     */
+    @Override
+    public void addMeasurements(MeasurementBatch batch) {
+        Map<MetricStorage, MeasurementBatch> partitioned = partition(batch);
+
+        scatter(partitioned.keySet(), shard -> {
+            shard.addMeasurements(partitioned.get(shard));
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> addMeasurementAsync(String metricName, long timestamp, long value) {
+        return getShard(metricName).addMeasurementAsync(metricName, timestamp, value);
+    }
+
+    @Override
+    public CompletableFuture<Void> addMeasurementAsync(String metricName, long timestamp, double value) {
+        return getShard(metricName).addMeasurementAsync(metricName, timestamp, value);
+    }
+
+    @Override
+    public CompletableFuture<Void> addMeasurementAsync(int seriesId, long timestamp, long value) {
+        return getShard(seriesId).addMeasurementAsync(localId(seriesId), timestamp, value);
+    }
+
+    @Override
+    public CompletableFuture<Void> addMeasurementAsync(int seriesId, long timestamp, double value) {
+        return getShard(seriesId).addMeasurementAsync(localId(seriesId), timestamp, value);
+    }
+
+    /**
+     * Each shard commits its part of the batch on its own, the batch is not atomic across shards.
+     *
+     * @return completes once all parts have been committed
+     */
+    @Override
+    public CompletableFuture<Void> addMeasurementsAsync(MeasurementBatch batch) {
+        Map<MetricStorage, MeasurementBatch> partitioned = partition(batch);
+
+        List<CompletableFuture<Void>> parts = new ArrayList<>(partitioned.size());
+        partitioned.forEach((shard, part) -> parts.add(shard.addMeasurementsAsync(part)));
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private Map<MetricStorage, MeasurementBatch> partition(MeasurementBatch batch) {
+        Map<MetricStorage, MeasurementBatch> partitioned = new LinkedHashMap<>();
+        for (MetricStorage.ValueType type : MetricStorage.ValueType.values()) {
+            batch.forEach(type, (metricName, points) -> {
+                MeasurementBatch part = partitioned.computeIfAbsent(getShard(metricName), shard -> new MeasurementBatch());
+                for (int i = 0; i < points.size(); i++) {
+                    part.add(type, metricName, points.getTimestamp(i), points.getValue(i));
+                }
+            });
+            batch.forEachSeries(type, (points, seriesId) -> {
+                MeasurementBatch part = partitioned.computeIfAbsent(getShard(seriesId), shard -> new MeasurementBatch());
+                int localId = localId(seriesId);
+                for (int i = 0; i < points.size(); i++) {
+                    part.add(type, localId, points.getTimestamp(i), points.getValue(i));
+                }
+            });
+        }
+        return partitioned;
+    }
+
+    @Override
+    public List<Long[]> getMeasurements(String metricName, long from, long to) {
+        return getShard(metricName).getMeasurements(metricName, from, to);
+    }
+
+    @Override
+    public Measurements getMeasurements(String metricName, long from, long to, Measurements results) {
+        return getShard(metricName).getMeasurements(metricName, from, to, results);
+    }
+
+    @Override
+    public Measurements getMeasurements(String metricName, long from, long to, Measurements results, ForkJoinPool pool) {
+        return getShard(metricName).getMeasurements(metricName, from, to, results, pool);
+    }
+
+    @Override
+    public void visitMeasurements(String metricName, long from, long to, MeasurementVisitor visitor) {
+        getShard(metricName).visitMeasurements(metricName, from, to, visitor);
+    }
+
+    /**
+     * Each shard reads its metrics within a single read transaction, the shards are read concurrently.
+     * The result is ordered by shard.
+     *
+     * @see MetricStorage#getMeasurements(Collection, long, long)
+     */
+    @Override
+    public MultiSeriesResult getMeasurements(Collection<String> metricNames, long from, long to) {
+        return getMeasurements(metricNames, (shard, names) -> shard.getMeasurements(names, from, to));
+    }
+
+    /**
+     * @see MetricStorage#getMeasurements(Collection, long, long, ForkJoinPool)
+     */
+    @Override
+    public MultiSeriesResult getMeasurements(Collection<String> metricNames, long from, long to, ForkJoinPool pool) {
+        return getMeasurements(metricNames, (shard, names) -> shard.getMeasurements(names, from, to, pool));
+    }
+
+    private MultiSeriesResult getMeasurements(Collection<String> metricNames, BiFunction<MetricStorage, List<String>, MultiSeriesResult> query) {
+        Map<MetricStorage, List<String>> partitioned = new LinkedHashMap<>();
+        for (String metricName : metricNames) {
+            partitioned.computeIfAbsent(getShard(metricName), shard -> new ArrayList<>()).add(metricName);
+        }
+
+        return MultiSeriesResult.concat(scatter(partitioned.keySet(), shard -> query.apply(shard, partitioned.get(shard))));
+    }
+
+    /**
+     * Resolves the selector and reads the matching metrics on all shards.
+     *
+     * @see MetricStorage#getMeasurements(Selector, long, long)
+     */
+    @Override
+    public MultiSeriesResult getMeasurements(Selector selector, long from, long to) {
+        return MultiSeriesResult.concat(scatter(shardList(), shard -> shard.getMeasurements(selector, from, to)));
+    }
+
+    /**
+     * @see MetricStorage#getMeasurements(Selector, long, long, ForkJoinPool)
+     */
+    @Override
+    public MultiSeriesResult getMeasurements(Selector selector, long from, long to, ForkJoinPool pool) {
+        return MultiSeriesResult.concat(scatter(shardList(), shard -> shard.getMeasurements(selector, from, to, pool)));
+    }
+
+    @Override
+    public DoubleMeasurements getDoubleMeasurements(String metricName, long from, long to, DoubleMeasurements results) {
+        return getShard(metricName).getDoubleMeasurements(metricName, from, to, results);
+    }
+
+    @Override
+    public void visitDoubleMeasurements(String metricName, long from, long to, DoubleMeasurementVisitor visitor) {
+        getShard(metricName).visitDoubleMeasurements(metricName, from, to, visitor);
+    }
+
+    @Override
+    public Buckets getBuckets(String metricName, long from, long to, long step, Buckets results) {
+        return getShard(metricName).getBuckets(metricName, from, to, step, results);
+    }
+
+    @Override
+    public Aggregate getAggregate(String metricName, long from, long to) {
+        return getShard(metricName).getAggregate(metricName, from, to);
+    }
+
+    @Override
+    public Measurements getLast(String metricName, int n, Measurements results) {
+        return getShard(metricName).getLast(metricName, n, results);
+    }
+
+    @Override
+    public DoubleMeasurements getLastDouble(String metricName, int n, DoubleMeasurements results) {
+        return getShard(metricName).getLastDouble(metricName, n, results);
+    }
+
+    /**
+     * @return the counters of the read caches, summed across the shards
+     * @see MetricStorage#getCacheStatistics()
+     */
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return sum(MetricStorage::getCacheStatistics);
+    }
+
+    /**
+     * @return the counters of the recent measurements, summed across the shards. Null if they are disabled.
+     * @see MetricStorage#getRecentStatistics()
+     */
+    @Override
+    public CacheStatistics getRecentStatistics() {
+        return sum(MetricStorage::getRecentStatistics);
+    }
+
+    /**
+     * @return null if any of the shards doesn't provide the statistics
+     */
+    private CacheStatistics sum(Function<MetricStorage, CacheStatistics> statistics) {
+        long maxBytes = 0, bytes = 0, hits = 0, misses = 0, evictions = 0;
+        int entries = 0;
+        for (MetricStorage shard : shards) {
+            CacheStatistics stats = statistics.apply(shard);
+            if(null == stats)
+                return null;
+
+            maxBytes += stats.getMaxBytes();
+            bytes += stats.getBytes();
+            entries += stats.getEntries();
+            hits += stats.getHits();
+            misses += stats.getMisses();
+            evictions += stats.getEvictions();
+        }
+        return new CacheStatistics(maxBytes, bytes, entries, hits, misses, evictions);
+    }
+
+    /**
+     * @see MetricStorage#flush()
+     */
+    @Override
+    public void flush() {
+        scatter(shardList(), shard -> {
+            shard.flush();
+            return null;
+        });
+    }
+
+    /**
+     * Compacts the shards in parallel.
+     * @see MetricStorage#compact()
+     */
+    @Override
+    public void compact() {
+        scatter(shardList(), shard -> {
+            shard.compact();
+            return null;
+        });
+    }
+
+    /**
+     * @return the counters of the compaction, summed across the shards. Null if the layout doesn't support compaction.
+     * @see MetricStorage#getCompactionStatistics()
+     */
+    @Override
+    public CompactionStatistics getCompactionStatistics() {
+        long passes = 0, chunksRead = 0, chunksWritten = 0, bytesRead = 0, bytesWritten = 0, timeSpent = 0, timeThrottled = 0;
+        for (MetricStorage shard : shards) {
+            CompactionStatistics stats = shard.getCompactionStatistics();
+            if(null == stats)
+                return null;
+
+            passes += stats.getPasses();
+            chunksRead += stats.getChunksRead();
+            chunksWritten += stats.getChunksWritten();
+            bytesRead += stats.getBytesRead();
+            bytesWritten += stats.getBytesWritten();
+            timeSpent += stats.getTimeSpent();
+            timeThrottled += stats.getTimeThrottled();
+        }
+        return new CompactionStatistics(passes, chunksRead, chunksWritten, bytesRead, bytesWritten, timeSpent, timeThrottled);
+    }
+
+    /**
+     * @see MetricStorage#expire(long)
+     * @return the number of partitions that have been dropped across all shards
+     */
+    @Override
+    public int expire(long before) {
+        int dropped = 0;
+        for (Integer count : scatter(shardList(), shard -> shard.expire(before))) {
+            dropped += count;
+        }
+        return dropped;
+    }
+
+    /**
+     * @see MetricStorage#enforceRetention()
+     */
+    @Override
+    public int enforceRetention() {
+        int dropped = 0;
+        for (Integer count : scatter(shardList(), MetricStorage::enforceRetention)) {
+            dropped += count;
+        }
+        return dropped;
+    }
+
+    @Override
+    public void stop() {
+        if(writers != null)
+            writers.shutdown();
+
+        RuntimeException failure = null;
+        for (MetricStorage shard : shards) {
+            try {
+                shard.stop();
+            } catch (RuntimeException e) {
+                if(null == failure)
+                    failure = e;
+            }
+        }
+
+        if(failure != null)
+            throw failure;
+    }
+
+    private List<MetricStorage> shardList() {
+        return Arrays.asList(shards);
+    }
+
+    /**
+     * Applies the operation to the shards concurrently, the first one is handled by the calling thread.
+     *
+     * @return the results in the order of the shards
+     */
+    private <T> List<T> scatter(Collection<MetricStorage> targets, Function<MetricStorage, T> operation) {
+        List<MetricStorage> list = new ArrayList<>(targets);
+        List<T> results = new ArrayList<>(list.size());
+        if(list.isEmpty())
+            return results;
+
+        List<Future<T>> futures = new ArrayList<>(list.size() - 1);
+        for (int i = 1; i < list.size(); i++) {
+            MetricStorage shard = list.get(i);
+            futures.add(writers.submit(() -> operation.apply(shard)));
+        }
+
+        results.add(operation.apply(list.get(0)));
+
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for shard", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new RuntimeException(cause);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.entitystore.PersistentStoreTransaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * The physical representation of measurements, within the entity store or next to it.
+ * <p>
+ * Writes are serialized by {@link WritePipeline}. A layout may keep state across the writes of a transaction,
+ * but must not publish it before {@link #committed()}: Xodus re-executes a transaction in case of conflicts.
+ *
+ * @see MetricStorage.Layout
+ */
+interface StorageLayout {
+
+    /**
+     * Invoked once the metrics have been loaded when the storage is opened, within a write transaction.
+     * Layouts build the structures that didn't exist when the data has been written.
+     */
+    default void open(PersistentStoreTransaction txn, Collection<Series> series) {}
+
+    /**
+     * Invoked at the beginning of each (possibly repeated) write transaction.
+     */
+    default void begin() {}
+
+    void write(PersistentStoreTransaction txn, Series series, long timestamp, long value);
+
+    /**
+     * Invoked before the write transaction is flushed.
+     */
+    default void flush(PersistentStoreTransaction txn) {}
+
+    /**
+     * Invoked after the write transaction has been successfully flushed.
+     */
+    default void committed() {}
+
+    /**
+     * Passes the measurements within <code>[from, to]</code> to the visitor.
+     */
+    void read(PersistentStoreTransaction txn, Series series, long from, long to, MeasurementVisitor visitor);
+
+    /**
+     * Merges the measurements within <code>[from, to]</code> into the aggregate.
+     * Layouts that keep summaries of their units of storage use them for units that are entirely within the range.
+     */
+    default void aggregate(PersistentStoreTransaction txn, Series series, long from, long to, Aggregate result) {
+        read(txn, series, from, to, result::add);
+    }
+
+    /**
+     * @return the oldest timestamp of a series, {@link Long#MAX_VALUE} if there is none.
+     *         Doesn't depend on the rollups or summaries, which aren't kept for double values.
+     */
+    default long getFirstTimestamp(PersistentStoreTransaction txn, Series series) {
+        long[] first = {Long.MAX_VALUE};
+        read(txn, series, Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, value) -> first[0] = Math.min(first[0], timestamp));
+        return first[0];
+    }
+
+    /**
+     * @return the most recent timestamp of a series, {@link Long#MIN_VALUE} if there is none.
+     *         Doesn't depend on the rollups or summaries, which aren't kept for double values.
+     */
+    default long getLastTimestamp(PersistentStoreTransaction txn, Series series) {
+        long[] last = {Long.MIN_VALUE};
+        read(txn, series, Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, value) -> last[0] = Math.max(last[0], timestamp));
+        return last[0];
+    }
+
+    /**
+     * Adds the measurements within <code>[from, to]</code> to the results, using the pool for the work
+     * that doesn't depend on the transaction (Xodus transactions are bound to the thread that began them).
+     * Layouts that can't divide the work read sequentially.
+     */
+    default void read(PersistentStoreTransaction txn, Series series, long from, long to, ForkJoinPool pool, Measurements results) {
+        read(txn, series, from, to, results::add);
+    }
+
+    /**
+     * Reads the measurements of several series within <code>[from, to]</code>, within a single transaction.
+     * The returned parts provide the measurements of each series. They don't depend on the transaction
+     * and may be invoked concurrently: layouts that decode their data defer the decoding to the parts,
+     * the others read eagerly. Layouts may share index lookups between the series.
+     *
+     * @param series ordered by id
+     * @return the parts, matching the series by index
+     */
+    default List<Supplier<Measurements>> readAll(PersistentStoreTransaction txn, List<Series> series, long from, long to) {
+        List<Supplier<Measurements>> parts = new ArrayList<>(series.size());
+        for (Series s : series) {
+            Measurements points = new Measurements();
+            read(txn, s, from, to, points::add);
+            parts.add(() -> points);
+        }
+        return parts;
+    }
+
+    /**
+     * Removes measurements older than <code>before</code>. Layouts may retain measurements
+     * that share their unit of storage with newer ones.
+     *
+     * @return the number of units (i.e. partitions) removed
+     * @throws UnsupportedOperationException if the layout doesn't support expiration
+     */
+    default int expire(PersistentStoreTransaction txn, long before) {
+        throw new UnsupportedOperationException("Expiration is not supported by "+getClass().getSimpleName());
+    }
+
+    /**
+     * Writes late measurements (see {@link LateStore}) to the units of storage that cover their timestamps,
+     * within the current write transaction. They replace the measurements of the same timestamps.
+     * Layouts that can't insert measurements leave them, they remain in the {@link LateStore}.
+     *
+     * @param points ordered by time, not empty
+     * @return the measurements that have been written
+     */
+    default Measurements fold(PersistentStoreTransaction txn, Series series, Measurements points) {
+        return new Measurements(0);
+    }
+
+    /**
+     * Merges small adjacent units of storage of a series into larger ones, within the current write transaction.
+     * Stops once the units that have been merged exceed <code>maxBytes</code>, it's invoked repeatedly
+     * until there is nothing left to merge (see {@link ChunkCompactor}).
+     *
+     * @return the units that have been merged and written, empty if there's nothing to merge
+     * @throws UnsupportedOperationException if the layout doesn't support compaction
+     */
+    default ChunkCompactor.Merge compact(PersistentStoreTransaction txn, Series series, long maxBytes) {
+        throw new UnsupportedOperationException("Compaction is not supported by "+getClass().getSimpleName());
+    }
+
+    /**
+     * @return the statistics of the layout's read cache, empty if it doesn't have one
+     */
+    default CacheStatistics getCacheStatistics() {
+        return new CacheStatistics(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Completes the units of storage that are still appended to, within the last write transaction
+     * before the storage is stopped.
+     */
+    default void seal(PersistentStoreTransaction txn) {}
+
+    /**
+     * Forces the measurements that are held outside of the entity store to disk, see {@link MetricStorage#flush()}.
+     */
+    default void sync() {}
+
+    /**
+     * Releases resources held outside of the entity store.
+     */
+    default void close() {}
+}
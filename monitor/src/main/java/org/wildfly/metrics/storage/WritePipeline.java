@@ -0,0 +1,469 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.storage;
+
+import jetbrains.exodus.entitystore.PersistentEntityStoreImpl;
+import jetbrains.exodus.entitystore.PersistentStoreTransaction;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The path of the measurements into the storage: they are ordered by the reorder buffer, buffered by the head
+ * (if enabled) and written to the layout and the rollups. Late measurements are kept apart by the {@link LateStore},
+ * they replace the buckets of the rollups they fall into and are folded into the layout when the storage is flushed.
+ * <p>
+ * Measurements of a series are written in time order, writes are serialized by the write lock of the storage.
+ * The buffers can be read concurrently, see {@link #getReads()}.
+ */
+class WritePipeline {
+
+    private final PersistentEntityStoreImpl store;
+    private final StorageLayout measurements;
+    private final Rollups rollups;
+    private final LateStore late;
+    private final SeriesCatalog catalog;
+
+    // writes are serialized, the layouts keep per transaction state
+    private final Object writeLock;
+
+    // null if measurements are written through
+    private final HeadBlock head;
+
+    // measurements are ordered before they are written, late ones are kept apart
+    private final ReorderBuffer reorder;
+    // orders the release of measurements from the reorder buffer with their writes
+    private final Object ingestLock = new Object();
+
+    // null if the newest measurements aren't kept in memory
+    private final RecentPoints recentPoints;
+
+    private final MergedReads reads;
+
+    /**
+     * Populates the rollups that have been added since the storage has been created, and replays the log of the head.
+     *
+     * @param log the log of the head, see {@link HeadBlock#LOG_FILE}
+     */
+    WritePipeline(PersistentEntityStoreImpl store, StorageLayout measurements, Rollups rollups, LateStore late,
+                  SeriesCatalog catalog, RecentPoints recentPoints, Object writeLock, MetricStorageConfig config, File log) {
+        this.store = store;
+        this.measurements = measurements;
+        this.rollups = rollups;
+        this.late = late;
+        this.catalog = catalog;
+        this.recentPoints = recentPoints;
+        this.writeLock = writeLock;
+        this.reorder = new ReorderBuffer(config.getReorderWindow());
+
+        if(rollups.hasCreatedTiers() && catalog.size() > 0)
+            backfillRollups();
+
+        replay(log);
+
+        this.head = config.getHeadFlushInterval() > 0 ? new HeadBlock(log, config.getHeadMaxPoints(), config.isDurableWrites()) : null;
+        this.reads = new MergedReads(store, measurements, late, head, reorder, config.getReorderWindow());
+    }
+
+    /**
+     * @return reads the storage along with the measurements buffered by this pipeline
+     */
+    MergedReads getReads() {
+        return reads;
+    }
+
+    /**
+     * Populates the rollups that didn't exist before from the stored measurements.
+     */
+    private void backfillRollups() {
+        store.executeInTransaction(
+                txn -> {
+                    rollups.begin();
+                    for (String metricName : catalog.getNames()) {
+                        Series series = catalog.get(metricName);
+                        if(series.getType() != MetricStorage.ValueType.LONG)
+                            continue;
+                        readStored(
+                                (PersistentStoreTransaction) txn, series, Long.MIN_VALUE, Long.MAX_VALUE,
+                                (timestamp, value) -> rollups.backfill(series, timestamp, value)
+                        );
+                    }
+                    rollups.flush(((PersistentStoreTransaction) txn).getEnvironmentTransaction());
+                }
+        );
+    }
+
+    /**
+     * Persists the measurements that have been buffered, but not flushed before the storage was closed.
+     * <p>
+     * The head only receives measurements after the most recent one in the storage, and the log of a flush is deleted
+     * after it has been committed. Logged measurements at or before the end of the storage have therefore
+     * been flushed already, they are skipped so that a replay doesn't store them twice.
+     */
+    private void replay(File log) {
+        Map<Series, Measurements> logged = HeadBlock.replay(log, catalog);
+        if(!logged.isEmpty())
+        {
+            Map<Series, Measurements> unflushed = new LinkedHashMap<>();
+            logged.forEach((series, points) -> {
+                long end = getStoredEnd(series);
+                for (int i = 0; i < points.size(); i++) {
+                    if(points.getTimestamp(i) > end)
+                        unflushed.computeIfAbsent(series, s -> new Measurements()).add(points.getTimestamp(i), points.getValue(i));
+                }
+            });
+
+            if(!unflushed.isEmpty())
+                write(txn -> unflushed.forEach((series, points) -> append(txn, series, points)));
+        }
+
+        for (File file : new File[] {HeadBlock.flushingLog(log), log}) {
+            if(file.exists() && !file.delete())
+                throw new IllegalStateException("Failed to delete "+file);
+        }
+    }
+
+    /**
+     * Passes the measurements through the reorder buffer, and writes the ones that have been released along with the late ones.
+     * Measurements are released and written within the ingest lock, so that the layouts receive the measurements of a series in order.
+     * The reorder buffer itself is only locked while it is updated: readers don't wait for the writes.
+     */
+    void ingest(Map<Series, Measurements> points) {
+        synchronized (ingestLock) {
+            Map<Series, Measurements> released = new LinkedHashMap<>();
+            Map<Series, Measurements> latePoints = new LinkedHashMap<>();
+            long now = System.currentTimeMillis();
+
+            for (Series series : points.keySet()) {
+                boolean tracked;
+                synchronized (reorder) {
+                    tracked = reorder.isTracked(series);
+                }
+                if(!tracked)
+                {
+                    long end = reads.getLastTimestamp(series);
+                    synchronized (reorder) {
+                        reorder.track(series, end);
+                    }
+                    if(recentPoints != null)
+                        recentPoints.track(series, end);
+                }
+            }
+
+            synchronized (reorder) {
+                points.forEach((series, measurements) -> reorder.add(series, measurements, now, released, latePoints));
+            }
+
+            try {
+                store(released, latePoints);
+            } finally {
+                synchronized (reorder) {
+                    reorder.written(released.keySet());
+                }
+            }
+
+            // only once they have been accepted
+            if(recentPoints != null)
+                points.forEach(recentPoints::add);
+        }
+    }
+
+    /**
+     * @return the most recent timestamp of a series in the layout, {@link Long#MIN_VALUE} if there is none.
+     *         Doesn't depend on the rollups, which don't cover double values.
+     */
+    private long getStoredEnd(Series series) {
+        PersistentStoreTransaction txn = store.beginReadonlyTransaction();
+        try {
+            return measurements.getLastTimestamp(txn, series);
+        } finally {
+            txn.abort();
+        }
+    }
+
+    private void store(Map<Series, Measurements> released, Map<Series, Measurements> latePoints) {
+        if(head != null)
+        {
+            // the previous value of a late measurement may not have been flushed yet
+            Map<Series, Set<Long>> buffered = new HashMap<>();
+            synchronized (head) {
+                latePoints.forEach((series, points) -> {
+                    for (int i = 0; i < points.size(); i++) {
+                        if(head.contains(series, points.getTimestamp(i)))
+                            buffered.computeIfAbsent(series, s -> new HashSet<>()).add(points.getTimestamp(i));
+                    }
+                });
+            }
+
+            if(!latePoints.isEmpty())
+                write(txn -> appendLate(txn, latePoints, buffered));
+            if(!released.isEmpty())
+                appendToHead(released);
+            return;
+        }
+
+        if(released.isEmpty() && latePoints.isEmpty())
+            return;
+
+        // the rollups are rebuilt from the layout before the released measurements are written to it
+        write(txn -> {
+            appendLate(txn, latePoints, Collections.emptyMap());
+            released.forEach((series, points) -> append(txn, series, points));
+        });
+    }
+
+    /**
+     * Executes the work within a write transaction, along with the state of the layout, the rollups and the late measurements.
+     */
+    void write(Consumer<PersistentStoreTransaction> work) {
+        synchronized (writeLock) {
+            store.executeInTransaction(
+                    txn -> {
+                        measurements.begin();
+                        rollups.begin();
+                        late.begin();
+                        work.accept((PersistentStoreTransaction) txn);
+                        measurements.flush((PersistentStoreTransaction) txn);
+                        rollups.flush(((PersistentStoreTransaction) txn).getEnvironmentTransaction());
+                    }
+            );
+            measurements.committed();
+            late.committed();
+        }
+    }
+
+    /**
+     * The rollups aggregate long values, they don't receive double ones.
+     */
+    private void append(PersistentStoreTransaction txn, Series series, long timestamp, long value) {
+        measurements.write(txn, series, timestamp, value);
+        if(series.getType() == MetricStorage.ValueType.LONG)
+            rollups.write(series, timestamp, value);
+    }
+
+    private void append(PersistentStoreTransaction txn, Series series, Measurements points) {
+        for (int i = 0; i < points.size(); i++) {
+            append(txn, series, points.getTimestamp(i), points.getValue(i));
+        }
+    }
+
+    /**
+     * Late measurements that replace a previous value invalidate the buckets of the rollups that contain them,
+     * they are rebuilt from the layout and the late measurements. The measurements held by the head aren't part
+     * of the rebuilt buckets, they're added once the head is flushed (see {@link #appendFlushed}).
+     *
+     * @param buffered the timestamps of late measurements whose previous value is held by the head
+     */
+    private void appendLate(PersistentStoreTransaction txn, Map<Series, Measurements> latePoints, Map<Series, Set<Long>> buffered) {
+        latePoints.forEach((series, points) -> {
+            Set<Long> inHead = buffered.getOrDefault(series, Collections.emptySet());
+            for (int i = 0; i < points.size(); i++) {
+                long timestamp = points.getTimestamp(i);
+                long value = points.getValue(i);
+
+                boolean added = late.put(txn.getEnvironmentTransaction(), series, timestamp, value);
+                if(series.getType() != MetricStorage.ValueType.LONG)
+                    continue;
+
+                if(added && !inHead.contains(timestamp) && !exists(txn, series, timestamp))
+                    rollups.write(series, timestamp, value);
+                else
+                    rollups.invalidate(series, timestamp);
+            }
+        });
+
+        rollups.rebuild((series, from, to, visitor) -> readStored(txn, series, from, to, visitor));
+    }
+
+    /**
+     * Passes the measurements of the layout within <code>[from, to]</code> to the visitor, merged with the late ones.
+     */
+    private void readStored(PersistentStoreTransaction txn, Series series, long from, long to, MeasurementVisitor visitor) {
+        Measurements points = new Measurements();
+        late.read(txn.getEnvironmentTransaction(), series, from, to, points);
+        LateStore.Merge merge = new LateStore.Merge(points, visitor);
+        measurements.read(txn, series, from, to, merge);
+        merge.finish();
+    }
+
+    /**
+     * Measurements of the head that have been replaced by late ones are written to the layout,
+     * where they are replaced once the late ones are folded, but not to the rollups, which hold the late ones.
+     */
+    private void appendFlushed(PersistentStoreTransaction txn, Series series, Measurements points) {
+        Set<Long> replaced = new HashSet<>();
+        if(series.getType() == MetricStorage.ValueType.LONG && late.contains(series))
+        {
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (int i = 0; i < points.size(); i++) {
+                first = Math.min(first, points.getTimestamp(i));
+                last = Math.max(last, points.getTimestamp(i));
+            }
+
+            Measurements latePoints = new Measurements();
+            late.read(txn.getEnvironmentTransaction(), series, first, last, latePoints);
+            for (int i = 0; i < latePoints.size(); i++) {
+                replaced.add(latePoints.getTimestamp(i));
+            }
+        }
+
+        if(replaced.isEmpty())
+        {
+            append(txn, series, points);
+            return;
+        }
+
+        for (int i = 0; i < points.size(); i++) {
+            measurements.write(txn, series, points.getTimestamp(i), points.getValue(i));
+            if(!replaced.contains(points.getTimestamp(i)))
+                rollups.write(series, points.getTimestamp(i), points.getValue(i));
+        }
+    }
+
+    private boolean exists(PersistentStoreTransaction txn, Series series, long timestamp) {
+        boolean[] found = new boolean[1];
+        measurements.read(txn, series, timestamp, timestamp, (t, v) -> found[0] = true);
+        return found[0];
+    }
+
+    private void appendToHead(Map<Series, Measurements> points) {
+        boolean full;
+        synchronized (head) {
+            full = head.append(points);
+        }
+
+        if(full)
+            flushHead();
+    }
+
+    /**
+     * Writes the measurements buffered in memory, then folds the late ones into the layout.
+     *
+     * @param all false to only release the measurements of the series that haven't received new ones for the duration of the window
+     */
+    void flush(boolean all) {
+        synchronized (ingestLock) {
+            Map<Series, Measurements> released = new LinkedHashMap<>();
+            synchronized (reorder) {
+                if(all)
+                    reorder.releaseAll(released);
+                else
+                    reorder.releaseIdle(System.currentTimeMillis(), released);
+            }
+
+            try {
+                store(released, Collections.emptyMap());
+            } finally {
+                synchronized (reorder) {
+                    reorder.written(released.keySet());
+                }
+            }
+
+            flushHead();
+
+            // the head doesn't hold any of their timestamps anymore, which would replace them once it's flushed
+            foldLate();
+        }
+
+        measurements.sync();
+    }
+
+    /**
+     * Writes the late measurements to the layout, those that it takes are removed from the {@link LateStore}.
+     * The rollups already include them.
+     */
+    private void foldLate() {
+        Set<Integer> ids = late.getSeries();
+        if(ids.isEmpty())
+            return;
+
+        write(txn -> {
+            for (Integer id : ids) {
+                Series series = catalog.get(id);
+                Measurements points = new Measurements();
+                late.read(txn.getEnvironmentTransaction(), series, Long.MIN_VALUE, Long.MAX_VALUE, points);
+
+                // series whose late measurements have expired are removed as well
+                Measurements folded = points.isEmpty() ? points : measurements.fold(txn, series, points);
+                if(points.isEmpty() || !folded.isEmpty())
+                    late.remove(txn.getEnvironmentTransaction(), series, folded);
+            }
+        });
+    }
+
+    private void flushHead() {
+        if(null == head)
+            return;
+
+        // readers and late measurements only wait for the swap, the measurements are written outside of the lock
+        Map<Series, Measurements> flushing;
+        synchronized (head) {
+            if(head.isEmpty())
+                return;
+            flushing = head.beginFlush();
+        }
+
+        Map<Integer, Long> ends = new HashMap<>();
+        write(txn -> {
+            ends.clear();
+            flushing.forEach((series, points) -> {
+                if(points.isEmpty())
+                    return;
+
+                appendFlushed(txn, series, points);
+
+                long end = Long.MIN_VALUE;
+                for (int i = 0; i < points.size(); i++) {
+                    end = Math.max(end, points.getTimestamp(i));
+                }
+                ends.put(series.getId(), end);
+            });
+        });
+
+        // measurements from a previous run may be more recent
+        for (Series series : flushing.keySet()) {
+            boolean known;
+            synchronized (head) {
+                known = head.isPersistedEndKnown(series);
+            }
+            if(ends.containsKey(series.getId()) && !known)
+                ends.put(series.getId(), getStoredEnd(series));
+        }
+
+        synchronized (head) {
+            head.flushed(ends);
+        }
+    }
+
+    /**
+     * Closes the log of the head, invoked once it has been flushed.
+     */
+    void close() {
+        if(head != null)
+            head.close();
+    }
+}
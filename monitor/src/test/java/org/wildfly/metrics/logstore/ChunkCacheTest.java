@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.CacheStatistics;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cache of decoded chunks used by the {@link MetricStorage.Layout#CHUNKED} layout.
+ */
+public class ChunkCacheTest {
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Repeated reads are served from the cache. Appending to a chunk adds a part,
+     * merging the part into it's predecessor invalidates the predecessor
+     */
+    @Test
+    public void testHitsAndInvalidation() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.CHUNKED);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.registerMetric("c");
+            long[] timestamps = new long[100];
+            long[] values = new long[100];
+            for (int i = 0; i < 100; i++) {
+                timestamps[i] = i * INTERVAL;
+                values[i] = i;
+            }
+            storage.addMeasurements("c", timestamps, values);
+
+            Measurements results = new Measurements();
+            storage.getMeasurements("c", 0, Long.MAX_VALUE, results);
+            Assert.assertEquals(100, results.size());
+
+            CacheStatistics stats = storage.getCacheStatistics();
+            Assert.assertEquals(0, stats.getHits());
+            Assert.assertEquals(1, stats.getMisses());
+            Assert.assertEquals(1, stats.getEntries());
+
+            storage.getMeasurements("c", 10 * INTERVAL, 20 * INTERVAL, results);
+            Assert.assertEquals(11, results.size());
+            Assert.assertEquals(1, storage.getCacheStatistics().getHits());
+
+            // appends a part to the open chunk
+            storage.addMeasurement("c", 100 * INTERVAL, 100);
+            storage.getMeasurements("c", 0, Long.MAX_VALUE, results);
+            Assert.assertEquals(101, results.size());
+            Assert.assertEquals(100, results.getValue(100));
+
+            stats = storage.getCacheStatistics();
+            Assert.assertEquals(2, stats.getHits());
+            Assert.assertEquals(2, stats.getMisses());
+            Assert.assertEquals(2, stats.getEntries());
+            Assert.assertTrue(stats.getBytes() >= 101 * 16);
+
+            // the second part of the same size is merged into the first one
+            storage.addMeasurement("c", 101 * INTERVAL, 101);
+            storage.getMeasurements("c", 0, Long.MAX_VALUE, results);
+            Assert.assertEquals(102, results.size());
+            Assert.assertEquals(101, results.getValue(101));
+
+            stats = storage.getCacheStatistics();
+            Assert.assertEquals(3, stats.getHits());
+            Assert.assertEquals(3, stats.getMisses());
+            Assert.assertEquals(2, stats.getEntries());
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * The least recently used chunks are evicted once the budget is exceeded
+     */
+    @Test
+    public void testEviction() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.CHUNKED);
+        config.setChunkCacheSize(16 * 1024);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            // ten chunks of 240 points, a little less than 4k each when decoded
+            storage.registerMetric("d");
+            long[] timestamps = new long[2400];
+            long[] values = new long[2400];
+            for (int i = 0; i < 2400; i++) {
+                timestamps[i] = i * INTERVAL;
+                values[i] = i;
+            }
+            storage.addMeasurements("d", timestamps, values);
+
+            Measurements results = storage.getMeasurements("d", 0, Long.MAX_VALUE, new Measurements());
+            Assert.assertEquals(2400, results.size());
+
+            CacheStatistics stats = storage.getCacheStatistics();
+            Assert.assertEquals(10, stats.getMisses());
+            Assert.assertEquals(4, stats.getEntries());
+            Assert.assertEquals(6, stats.getEvictions());
+            Assert.assertTrue(stats.getBytes() <= stats.getMaxBytes());
+
+            // the most recent chunks are still cached
+            storage.getMeasurements("d", 2000 * INTERVAL, Long.MAX_VALUE, results);
+            Assert.assertEquals(400, results.size());
+            Assert.assertEquals(2, storage.getCacheStatistics().getHits());
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
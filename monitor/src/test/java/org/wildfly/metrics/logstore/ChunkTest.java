@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.ChunkReader;
+import org.wildfly.metrics.storage.ChunkWriter;
+
+import java.util.Random;
+
+/**
+ * Round trips of the chunk encoding.
+ */
+public class ChunkTest {
+
+    /**
+     * Regular intervals with a bit of jitter and small values, the typical case
+     */
+    @Test
+    public void testRegularSamples() {
+        Random random = new Random(42);
+        long[] timestamps = new long[240];
+        long[] values = new long[240];
+
+        long ts = System.currentTimeMillis();
+        for (int i = 0; i < timestamps.length; i++) {
+            ts += 30000 + random.nextInt(20) - 10;
+            timestamps[i] = ts;
+            values[i] = random.nextInt(100);
+        }
+
+        byte[] data = roundTrip(timestamps, values);
+
+        // the legacy layout needs at least two longs per measurement
+        Assert.assertTrue("Expected compression, got " + data.length + " bytes", data.length < timestamps.length * 16 / 4);
+    }
+
+    /**
+     * Arbitrary 64 bit values, gaps and duplicate timestamps
+     */
+    @Test
+    public void testEdgeCases() {
+        Random random = new Random(7);
+        long[] timestamps = new long[1000];
+        long[] values = new long[1000];
+
+        long ts = 0;
+        for (int i = 0; i < timestamps.length; i++) {
+            switch (i % 4) {
+                case 0: ts += random.nextInt(Integer.MAX_VALUE) * 1000L; break;  // large gaps
+                case 1: break;                                                   // duplicates
+                default: ts += random.nextInt(5000);
+            }
+            timestamps[i] = ts;
+            values[i] = i % 3 == 0 ? random.nextLong() : (i % 3 == 1 ? -i : Long.MIN_VALUE);
+        }
+
+        roundTrip(timestamps, values);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfOrder() {
+        ChunkWriter writer = new ChunkWriter();
+        writer.append(20, 1);
+        writer.append(10, 1);
+    }
+
+    private static byte[] roundTrip(long[] timestamps, long[] values) {
+        ChunkWriter writer = new ChunkWriter();
+        for (int i = 0; i < timestamps.length; i++) {
+            writer.append(timestamps[i], values[i]);
+        }
+
+        Assert.assertEquals(timestamps[0], writer.getStart());
+        Assert.assertEquals(timestamps[timestamps.length-1], writer.getEnd());
+
+        byte[] data = writer.toByteArray();
+        ChunkReader reader = new ChunkReader(data);
+        Assert.assertEquals(timestamps.length, reader.getCount());
+
+        int i = 0;
+        while (reader.next()) {
+            Assert.assertEquals("timestamp #" + i, timestamps[i], reader.getTimestamp());
+            Assert.assertEquals("value #" + i, values[i], reader.getValue());
+            i++;
+        }
+        Assert.assertEquals(timestamps.length, i);
+
+        return data;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Same as {@link MetricStoreTest}, but using the {@link MetricStorage.Layout#CHUNKED} layout.
+ */
+public class ChunkedStoreTest {
+
+    private static MetricStorage storage;
+    private static String dataDir;
+
+    @BeforeClass
+    public static void init() {
+        dataDir = System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+        storage = new MetricStorage(dataDir, MetricStorage.Layout.CHUNKED);
+        System.out.println("DataDir: "+dataDir);
+    }
+
+    @AfterClass
+    public static void cleanup() throws Exception {
+        FS.removeDir(dataDir);
+    }
+
+    /**
+     * Creation of measurements and retrieval
+     */
+    @Test
+    public void testMeasurements() {
+
+        storage.registerMetric("e");
+
+        storage.addMeasurement("e", 10, 1);
+        storage.addMeasurement("e", 20, 2);
+        storage.addMeasurement("e", 30, 3);
+        storage.addMeasurement("e", 40, 4);
+
+        List<Long[]> results = storage.getMeasurements("e", 15, 35);
+
+        Assert.assertEquals("Expected two results for range query", 2, results.size());
+        Assert.assertEquals(Long.valueOf(20), results.get(0)[0]);
+        Assert.assertEquals(Long.valueOf(2), results.get(0)[1]);
+        Assert.assertEquals(Long.valueOf(30), results.get(1)[0]);
+        Assert.assertEquals(Long.valueOf(3), results.get(1)[1]);
+    }
+
+    /**
+     * A day worth of 30s samples spans several chunks
+     */
+    @Test
+    public void testChunkBoundaries() {
+
+        storage.registerMetric("f");
+
+        long offset = TimeUnit.DAYS.toMillis(1);
+        long interval = TimeUnit.SECONDS.toMillis(30);
+        int numSamples = (int) (TimeUnit.DAYS.toMillis(1) / interval);
+
+        for (int i = 0; i < numSamples; i++) {
+            storage.addMeasurement("f", offset + i * interval, i);
+        }
+
+        Assert.assertEquals(numSamples, storage.getMeasurements("f", 0, Long.MAX_VALUE).size());
+
+        // a window crossing a chunk boundary
+        long from = offset + TimeUnit.MINUTES.toMillis(90);
+        long to = offset + TimeUnit.MINUTES.toMillis(150);
+        List<Long[]> results = storage.getMeasurements("f", from, to);
+
+        Assert.assertEquals(121, results.size());
+        long expected = 180;
+        for (Long[] tuple : results) {
+            Assert.assertEquals(Long.valueOf(expected), tuple[1]);
+            expected++;
+        }
+    }
+
+    /**
+     * Late measurements open a new chunk, but are not lost
+     */
+    @Test
+    public void testOutOfOrder() {
+
+        storage.registerMetric("g");
+
+        storage.addMeasurement("g", 100, 1);
+        storage.addMeasurement("g", 200, 2);
+        storage.addMeasurement("g", 150, 3);
+
+        Assert.assertEquals(3, storage.getMeasurements("g", 0, 1000).size());
+    }
+
+    /**
+     * The chunks of interleaved series are located by series, before and after a restart
+     */
+    @Test
+    public void testInterleavedSeries() throws Exception {
+        String dir = System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.CHUNKED);
+        config.setRecentPoints(0);
+
+        long interval = TimeUnit.MINUTES.toMillis(1);
+        int numSamples = (int) (TimeUnit.HOURS.toMillis(12) / interval);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            for (int m = 0; m < 5; m++) {
+                storage.registerMetric("m" + m);
+            }
+            for (int i = 0; i < numSamples; i++) {
+                for (int m = 0; m < 5; m++) {
+                    storage.addMeasurement("m" + m, (i + m) * interval, m);
+                }
+            }
+            assertSeries(storage, interval, numSamples);
+        } finally {
+            storage.stop();
+        }
+
+        storage = new MetricStorage(dir, config);
+        try {
+            assertSeries(storage, interval, numSamples);
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static void assertSeries(MetricStorage storage, long interval, int numSamples) {
+        for (int m = 0; m < 5; m++) {
+            List<Long[]> results = storage.getMeasurements("m" + m, 100 * interval, 400 * interval);
+            Assert.assertEquals(301, results.size());
+            Assert.assertEquals(Long.valueOf(100 * interval), results.get(0)[0]);
+            Assert.assertEquals(Long.valueOf(m), results.get(0)[1]);
+
+            Measurements last = storage.getLast("m" + m, 1, new Measurements());
+            Assert.assertEquals((numSamples - 1 + m) * interval, last.getTimestamp(0));
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.Aggregate;
+import org.wildfly.metrics.storage.CompactionStatistics;
+import org.wildfly.metrics.storage.DoubleMeasurements;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.UUID;
+
+/**
+ * Merging the small chunks of the {@link MetricStorage.Layout#CHUNKED} layout.
+ */
+public class CompactionTest {
+
+    private static final int RUNS = 10;
+    private static final int POINTS_PER_RUN = 20;
+
+    @Test
+    public void testMergesSmallChunks() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = config();
+        populate(dir, config);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            // populates the cache with the chunks that are about to be merged
+            Measurements before = storage.getMeasurements("metric-0", 0, Long.MAX_VALUE, new Measurements());
+            DoubleMeasurements doublesBefore = storage.getDoubleMeasurements("double-0", 0, Long.MAX_VALUE, new DoubleMeasurements());
+            Aggregate aggregate = storage.getAggregate("metric-0", 5, 150);
+            Assert.assertEquals(RUNS * POINTS_PER_RUN, before.size());
+
+            storage.compact();
+
+            CompactionStatistics stats = storage.getCompactionStatistics();
+            Assert.assertEquals(1, stats.getPasses());
+            Assert.assertEquals(2 * RUNS, stats.getChunksRead());
+            Assert.assertEquals(2, stats.getChunksWritten());
+            Assert.assertTrue(stats.getBytesReclaimed() > 0);
+            Assert.assertEquals(stats.getBytesRead() - stats.getBytesWritten(), stats.getBytesReclaimed());
+
+            assertEquals(before, storage.getMeasurements("metric-0", 0, Long.MAX_VALUE, new Measurements()));
+            DoubleMeasurements doublesAfter = storage.getDoubleMeasurements("double-0", 0, Long.MAX_VALUE, new DoubleMeasurements());
+            Assert.assertEquals(doublesBefore.size(), doublesAfter.size());
+            for (int i = 0; i < doublesBefore.size(); i++) {
+                Assert.assertEquals(doublesBefore.getTimestamp(i), doublesAfter.getTimestamp(i));
+                Assert.assertEquals(doublesBefore.getValue(i), doublesAfter.getValue(i), 0);
+            }
+
+            // the summary of the merged chunk
+            Aggregate compacted = storage.getAggregate("metric-0", 5, 150);
+            Assert.assertEquals(aggregate.getCount(), compacted.getCount());
+            Assert.assertEquals(aggregate.getSum(), compacted.getSum());
+            Assert.assertEquals(aggregate.getMin(), compacted.getMin());
+            Assert.assertEquals(aggregate.getMax(), compacted.getMax());
+            Assert.assertEquals(aggregate.getLast(), compacted.getLast());
+
+            // nothing left to merge
+            storage.compact();
+            Assert.assertEquals(2 * RUNS, storage.getCompactionStatistics().getChunksRead());
+            Assert.assertEquals(2, storage.getCompactionStatistics().getPasses());
+        } finally {
+            storage.stop();
+        }
+
+        // the merged chunks have been persisted
+        storage = new MetricStorage(dir, config);
+        try {
+            Assert.assertEquals(RUNS * POINTS_PER_RUN, storage.getMeasurements("metric-0", 0, Long.MAX_VALUE, new Measurements()).size());
+            storage.compact();
+            Assert.assertEquals(0, storage.getCompactionStatistics().getChunksRead());
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testSkipsOpenChunk() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = config();
+        populate(dir, config);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            long ts = RUNS * POINTS_PER_RUN;
+            for (int i = 0; i < 5; i++, ts++) {
+                storage.addMeasurement("metric-0", ts, ts);
+            }
+
+            // the chunks of the previous runs, but not the one of metric-0 that is appended to
+            storage.compact();
+            Assert.assertEquals(2 * RUNS, storage.getCompactionStatistics().getChunksRead());
+            Assert.assertEquals(2, storage.getCompactionStatistics().getChunksWritten());
+
+            // the open chunk is still appended to
+            for (int i = 0; i < 5; i++, ts++) {
+                storage.addMeasurement("metric-0", ts, ts);
+            }
+
+            Measurements all = storage.getMeasurements("metric-0", 0, Long.MAX_VALUE, new Measurements());
+            Assert.assertEquals(ts, all.size());
+            for (int i = 0; i < all.size(); i++) {
+                Assert.assertEquals(i, all.getTimestamp(i));
+                Assert.assertEquals(i, all.getValue(i));
+            }
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Each flush appends a part to the open chunk, the parts are sealed into a single chunk on stop
+     */
+    @Test
+    public void testSealsOpenChunk() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = config();
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.registerIfAbsent("metric-0");
+            for (int i = 0; i < POINTS_PER_RUN; i++) {
+                storage.addMeasurement("metric-0", i, i);
+                storage.flush();
+            }
+
+            Assert.assertEquals(POINTS_PER_RUN, storage.getMeasurements("metric-0", 0, Long.MAX_VALUE, new Measurements()).size());
+            Assert.assertEquals(POINTS_PER_RUN - 1, storage.getAggregate("metric-0", 0, Long.MAX_VALUE).getMax());
+
+            // the parts of the open chunk are left alone
+            storage.compact();
+            Assert.assertEquals(0, storage.getCompactionStatistics().getChunksRead());
+        } finally {
+            storage.stop();
+        }
+
+        storage = new MetricStorage(dir, config);
+        try {
+            storage.compact();
+            Assert.assertEquals(0, storage.getCompactionStatistics().getChunksRead());
+
+            Measurements all = storage.getMeasurements("metric-0", 0, Long.MAX_VALUE, new Measurements());
+            Assert.assertEquals(POINTS_PER_RUN, all.size());
+            for (int i = 0; i < all.size(); i++) {
+                Assert.assertEquals(i, all.getTimestamp(i));
+                Assert.assertEquals(i, all.getValue(i));
+            }
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = config();
+        config.setCompactionRate(10 * 1024);
+        populate(dir, config);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.compact();
+
+            CompactionStatistics stats = storage.getCompactionStatistics();
+            Assert.assertTrue(stats.getTimeThrottled() > 0);
+            long expected = 1000 * (stats.getBytesRead() + stats.getBytesWritten()) / (10 * 1024);
+            Assert.assertTrue(stats.toString(), stats.getTimeSpent() + stats.getTimeThrottled() >= expected - 10);
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testBackground() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = config();
+        populate(dir, config);
+        config.setCompactionInterval(20);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (storage.getCompactionStatistics().getPasses() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertEquals(2 * RUNS, storage.getCompactionStatistics().getChunksRead());
+            Assert.assertEquals(RUNS * POINTS_PER_RUN, storage.getMeasurements("metric-0", 0, Long.MAX_VALUE, new Measurements()).size());
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testUnsupportedLayout() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            Assert.assertNull(storage.getCompactionStatistics());
+            storage.compact();
+            Assert.fail("Compaction is only supported by the chunked layout");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Each run leaves a small chunk per metric behind, chunks aren't re-opened
+     */
+    private static void populate(String dir, MetricStorageConfig config) {
+        for (int run = 0; run < RUNS; run++) {
+            MetricStorage storage = new MetricStorage(dir, config);
+            try {
+                storage.registerIfAbsent("metric-0");
+                storage.registerIfAbsent("double-0", MetricStorage.ValueType.DOUBLE);
+                for (int i = 0; i < POINTS_PER_RUN; i++) {
+                    long ts = run * POINTS_PER_RUN + i;
+                    storage.addMeasurement("metric-0", ts, ts);
+                    storage.addMeasurement("double-0", ts, ts / 3.0);
+                }
+            } finally {
+                storage.stop();
+            }
+        }
+    }
+
+    private static MetricStorageConfig config() {
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.CHUNKED);
+        config.setCompactionRate(1024 * 1024 * 1024);
+        return config;
+    }
+
+    private static void assertEquals(Measurements expected, Measurements actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+            Assert.assertEquals(expected.getValue(i), actual.getValue(i));
+        }
+    }
+
+    private static String genStorageName() {
+        String tmpdir = System.getProperty("java.io.tmpdir");
+        return tmpdir + File.separator + "metrics-data-"+ UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.ChunkWriter;
+import org.wildfly.metrics.storage.DoubleMeasurements;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Labels;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.UUID;
+
+/**
+ * Metrics with double values.
+ */
+public class DoubleValueTest {
+
+    private static final double[] VALUES = {0.25, 0.25, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Math.PI, 1e-300};
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (MetricStorage.Layout layout : MetricStorage.Layout.values()) {
+            String dir = genStorageName();
+
+            MetricStorageConfig config = new MetricStorageConfig();
+            config.setLayout(layout);
+
+            MetricStorage storage = new MetricStorage(dir, config);
+            try {
+                storage.registerMetric("load", MetricStorage.ValueType.DOUBLE);
+                storage.registerMetric("threads");
+
+                for (int i = 0; i < VALUES.length - 1; i++) {
+                    storage.addMeasurement("load", i, VALUES[i]);
+                }
+
+                int id = storage.getOrCreateSeries("load");
+                storage.addMeasurements(new MeasurementBatch()
+                        .add(id, VALUES.length - 1, VALUES[VALUES.length - 1])
+                        .add("threads", 0, 42));
+
+                assertValues(layout.name(), storage.getDoubleMeasurements("load", 0, 100, new DoubleMeasurements()));
+            } finally {
+                storage.stop();
+            }
+
+            MetricStorage reopened = new MetricStorage(dir, config);
+            try {
+                Assert.assertEquals(MetricStorage.ValueType.DOUBLE, reopened.getValueType("load"));
+                Assert.assertEquals(MetricStorage.ValueType.LONG, reopened.getValueType("threads"));
+                assertValues(layout.name(), reopened.getDoubleMeasurements("load", 0, 100, new DoubleMeasurements()));
+                Assert.assertEquals(1, reopened.getMeasurements("threads", 0, 100).size());
+            } finally {
+                reopened.stop();
+                FS.removeDir(dir);
+            }
+        }
+    }
+
+    @Test
+    public void testTypeMismatch() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorage storage = new MetricStorage(dir);
+        try {
+            storage.registerMetric("load", MetricStorage.ValueType.DOUBLE);
+            storage.registerMetric("threads");
+
+            assertRejected(() -> storage.addMeasurement("load", 0, 1L));
+            assertRejected(() -> storage.addMeasurement("threads", 0, 1.5));
+            assertRejected(() -> storage.addMeasurements(new MeasurementBatch().add("load", 0, 1L)));
+            assertRejected(() -> storage.getMeasurements("load", 0, 10));
+            assertRejected(() -> storage.getAggregate("load", 0, 10));
+            assertRejected(() -> storage.registerIfAbsent("threads", MetricStorage.ValueType.DOUBLE));
+
+            Assert.assertFalse(storage.registerIfAbsent("load", MetricStorage.ValueType.DOUBLE));
+
+            // existing metrics keep their type
+            int threads = storage.registerIfAbsent("threads", Labels.EMPTY, MetricStorage.ValueType.DOUBLE);
+            Assert.assertEquals(MetricStorage.ValueType.LONG, storage.getValueType(threads));
+            int heap = storage.registerIfAbsent("heap", Labels.EMPTY, MetricStorage.ValueType.DOUBLE);
+            Assert.assertEquals(MetricStorage.ValueType.DOUBLE, storage.getValueType(heap));
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Double values aren't aggregated: the bounds of a series are taken from the layouts,
+     * i.e. for the watermark of the reorder buffer and to find the most recent measurements.
+     */
+    @Test
+    public void testWithoutRollups() throws Exception {
+        for (MetricStorage.Layout layout : MetricStorage.Layout.values()) {
+            String dir = genStorageName();
+
+            MetricStorageConfig config = new MetricStorageConfig();
+            config.setLayout(layout);
+            config.setReorderWindow(10);
+
+            MetricStorage storage = new MetricStorage(dir, config);
+            try {
+                storage.registerMetric("load", MetricStorage.ValueType.DOUBLE);
+                for (int i = 0; i < 100; i++) {
+                    storage.addMeasurement("load", i * 1000L, i + 0.5);
+                }
+                storage.flush();
+            } finally {
+                storage.stop();
+            }
+
+            MetricStorage reopened = new MetricStorage(dir, config);
+            try {
+                DoubleMeasurements last = reopened.getLastDouble("load", 3, new DoubleMeasurements());
+                Assert.assertEquals(layout.name(), 3, last.size());
+                Assert.assertEquals(layout.name(), 97000, last.getTimestamp(0));
+                Assert.assertEquals(layout.name(), 99.5, last.getValue(2), 0);
+
+                // late, the watermark is the end of the stored series
+                reopened.addMeasurement("load", 50000, -1.0);
+                reopened.addMeasurement("load", 100000, 100.5);
+                reopened.flush();
+
+                DoubleMeasurements all = reopened.getDoubleMeasurements("load", 0, 100000, new DoubleMeasurements());
+                Assert.assertEquals(layout.name(), 101, all.size());
+                Assert.assertEquals(layout.name(), -1.0, all.getValue(50), 0);
+                Assert.assertEquals(layout.name(), 100000, all.getTimestamp(100));
+
+                Assert.assertEquals(layout.name(), 101, reopened.getLastDouble("load", 200, new DoubleMeasurements()).size());
+            } finally {
+                reopened.stop();
+                FS.removeDir(dir);
+            }
+        }
+    }
+
+    /**
+     * The raw bits of slowly changing doubles share most of their bits with their predecessor
+     */
+    @Test
+    public void testCompression() throws Exception {
+        ChunkWriter writer = new ChunkWriter();
+        for (int i = 0; i < 1000; i++) {
+            writer.append(i * 1000L, Double.doubleToRawLongBits(i < 500 ? 0.75 : 1.5));
+        }
+        Assert.assertTrue("Chunk too large: " + writer.getSizeInBytes(), writer.getSizeInBytes() < 300);
+    }
+
+    private static void assertValues(String message, DoubleMeasurements results) {
+        Assert.assertEquals(message, VALUES.length, results.size());
+        for (int i = 0; i < VALUES.length; i++) {
+            Assert.assertEquals(message, i, results.getTimestamp(i));
+            Assert.assertEquals(message,
+                    Double.doubleToRawLongBits(VALUES[i]), Double.doubleToRawLongBits(results.getValues()[i]));
+        }
+    }
+
+    private static void assertRejected(Runnable operation) {
+        try {
+            operation.run();
+            Assert.fail("Expected the operation to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static String genStorageName() {
+        String tmpdir = System.getProperty("java.io.tmpdir");
+        return tmpdir + File.separator + "metrics-data-"+ UUID.randomUUID().toString();
+    }
+}
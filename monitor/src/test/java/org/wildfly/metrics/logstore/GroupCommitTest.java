@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous writes, committed in groups.
+ */
+public class GroupCommitTest {
+
+    private static final int NUM_WRITERS = 8;
+    private static final int NUM_POINTS = 500;
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+        config.setCommitMaxDelay(5);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        ExecutorService writers = Executors.newFixedThreadPool(NUM_WRITERS);
+        try {
+            for (int w = 0; w < NUM_WRITERS; w++) {
+                storage.registerMetric("metric-" + w);
+            }
+
+            List<Future<List<CompletableFuture<Void>>>> submitted = new ArrayList<>();
+            for (int w = 0; w < NUM_WRITERS; w++) {
+                String name = "metric-" + w;
+                submitted.add(writers.submit(() -> {
+                    List<CompletableFuture<Void>> futures = new ArrayList<>();
+                    for (long ts = 0; ts < NUM_POINTS; ts++) {
+                        futures.add(storage.addMeasurementAsync(name, ts, ts));
+                    }
+                    return futures;
+                }));
+            }
+
+            for (Future<List<CompletableFuture<Void>>> writer : submitted) {
+                for (CompletableFuture<Void> future : writer.get()) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+            }
+
+            // visible once the futures have completed
+            for (int w = 0; w < NUM_WRITERS; w++) {
+                Assert.assertEquals(NUM_POINTS, storage.getMeasurements("metric-" + w, 0, NUM_POINTS).size());
+                Assert.assertEquals((NUM_POINTS - 1) * NUM_POINTS / 2, storage.getAggregate("metric-" + w, 0, NUM_POINTS).getSum());
+            }
+
+            MeasurementBatch batch = new MeasurementBatch()
+                    .add("metric-0", NUM_POINTS, 1)
+                    .add("metric-1", NUM_POINTS, 1);
+            storage.addMeasurementsAsync(batch).get(30, TimeUnit.SECONDS);
+            Assert.assertEquals(NUM_POINTS + 1, storage.getMeasurements("metric-1", 0, NUM_POINTS).size());
+
+            try {
+                storage.addMeasurementAsync("unknown", 0, 0);
+                Assert.fail("Expected unknown metric to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            writers.shutdown();
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Pending writes are committed when the storage is stopped, later ones are rejected.
+     */
+    @Test
+    public void testStop() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setCommitMaxDelay(TimeUnit.SECONDS.toMillis(10));
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
+            storage.registerMetric("metric");
+            for (long ts = 0; ts < 10; ts++) {
+                futures.add(storage.addMeasurementAsync("metric", ts, ts));
+            }
+        } finally {
+            storage.stop();
+        }
+
+        for (CompletableFuture<Void> future : futures) {
+            Assert.assertTrue(future.isDone());
+            future.get();
+        }
+
+        try {
+            storage.addMeasurementAsync("metric", 10, 10).get();
+            Assert.fail("Expected the write to be rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        MetricStorage reopened = new MetricStorage(dir, config);
+        try {
+            Assert.assertEquals(10, reopened.getMeasurements("metric", 0, 100).size());
+        } finally {
+            reopened.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
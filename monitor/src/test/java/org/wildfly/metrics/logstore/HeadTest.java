@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.Buckets;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Measurements buffered in memory (see {@link MetricStorageConfig#setHeadFlushInterval(long)})
+ */
+public class HeadTest {
+
+    private static MetricStorageConfig headConfig(int maxPoints) {
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+        config.setHeadFlushInterval(TimeUnit.HOURS.toMillis(1));
+        config.setHeadMaxPoints(maxPoints);
+        return config;
+    }
+
+    /**
+     * Queries merge the head and the storage, without gaps or duplicates
+     */
+    @Test
+    public void testMergedQueries() throws Exception {
+        String dir = genStorageName();
+        MetricStorage storage = new MetricStorage(dir, headConfig(10000));
+        try {
+            storage.registerMetric("h");
+
+            storage.addMeasurements("h", new long[] {10, 20}, new long[] {1, 2});
+            Assert.assertEquals(2, storage.getMeasurements("h", 0, 100).size());
+
+            storage.flush();
+            storage.addMeasurement("h", 30, 3);
+
+            List<Long[]> results = storage.getMeasurements("h", 0, 100);
+            Assert.assertEquals(3, results.size());
+            Assert.assertEquals(Long.valueOf(30), results.get(2)[0]);
+
+            // served from memory only
+            Assert.assertEquals(1, storage.getMeasurements("h", 25, 100).size());
+
+            Assert.assertEquals(3, storage.getAggregate("h", 0, 100).getCount());
+            Assert.assertEquals(3, storage.getAggregate("h", 0, 100).getLast());
+            Assert.assertEquals(6, storage.getBuckets("h", 0, 100, 1000, new Buckets()).getSum(0));
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * The head is flushed once it exceeds it's size, and when the storage is stopped
+     */
+    @Test
+    public void testFlush() throws Exception {
+        String dir = genStorageName();
+        MetricStorage storage = new MetricStorage(dir, headConfig(5));
+        storage.registerMetric("f");
+        for (int i = 0; i < 12; i++) {
+            storage.addMeasurement("f", i, i);
+        }
+        Assert.assertEquals(12, storage.getMeasurements("f", 0, 100).size());
+        storage.stop();
+
+        MetricStorageConfig ordered = new MetricStorageConfig();
+        ordered.setLayout(MetricStorage.Layout.ORDERED);
+        MetricStorage second = new MetricStorage(dir, ordered);
+        try {
+            Assert.assertEquals(12, second.getMeasurements("f", 0, 100).size());
+        } finally {
+            second.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Measurements that haven't been flushed are restored from the log
+     */
+    @Test
+    public void testReplay() throws Exception {
+        String dir = genStorageName();
+        String crashed = genStorageName();
+
+        MetricStorage storage = new MetricStorage(dir, headConfig(10000));
+        storage.registerMetric("r");
+        storage.stop();
+        copyDir(new File(dir).toPath(), new File(crashed).toPath());
+
+        // the state of 'crashed': registered, but the measurements only exist in the log
+        storage = new MetricStorage(dir, headConfig(10000));
+        storage.addMeasurements("r", new long[] {10, 20, 30}, new long[] {1, 2, 3});
+        Files.copy(new File(dir, "head.wal").toPath(), new File(crashed, "head.wal").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        storage.stop();
+
+        MetricStorageConfig ordered = new MetricStorageConfig();
+        ordered.setLayout(MetricStorage.Layout.ORDERED);
+        MetricStorage recovered = new MetricStorage(crashed, ordered);
+        try {
+            Assert.assertEquals(3, recovered.getMeasurements("r", 0, 100).size());
+            Assert.assertFalse(new File(crashed, "head.wal").exists());
+        } finally {
+            recovered.stop();
+            FS.removeDir(dir);
+            FS.removeDir(crashed);
+        }
+    }
+
+    /**
+     * A crash after the head has been committed, but before the log has been cleared, doesn't store measurements twice
+     */
+    @Test
+    public void testReplayAfterFlush() throws Exception {
+        for (MetricStorage.Layout layout : MetricStorage.Layout.values()) {
+            String dir = genStorageName();
+            File saved = new File(genStorageName() + ".wal");
+
+            MetricStorageConfig config = headConfig(10000);
+            config.setLayout(layout);
+
+            MetricStorage storage = new MetricStorage(dir, config);
+            storage.registerMetric("r");
+            storage.addMeasurements("r", new long[] {10, 20, 30}, new long[] {1, 2, 3});
+            Files.copy(new File(dir, "head.wal").toPath(), saved.toPath());
+            storage.flush();
+            storage.stop();
+
+            // the log as it was before it has been cleared
+            Files.copy(saved.toPath(), new File(dir, "head.wal").toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            MetricStorage recovered = new MetricStorage(dir, config);
+            try {
+                Assert.assertEquals(layout.name(), 3, recovered.getMeasurements("r", 0, 100).size());
+                Assert.assertEquals(layout.name(), 3, recovered.getAggregate("r", 0, 100).getCount());
+                Assert.assertEquals(layout.name(), 6, recovered.getAggregate("r", 0, 100).getSum());
+            } finally {
+                recovered.stop();
+                FS.removeDir(dir);
+                Files.delete(saved.toPath());
+            }
+        }
+    }
+
+    /**
+     * The log of a flush that hasn't been committed is replayed along with the log of the later measurements
+     */
+    @Test
+    public void testReplayWhileFlushing() throws Exception {
+        String dir = genStorageName();
+        String crashed = genStorageName();
+
+        MetricStorage storage = new MetricStorage(dir, headConfig(10000));
+        storage.registerMetric("r");
+        storage.stop();
+        copyDir(new File(dir).toPath(), new File(crashed).toPath());
+
+        // the state of 'crashed': the first measurements were being flushed, the others had been added since
+        storage = new MetricStorage(dir, headConfig(10000));
+        storage.addMeasurements("r", new long[] {10, 20, 30}, new long[] {1, 2, 3});
+        Files.copy(new File(dir, "head.wal").toPath(), new File(crashed, "head.wal.flushing").toPath());
+        storage.flush();
+        storage.addMeasurements("r", new long[] {40, 50}, new long[] {4, 5});
+        Files.copy(new File(dir, "head.wal").toPath(), new File(crashed, "head.wal").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        storage.stop();
+
+        MetricStorage recovered = new MetricStorage(crashed, headConfig(10000));
+        try {
+            List<Long[]> results = recovered.getMeasurements("r", 0, 100);
+            Assert.assertEquals(5, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(Long.valueOf((i + 1) * 10), results.get(i)[0]);
+            }
+            Assert.assertFalse(new File(crashed, "head.wal.flushing").exists());
+        } finally {
+            recovered.stop();
+            FS.removeDir(dir);
+            FS.removeDir(crashed);
+        }
+    }
+
+    /**
+     * Reads while the head is flushed see the measurements that are being written exactly once.
+     * Segments are read without a transaction, they may show measurements that are written meanwhile.
+     */
+    @Test
+    public void testReadsWhileFlushing() throws Exception {
+        for (MetricStorage.Layout layout : MetricStorage.Layout.values()) {
+            if(layout == MetricStorage.Layout.SEGMENTS)
+                continue;
+
+            String dir = genStorageName();
+            MetricStorageConfig config = headConfig(50);
+            config.setLayout(layout);
+
+            MetricStorage storage = new MetricStorage(dir, config);
+            try {
+                storage.registerMetric("h");
+                int n = 3000;
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                Thread writer = new Thread(() -> {
+                    try {
+                        for (int i = 1; i <= n; i++) {
+                            storage.addMeasurement("h", i, i);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                });
+                writer.start();
+
+                int previous = 0;
+                while (writer.isAlive()) {
+                    Measurements read = storage.getMeasurements("h", 0, n, new Measurements());
+                    Assert.assertTrue(layout.name() + ": measurements disappeared", read.size() >= previous);
+                    for (int i = 0; i < read.size(); i++) {
+                        Assert.assertEquals(layout.name(), i + 1, read.getTimestamp(i));
+                    }
+                    previous = read.size();
+
+                    long count = storage.getAggregate("h", 0, n).getCount();
+                    Assert.assertTrue(layout.name() + ": counted " + count + " after " + previous, count >= previous && count <= n);
+                }
+                writer.join();
+                Assert.assertNull(failure.get());
+                Assert.assertEquals(layout.name(), n, storage.getAggregate("h", 0, n).getCount());
+            } finally {
+                storage.stop();
+                FS.removeDir(dir);
+            }
+        }
+    }
+
+    private static void copyDir(Path source, Path target) throws Exception {
+        Files.createDirectories(target);
+        try (Stream<Path> files = Files.list(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, target.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
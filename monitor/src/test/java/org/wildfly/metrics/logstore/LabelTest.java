@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Labels;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.Selector;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Selection of series by their labels.
+ */
+public class LabelTest {
+
+    private static final String[] ATTRIBUTES = {"heap-memory-usage", "thread-count", "active-count"};
+
+    @Test
+    public void testSelect() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorage storage = new MetricStorage(dir);
+        try {
+            Map<String, Labels> metrics = new LinkedHashMap<>();
+            for (String host : Arrays.asList("master", "slave")) {
+                for (String server : Arrays.asList("server-one", "server-two")) {
+                    for (String attribute : ATTRIBUTES) {
+                        metrics.put(host + "." + server + "." + attribute, Labels.of("host", host, "server", server, "attribute", attribute));
+                    }
+                }
+            }
+            metrics.put("server-one.heap-memory-usage", Labels.of("server", "server-one", "attribute", "heap-memory-usage"));
+            storage.registerIfAbsent(metrics);
+
+            Assert.assertEquals(
+                    new HashSet<>(Arrays.asList(
+                            "master.server-one.heap-memory-usage", "master.server-two.heap-memory-usage",
+                            "slave.server-one.heap-memory-usage", "slave.server-two.heap-memory-usage"
+                    )),
+                    storage.select(Selector.parse("attribute=heap-memory-usage, host=*"))
+            );
+
+            Assert.assertEquals(
+                    new HashSet<>(Arrays.asList("master.server-one.heap-memory-usage", "slave.server-one.heap-memory-usage", "server-one.heap-memory-usage")),
+                    storage.select(new Selector().eq("attribute", "heap-memory-usage").eq("server", "server-one"))
+            );
+
+            Assert.assertEquals(6, storage.select(Selector.parse("host=slave")).size());
+            Assert.assertTrue(storage.select(Selector.parse("host=unknown")).isEmpty());
+            Assert.assertTrue(storage.select(Selector.parse("cluster=*")).isEmpty());
+            Assert.assertEquals(metrics.size(), storage.select(Selector.parse("")).size());
+        } finally {
+            storage.stop();
+        }
+
+        // the labels and the index are restored when the storage is opened
+        MetricStorage reopened = new MetricStorage(dir);
+        try {
+            Assert.assertEquals(Labels.of("host", "slave", "server", "server-two", "attribute", "thread-count"),
+                    reopened.getLabels("slave.server-two.thread-count"));
+            Assert.assertEquals(4, reopened.select(Selector.parse("attribute=thread-count, server=*")).size());
+        } finally {
+            reopened.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Metrics that have been registered by name only are labeled later on.
+     */
+    @Test
+    public void testAssignLabels() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorage storage = new MetricStorage(dir);
+        try {
+            storage.registerMetric("master.server-one.heap-memory-usage");
+            storage.addMeasurement("master.server-one.heap-memory-usage", 1, 1);
+            Assert.assertTrue(storage.getLabels("master.server-one.heap-memory-usage").isEmpty());
+
+            Labels labels = Labels.of("host", "master", "server", "server-one", "attribute", "heap-memory-usage");
+            storage.registerIfAbsent(Collections.singletonMap("master.server-one.heap-memory-usage", labels));
+            Assert.assertEquals(labels, storage.getLabels("master.server-one.heap-memory-usage"));
+
+            // existing labels are retained
+            storage.registerIfAbsent(Collections.singletonMap("master.server-one.heap-memory-usage", Labels.of("host", "slave")));
+            Assert.assertEquals(labels, storage.getLabels("master.server-one.heap-memory-usage"));
+
+            Assert.assertEquals(Collections.singleton("master.server-one.heap-memory-usage"), storage.select(Selector.parse("host=master")));
+            Assert.assertEquals(1, storage.getMeasurements("master.server-one.heap-memory-usage", 0, 10).size());
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedSelector() {
+        Selector.parse("host");
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
@@ -25,12 +25,19 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.Measurements;
 import org.wildfly.metrics.storage.MetricStorage;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Each test run creates a dedicated logstore instance (file system)
@@ -91,6 +98,40 @@ public class MetricStoreTest {
         storage.registerMetric("d");
     }
 
+    /**
+     * Concurrent registration of the same names yields a single series each
+     */
+    @Test
+    public void testRegisterIfAbsent() throws Exception {
+        final int NUM_THREADS = 4;
+        final int NUM_METRICS = 100;
+
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<int[]>> futures = new ArrayList<>();
+        for (int t = 0; t < NUM_THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                int[] ids = new int[NUM_METRICS];
+                for (int i = 0; i < NUM_METRICS; i++) {
+                    ids[i] = storage.getOrCreateSeries("concurrent." + i);
+                    storage.registerIfAbsent("concurrent." + i);
+                }
+                return ids;
+            }));
+        }
+
+        int[] expected = futures.get(0).get();
+        for (Future<int[]> future : futures) {
+            Assert.assertArrayEquals(expected, future.get());
+        }
+        executor.shutdown();
+
+        Assert.assertFalse(storage.registerIfAbsent("concurrent.0"));
+        Assert.assertTrue(storage.registerIfAbsent("concurrent.new"));
+
+        storage.registerIfAbsent(Arrays.asList("concurrent.0", "bulk.a", "bulk.b", "bulk.a"));
+        Assert.assertTrue(storage.getMetricNames().containsAll(Arrays.asList("bulk.a", "bulk.b")));
+    }
+
     /**
      * Creation of measurements and retrieval
      */
@@ -109,6 +150,100 @@ public class MetricStoreTest {
         Assert.assertEquals("Expected two results for range query", 2, results.size());
     }
 
+    /**
+     * Query results into a reusable, columnar buffer
+     */
+    @Test
+    public void testColumnarResults() {
+
+        storage.registerMetric("k");
+        storage.addMeasurements("k", new long[] {10, 20, 30, 40}, new long[] {1, 2, 3, 4});
+
+        Measurements results = new Measurements(1);
+        storage.getMeasurements("k", 15, 35, results);
+
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(20, results.getTimestamp(0));
+        Assert.assertEquals(2, results.getValue(0));
+        Assert.assertEquals(30, results.getTimestamp(1));
+        Assert.assertEquals(3, results.getValue(1));
+
+        // reuse clears previous results
+        storage.getMeasurements("k", 35, 45, results);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(4, results.getValues()[0]);
+    }
+
+    /**
+     * Stream results to a visitor
+     */
+    @Test
+    public void testVisitMeasurements() {
+
+        storage.registerMetric("v");
+        storage.addMeasurements("v", new long[] {10, 20, 30, 40}, new long[] {1, 2, 3, 4});
+
+        List<Long> values = new ArrayList<>();
+        storage.visitMeasurements("v", 15, 45, (timestamp, value) -> values.add(value));
+
+        Assert.assertEquals(Arrays.asList(2L, 3L, 4L), values);
+    }
+
+    /**
+     * Metric names and their measurements survive a restart
+     */
+    @Test
+    public void testReopen() throws Exception {
+        String dir = genStorageName();
+        MetricStorage first = new MetricStorage(dir);
+        first.registerMetric("x");
+        first.registerMetric("y");
+        first.addMeasurement("y", 10, sample());
+        first.stop();
+
+        MetricStorage second = new MetricStorage(dir);
+        try {
+            Assert.assertEquals(2, second.getMetricNames().size());
+            Assert.assertTrue(second.getMetricNames().contains("y"));
+            Assert.assertEquals(1, second.getMeasurements("y", 0, 100).size());
+
+            second.registerMetric("z");
+            second.addMeasurement("z", 10, sample());
+            Assert.assertEquals(1, second.getMeasurements("z", 0, 100).size());
+            Assert.assertEquals(1, second.getMeasurements("y", 0, 100).size());
+        } finally {
+            second.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Batches spanning several metrics, written in one go
+     */
+    @Test
+    public void testBatchMeasurements() {
+
+        storage.registerMetric("h");
+        storage.registerMetric("i");
+
+        storage.addMeasurements("h", new long[] {10, 20, 30}, new long[] {sample(), sample(), sample()});
+
+        MeasurementBatch batch = new MeasurementBatch()
+                .add("h", 40, sample())
+                .add("i", 10, sample())
+                .add("i", 20, sample());
+        storage.addMeasurements(batch);
+
+        Assert.assertEquals(4, storage.getMeasurements("h", 0, 100).size());
+        Assert.assertEquals(2, storage.getMeasurements("i", 0, 100).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchMismatch() {
+        storage.registerMetric("j");
+        storage.addMeasurements("j", new long[] {10, 20}, new long[] {sample()});
+    }
+
     public static long sample() {
         double random = Math.random();
         double probe = random *100;
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Labels;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+import org.wildfly.metrics.storage.MultiSeriesResult;
+import org.wildfly.metrics.storage.Selector;
+import org.wildfly.metrics.storage.ShardedMetricStorage;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries for several metrics at once.
+ */
+public class MultiSeriesQueryTest {
+
+    private static final int NUM_METRICS = 12;
+
+    @Test
+    public void testMatchesSingleQueries() throws Exception {
+        for (MetricStorage.Layout layout : MetricStorage.Layout.values()) {
+            for (boolean withHead : new boolean[]{false, true}) {
+                String dir = genStorageName();
+                String message = layout + (withHead ? " with head" : "");
+
+                MetricStorageConfig config = new MetricStorageConfig();
+                config.setLayout(layout);
+                config.setPartitionSize(25);
+                config.setSegmentCapacity(20);
+                if(withHead)
+                {
+                    // partially flushed
+                    config.setHeadFlushInterval(TimeUnit.HOURS.toMillis(1));
+                    config.setHeadMaxPoints(500);
+                }
+
+                MetricStorage storage = new MetricStorage(dir, config);
+                try {
+                    populate(storage);
+
+                    MultiSeriesResult all = storage.getMeasurements(Selector.parse(""), 0, 1000);
+                    Assert.assertEquals(message, NUM_METRICS, all.getSeriesCount());
+                    assertMatches(message, storage, all);
+
+                    MultiSeriesResult even = storage.getMeasurements(Selector.parse("parity=even"), 10, 40, ForkJoinPool.commonPool());
+                    Assert.assertEquals(message, NUM_METRICS / 2, even.getSeriesCount());
+                    for (int s = 0; s < even.getSeriesCount(); s++) {
+                        Assert.assertEquals(message, "even", storage.getLabels(even.getName(s)).get("parity"));
+                        assertEquals(message, storage.getMeasurements(even.getName(s), 10, 40, new Measurements()), even.getMeasurements(s));
+                    }
+
+                    MultiSeriesResult some = storage.getMeasurements(Arrays.asList("metric-3", "metric-1", "metric-3"), 0, 1000);
+                    Assert.assertEquals(message, 2, some.getSeriesCount());
+                    Assert.assertEquals(message, -1, some.indexOf("metric-2"));
+                    assertMatches(message, storage, some);
+                } finally {
+                    storage.stop();
+                    FS.removeDir(dir);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSharded() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+
+        ShardedMetricStorage storage = new ShardedMetricStorage(dir, 3, config);
+        try {
+            Map<String, Labels> metrics = new HashMap<>();
+            MeasurementBatch batch = new MeasurementBatch();
+            for (int i = 0; i < NUM_METRICS; i++) {
+                metrics.put("metric-" + i, Labels.of("parity", i % 2 == 0 ? "even" : "odd"));
+                batch.add("metric-" + i, i, i);
+            }
+            storage.registerIfAbsent(metrics);
+            storage.addMeasurements(batch);
+
+            MultiSeriesResult odd = storage.getMeasurements(Selector.parse("parity=odd"), 0, 100);
+            Assert.assertEquals(NUM_METRICS / 2, odd.getSeriesCount());
+            Assert.assertEquals(NUM_METRICS / 2, odd.size());
+            for (int s = 0; s < odd.getSeriesCount(); s++) {
+                int i = Integer.parseInt(odd.getName(s).substring("metric-".length()));
+                Assert.assertEquals(1, i % 2);
+                Assert.assertEquals(i, odd.getValues()[odd.getStart(s)]);
+            }
+
+            MultiSeriesResult some = storage.getMeasurements(Arrays.asList("metric-0", "metric-5"), 0, 100, ForkJoinPool.commonPool());
+            Assert.assertEquals(2, some.getSeriesCount());
+            Assert.assertEquals(5, some.getValues()[some.getStart(some.indexOf("metric-5"))]);
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Several chunks and partitions per metric, along with late measurements
+     */
+    private static void populate(MetricStorage storage) {
+        Map<String, Labels> metrics = new HashMap<>();
+        for (int i = 0; i < NUM_METRICS; i++) {
+            metrics.put("metric-" + i, Labels.of("parity", i % 2 == 0 ? "even" : "odd"));
+        }
+        storage.registerIfAbsent(metrics);
+
+        for (long ts = 0; ts < 100; ts += 10) {
+            MeasurementBatch batch = new MeasurementBatch();
+            for (int i = 0; i < NUM_METRICS; i++) {
+                for (long t = ts; t < ts + 10; t++) {
+                    if(t % (i + 2) != 0)
+                        batch.add("metric-" + i, t, t * i);
+                }
+            }
+            storage.addMeasurements(batch);
+        }
+
+        storage.addMeasurement("metric-1", 20, -1);
+        storage.addMeasurement("metric-2", 21, -1);
+    }
+
+    private static void assertMatches(String message, MetricStorage storage, MultiSeriesResult result) {
+        for (int s = 0; s < result.getSeriesCount(); s++) {
+            Measurements expected = storage.getMeasurements(result.getName(s), 0, 1000, new Measurements());
+            Assert.assertEquals(message, s, result.indexOf(result.getName(s)));
+            assertEquals(message + " " + result.getName(s), expected, result.getMeasurements(s));
+        }
+    }
+
+    private static void assertEquals(String message, Measurements expected, Measurements actual) {
+        Assert.assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(message, expected.getTimestamp(i), actual.getTimestamp(i));
+            Assert.assertEquals(message, expected.getValue(i), actual.getValue(i));
+        }
+    }
+
+    private static String genStorageName() {
+        String tmpdir = System.getProperty("java.io.tmpdir");
+        return tmpdir + File.separator + "metrics-data-"+ UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wildfly.metrics.storage.Buckets;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Same as {@link MetricStoreTest}, but using the {@link MetricStorage.Layout#ORDERED} layout.
+ */
+public class OrderedStoreTest {
+
+    private static MetricStorage storage;
+    private static String dataDir;
+
+    @BeforeClass
+    public static void init() {
+        dataDir = genStorageName();
+        storage = new MetricStorage(dataDir, MetricStorage.Layout.ORDERED);
+        System.out.println("DataDir: "+dataDir);
+    }
+
+    @AfterClass
+    public static void cleanup() throws Exception {
+        FS.removeDir(dataDir);
+    }
+
+    /**
+     * Creation of measurements and retrieval
+     */
+    @Test
+    public void testMeasurements() {
+
+        storage.registerMetric("h");
+
+        storage.addMeasurement("h", 10, 1);
+        storage.addMeasurement("h", 20, 2);
+        storage.addMeasurement("h", 30, 3);
+        storage.addMeasurement("h", 40, 4);
+
+        List<Long[]> results = storage.getMeasurements("h", 15, 35);
+
+        Assert.assertEquals("Expected two results for range query", 2, results.size());
+        Assert.assertEquals(Long.valueOf(20), results.get(0)[0]);
+        Assert.assertEquals(Long.valueOf(2), results.get(0)[1]);
+        Assert.assertEquals(Long.valueOf(30), results.get(1)[0]);
+        Assert.assertEquals(Long.valueOf(3), results.get(1)[1]);
+    }
+
+    /**
+     * A scan must not run into the data of the neighbouring series
+     */
+    @Test
+    public void testSeriesBoundaries() {
+
+        storage.registerMetric("i");
+        storage.registerMetric("j");
+        storage.registerMetric("k");
+
+        for (long ts = 0; ts < 100; ts++) {
+            storage.addMeasurement("i", ts, 1);
+            storage.addMeasurement("j", ts, 2);
+            storage.addMeasurement("k", ts, 3);
+        }
+
+        Measurements results = storage.getMeasurements("j", Long.MIN_VALUE, Long.MAX_VALUE, new Measurements());
+        Assert.assertEquals(100, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(i, results.getTimestamp(i));
+            Assert.assertEquals(2, results.getValue(i));
+        }
+
+        Assert.assertTrue(storage.getMeasurements("j", 100, 200).isEmpty());
+    }
+
+    /**
+     * Results are ordered by time, regardless of the write order and sign of the timestamps
+     */
+    @Test
+    public void testOrdering() {
+
+        storage.registerMetric("l");
+
+        storage.addMeasurement("l", 200, 2);
+        storage.addMeasurement("l", -100, -1);
+        storage.addMeasurement("l", 100, 1);
+        storage.addMeasurement("l", 100, 3); // replaces the previous value
+
+        Measurements results = storage.getMeasurements("l", -1000, 1000, new Measurements());
+
+        Assert.assertArrayEquals(new long[] {-100, 100, 200}, Arrays.copyOf(results.getTimestamps(), results.size()));
+        Assert.assertArrayEquals(new long[] {-1, 3, 2}, Arrays.copyOf(results.getValues(), results.size()));
+    }
+
+    /**
+     * The most recent measurement of each series is located in the stored partitions after a restart,
+     * including the series with the highest id and extreme timestamps
+     */
+    @Test
+    public void testLastAfterRestart() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+        config.setRecentPoints(0);
+
+        long[] last = {99, Long.MAX_VALUE, -1, 42};
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            for (int m = 0; m < last.length; m++) {
+                storage.registerMetric("m" + m);
+                for (long ts = -50; ts < 50; ts++) {
+                    storage.addMeasurement("m" + m, Math.min(ts, last[m]), ts);
+                }
+                storage.addMeasurement("m" + m, last[m], m);
+            }
+        } finally {
+            storage.stop();
+        }
+
+        storage = new MetricStorage(dir, config);
+        try {
+            for (int m = 0; m < last.length; m++) {
+                Measurements results = storage.getLast("m" + m, 1, new Measurements());
+                Assert.assertEquals(1, results.size());
+                Assert.assertEquals(last[m], results.getTimestamp(0));
+                Assert.assertEquals(m, results.getValue(0));
+            }
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Whole partitions expire, the partitions survive a restart
+     */
+    @Test
+    public void testExpire() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+        config.setPartitionSize(100);
+
+        MetricStorage first = new MetricStorage(dir, config);
+        first.registerMetric("m");
+        for (long ts = 0; ts < 500; ts += 10) {
+            first.addMeasurement("m", ts, ts);
+        }
+        first.stop();
+
+        MetricStorage second = new MetricStorage(dir, config);
+        try {
+            Assert.assertEquals(50, second.getMeasurements("m", 0, 1000).size());
+
+            // [0, 100) and [100, 200) are entirely before 250
+            Assert.assertEquals(2, second.expire(250));
+            Assert.assertEquals(0, second.expire(250));
+
+            List<Long[]> results = second.getMeasurements("m", 0, 1000);
+            Assert.assertEquals(30, results.size());
+            Assert.assertEquals(Long.valueOf(200), results.get(0)[0]);
+
+            // rollups are retained
+            Assert.assertEquals(50, second.getBuckets("m", 0, 1000, 60000, new Buckets()).getCount(0));
+        } finally {
+            second.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
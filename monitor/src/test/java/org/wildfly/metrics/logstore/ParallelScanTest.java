@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parallel range scans return the same results as sequential ones.
+ */
+public class ParallelScanTest {
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    private static final int SAMPLES = 10000;
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void init() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testEntity() throws Exception {
+        verify(MetricStorage.Layout.ENTITY);
+    }
+
+    @Test
+    public void testChunked() throws Exception {
+        verify(MetricStorage.Layout.CHUNKED);
+    }
+
+    @Test
+    public void testOrdered() throws Exception {
+        verify(MetricStorage.Layout.ORDERED);
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        verify(MetricStorage.Layout.SEGMENTS);
+    }
+
+    private void verify(MetricStorage.Layout layout) throws Exception {
+        String dir = System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(layout);
+        config.setPartitionSize(TimeUnit.HOURS.toMillis(6));
+        config.setSegmentCapacity(1000);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.registerMetric("p");
+            storage.registerMetric("q");
+
+            long[] timestamps = new long[SAMPLES];
+            long[] values = new long[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                timestamps[i] = i * INTERVAL;
+                values[i] = i;
+            }
+            storage.addMeasurements("p", timestamps, values);
+            storage.addMeasurements("q", timestamps, values);
+
+            Random random = new Random(42);
+            Measurements sequential = new Measurements();
+            Measurements parallel = new Measurements();
+
+            for (int n = 0; n < 20; n++) {
+                long from = (long) (random.nextDouble() * SAMPLES * INTERVAL);
+                long to = from + (long) (random.nextDouble() * SAMPLES * INTERVAL);
+                assertSame(storage, from, to, sequential, parallel);
+            }
+            assertSame(storage, Long.MIN_VALUE, Long.MAX_VALUE, sequential, parallel);
+            assertSame(storage, 0, 0, sequential, parallel);
+            assertSame(storage, -100, -1, sequential, parallel);
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static void assertSame(MetricStorage storage, long from, long to, Measurements sequential, Measurements parallel) {
+        storage.getMeasurements("p", from, to, sequential);
+        storage.getMeasurements("p", from, to, parallel, pool);
+
+        String range = "["+from+", "+to+"]";
+        Assert.assertEquals(range, sequential.size(), parallel.size());
+        Assert.assertArrayEquals(range, Arrays.copyOf(sequential.getTimestamps(), sequential.size()), Arrays.copyOf(parallel.getTimestamps(), parallel.size()));
+        Assert.assertArrayEquals(range, Arrays.copyOf(sequential.getValues(), sequential.size()), Arrays.copyOf(parallel.getValues(), parallel.size()));
+    }
+}
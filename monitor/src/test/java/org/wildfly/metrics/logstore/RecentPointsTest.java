@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.CacheStatistics;
+import org.wildfly.metrics.storage.DoubleMeasurements;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The most recent measurements of each metric, held in memory.
+ */
+public class RecentPointsTest {
+
+    private static final int NUM_METRICS = 4;
+    private static final int RECENT_POINTS = 16;
+
+    @Test
+    public void testMatchesStorage() throws Exception {
+        for (MetricStorage.Layout layout : MetricStorage.Layout.values()) {
+            for (long window : new long[]{0, 5}) {
+                String message = layout + " window " + window;
+                String dir = genStorageName();
+                String referenceDir = genStorageName();
+
+                MetricStorage storage = new MetricStorage(dir, config(layout, window, RECENT_POINTS));
+                MetricStorage reference = new MetricStorage(referenceDir, config(layout, window, 0));
+                try {
+                    for (int i = 0; i < NUM_METRICS; i++) {
+                        storage.registerMetric("metric-" + i);
+                        reference.registerMetric("metric-" + i);
+                    }
+
+                    Random random = new Random(window);
+                    for (int round = 0; round < 20; round++) {
+                        MeasurementBatch batch = new MeasurementBatch();
+                        for (int i = 0; i < NUM_METRICS; i++) {
+                            for (int p = 0; p < 5; p++) {
+                                // mostly in order, some late ones and duplicates
+                                long ts = round * 5 + p - (random.nextInt(4) == 0 ? random.nextInt(12) : 0);
+                                batch.add("metric-" + i, ts, random.nextInt(1000));
+                            }
+                        }
+                        storage.addMeasurements(batch);
+                        reference.addMeasurements(batch);
+
+                        for (int i = 0; i < NUM_METRICS; i++) {
+                            String metric = "metric-" + i;
+                            for (int n : new int[]{1, 5, RECENT_POINTS, 40}) {
+                                assertEquals(message + " last " + n,
+                                        reference.getLast(metric, n, new Measurements()), storage.getLast(metric, n, new Measurements()));
+                            }
+                            for (long from : new long[]{0, round * 5 - 10, round * 5}) {
+                                assertEquals(message + " from " + from,
+                                        reference.getMeasurements(metric, from, Long.MAX_VALUE, new Measurements()),
+                                        storage.getMeasurements(metric, from, Long.MAX_VALUE, new Measurements()));
+                            }
+                        }
+                    }
+
+                    CacheStatistics stats = storage.getRecentStatistics();
+                    Assert.assertEquals(message, NUM_METRICS, stats.getEntries());
+                    Assert.assertTrue(message, stats.getHits() > 0);
+                    Assert.assertTrue(message, stats.getMisses() > 0);
+                    Assert.assertTrue(message, stats.getBytes() >= NUM_METRICS * RECENT_POINTS * 16);
+                    Assert.assertNull(reference.getRecentStatistics());
+                } finally {
+                    storage.stop();
+                    reference.stop();
+                    FS.removeDir(dir);
+                    FS.removeDir(referenceDir);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = config(MetricStorage.Layout.CHUNKED, 0, RECENT_POINTS);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.registerMetric("metric-0");
+            for (long ts = 0; ts < 100; ts++) {
+                storage.addMeasurement("metric-0", ts, ts);
+            }
+        } finally {
+            storage.stop();
+        }
+
+        storage = new MetricStorage(dir, config);
+        try {
+            // served from the storage until the metric receives new measurements
+            Measurements last = storage.getLast("metric-0", 3, new Measurements());
+            Assert.assertEquals(3, last.size());
+            Assert.assertEquals(97, last.getTimestamp(0));
+            Assert.assertEquals(99, last.getValue(2));
+
+            storage.addMeasurement("metric-0", 100, 100);
+            storage.addMeasurement("metric-0", 50, -50);
+
+            long hits = storage.getRecentStatistics().getHits();
+            Assert.assertEquals(100, storage.getLast("metric-0", 1, new Measurements()).getValue(0));
+            Assert.assertEquals(hits + 1, storage.getRecentStatistics().getHits());
+
+            // the ring only holds what has been written since it was opened
+            Measurements all = storage.getLast("metric-0", 20, new Measurements());
+            Assert.assertEquals(20, all.size());
+            Assert.assertEquals(81, all.getTimestamp(0));
+            Assert.assertEquals(-50, storage.getMeasurements("metric-0", 50, 50, new Measurements()).getValue(0));
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = config(MetricStorage.Layout.ORDERED, 0, RECENT_POINTS);
+        config.setRecentMaxBytes(2 * 16 * RECENT_POINTS + 400);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            for (int i = 0; i < NUM_METRICS; i++) {
+                storage.registerMetric("metric-" + i);
+                for (long ts = 0; ts < 10; ts++) {
+                    storage.addMeasurement("metric-" + i, ts, ts * i);
+                }
+            }
+
+            CacheStatistics stats = storage.getRecentStatistics();
+            Assert.assertEquals(2, stats.getEntries());
+            Assert.assertEquals(NUM_METRICS - 2, stats.getEvictions());
+            Assert.assertTrue(stats.getBytes() <= stats.getMaxBytes());
+
+            for (int i = 0; i < NUM_METRICS; i++) {
+                Measurements last = storage.getLast("metric-" + i, 2, new Measurements());
+                Assert.assertEquals(2, last.size());
+                Assert.assertEquals(9 * i, last.getValue(1));
+            }
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testDoubleValues() throws Exception {
+        String dir = genStorageName();
+        MetricStorage storage = new MetricStorage(dir, config(MetricStorage.Layout.ENTITY, 0, RECENT_POINTS));
+        try {
+            storage.registerMetric("double-0", MetricStorage.ValueType.DOUBLE);
+            for (long ts = 0; ts < 10; ts++) {
+                storage.addMeasurement("double-0", ts, ts / 4.0);
+            }
+
+            DoubleMeasurements last = storage.getLastDouble("double-0", 2, new DoubleMeasurements());
+            Assert.assertEquals(2, last.size());
+            Assert.assertEquals(2.0, last.getValue(0), 0);
+            Assert.assertEquals(2.25, last.getValue(1), 0);
+
+            DoubleMeasurements window = storage.getDoubleMeasurements("double-0", 7, 100, new DoubleMeasurements());
+            Assert.assertEquals(3, window.size());
+            Assert.assertEquals(1.75, window.getValue(0), 0);
+
+            try {
+                storage.getLast("double-0", 1, new Measurements());
+                Assert.fail("Type mismatch expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        String dir = genStorageName();
+        MetricStorageConfig config = config(MetricStorage.Layout.ORDERED, 0, RECENT_POINTS);
+        config.setPartitionSize(10);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.registerMetric("metric-0");
+            for (long ts = 0; ts < 30; ts++) {
+                storage.addMeasurement("metric-0", ts, ts);
+            }
+            storage.flush();
+            storage.expire(25);
+
+            // the partition that holds 25 is retained, it's read from the storage
+            Assert.assertEquals(10, storage.getMeasurements("metric-0", 15, 100, new Measurements()).size());
+            Assert.assertEquals(5, storage.getMeasurements("metric-0", 25, 100, new Measurements()).size());
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static MetricStorageConfig config(MetricStorage.Layout layout, long reorderWindow, int recentPoints) {
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(layout);
+        config.setPartitionSize(25);
+        config.setSegmentCapacity(20);
+        config.setReorderWindow(reorderWindow);
+        config.setRecentPoints(recentPoints);
+
+        // partially flushed, by the writer: the storage doesn't change in the background while it's compared
+        config.setHeadFlushInterval(TimeUnit.HOURS.toMillis(1));
+        config.setHeadMaxPoints(50);
+        return config;
+    }
+
+    private static void assertEquals(String message, Measurements expected, Measurements actual) {
+        Assert.assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(message, expected.getTimestamp(i), actual.getTimestamp(i));
+            Assert.assertEquals(message, expected.getValue(i), actual.getValue(i));
+        }
+    }
+
+    private static String genStorageName() {
+        String tmpdir = System.getProperty("java.io.tmpdir");
+        return tmpdir + File.separator + "metrics-data-"+ UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.Aggregate;
+import org.wildfly.metrics.storage.Buckets;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Out of order and duplicate measurements.
+ */
+public class ReorderTest {
+
+    /**
+     * A retried batch replaces the previous values, without adding measurements.
+     */
+    @Test
+    public void testDuplicates() throws Exception {
+        for (MetricStorage.Layout layout : MetricStorage.Layout.values()) {
+            String dir = genStorageName();
+
+            MetricStorageConfig config = new MetricStorageConfig();
+            config.setLayout(layout);
+
+            MetricStorage storage = new MetricStorage(dir, config);
+            try {
+                storage.registerMetric("metric");
+                storage.addMeasurements("metric", new long[]{1, 2, 3, 4, 5}, new long[]{1, 1, 1, 1, 1});
+                storage.addMeasurements("metric", new long[]{3, 4, 5}, new long[]{2, 2, 2});
+                storage.addMeasurement("metric", 5, 3);
+
+                assertMeasurements(layout.name(), storage.getMeasurements("metric", 0, 10, new Measurements()),
+                        new long[]{1, 2, 3, 4, 5}, new long[]{1, 1, 2, 2, 3});
+                assertMeasurements(layout.name(), storage.getMeasurements("metric", 0, 10, new Measurements(), ForkJoinPool.commonPool()),
+                        new long[]{1, 2, 3, 4, 5}, new long[]{1, 1, 2, 2, 3});
+
+                Assert.assertEquals(layout.name(), 5, storage.getAggregate("metric", 0, 10).getCount());
+                Assert.assertEquals(layout.name(), 9, storage.getAggregate("metric", 0, 10).getSum());
+            } finally {
+                storage.stop();
+            }
+
+            // the replaced values survive a restart, as well as the order
+            MetricStorage reopened = new MetricStorage(dir, config);
+            try {
+                reopened.addMeasurement("metric", 2, 4);
+                reopened.addMeasurement("metric", 6, 1);
+                assertMeasurements(layout.name(), reopened.getMeasurements("metric", 0, 10, new Measurements()),
+                        new long[]{1, 2, 3, 4, 5, 6}, new long[]{1, 4, 2, 2, 3, 1});
+            } finally {
+                reopened.stop();
+                FS.removeDir(dir);
+            }
+        }
+    }
+
+    /**
+     * Late measurements that replace stored ones are reflected by the rollups, before and after they're folded
+     * into the layout. With the head, the replaced measurements may not have been written yet.
+     */
+    @Test
+    public void testReplacedRollups() throws Exception {
+        for (MetricStorage.Layout layout : MetricStorage.Layout.values()) {
+            for (long headFlushInterval : new long[] {0, TimeUnit.MINUTES.toMillis(10)}) {
+                String dir = genStorageName();
+                String message = layout.name() + ", head flush interval " + headFlushInterval;
+
+                MetricStorageConfig config = new MetricStorageConfig();
+                config.setLayout(layout);
+                config.setHeadFlushInterval(headFlushInterval);
+
+                MetricStorage storage = new MetricStorage(dir, config);
+                try {
+                    storage.registerMetric("metric");
+                    for (int i = 0; i < 720; i++) {
+                        storage.addMeasurement("metric", i * 10000L, 10 + i % 7);
+                    }
+
+                    // the minimum of the first minute, a new minimum, a new timestamp and the maximum of the last hour
+                    storage.addMeasurement("metric", 0, 100);
+                    storage.addMeasurement("metric", 50000, 0);
+                    storage.addMeasurement("metric", 15000, 1);
+                    storage.addMeasurement("metric", 3600000, -5);
+                    storage.addMeasurement("metric", 7180000, 3);
+                    storage.addMeasurement("metric", 0, 101);
+
+                    assertRollups(message, storage);
+                    Assert.assertEquals(message, 101, storage.getMeasurements("metric", 0, 0, new Measurements()).getValue(0));
+
+                    storage.flush();
+                    assertRollups(message + ", flushed", storage);
+                } finally {
+                    storage.stop();
+                }
+
+                MetricStorage reopened = new MetricStorage(dir, config);
+                try {
+                    assertRollups(message + ", reopened", reopened);
+                    Assert.assertEquals(message, 721, reopened.getMeasurements("metric", 0, Long.MAX_VALUE, new Measurements()).size());
+                } finally {
+                    reopened.stop();
+                    FS.removeDir(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares aggregates and buckets, aligned to the rollups and not, with the raw measurements.
+     */
+    private static void assertRollups(String message, MetricStorage storage) {
+        long[][] ranges = {{0, 7199999}, {0, 59999}, {3600000, 3659999}, {5000, 4000000}, {0, Long.MAX_VALUE}};
+        for (long[] range : ranges) {
+            Measurements raw = storage.getMeasurements("metric", range[0], range[1], new Measurements());
+            Aggregate aggregate = storage.getAggregate("metric", range[0], range[1]);
+
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE, sum = 0;
+            for (int i = 0; i < raw.size(); i++) {
+                min = Math.min(min, raw.getValue(i));
+                max = Math.max(max, raw.getValue(i));
+                sum += raw.getValue(i);
+            }
+            String context = message + ", " + range[0] + "-" + range[1];
+            Assert.assertEquals(context, raw.size(), aggregate.getCount());
+            Assert.assertEquals(context, sum, aggregate.getSum());
+            Assert.assertEquals(context, min, aggregate.getMin());
+            Assert.assertEquals(context, max, aggregate.getMax());
+        }
+
+        long step = TimeUnit.MINUTES.toMillis(1);
+        Buckets buckets = storage.getBuckets("metric", 0, 7199999, step, new Buckets());
+        Assert.assertEquals(message, 120, buckets.size());
+        for (int b = 0; b < buckets.size(); b++) {
+            Measurements raw = storage.getMeasurements("metric", buckets.getStart(b), buckets.getStart(b) + step - 1, new Measurements());
+            long sum = 0, min = Long.MAX_VALUE;
+            for (int i = 0; i < raw.size(); i++) {
+                sum += raw.getValue(i);
+                min = Math.min(min, raw.getValue(i));
+            }
+            Assert.assertEquals(message + ", bucket " + b, raw.size(), buckets.getCount(b));
+            Assert.assertEquals(message + ", bucket " + b, sum, buckets.getSum(b));
+            Assert.assertEquals(message + ", bucket " + b, min, buckets.getMin(b));
+        }
+    }
+
+    /**
+     * Measurements within the window are written in order, older ones are kept apart.
+     */
+    @Test
+    public void testReorderWindow() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.CHUNKED);
+        config.setReorderWindow(100);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.registerMetric("metric");
+            storage.addMeasurements("metric", new long[]{1000, 1030, 1020, 1010}, new long[]{1, 4, 3, 2});
+
+            // buffered, but visible
+            assertMeasurements("buffered", storage.getMeasurements("metric", 0, 2000, new Measurements()),
+                    new long[]{1000, 1010, 1020, 1030}, new long[]{1, 2, 3, 4});
+
+            // advances the watermark to 1100
+            storage.addMeasurement("metric", 1200, 6);
+            storage.addMeasurement("metric", 1150, 5);
+
+            // late, the watermark has passed
+            storage.addMeasurement("metric", 1005, 0);
+            storage.addMeasurement("metric", 1020, 30);
+
+            long[] timestamps = {1000, 1005, 1010, 1020, 1030, 1150, 1200};
+            long[] values = {1, 0, 2, 30, 4, 5, 6};
+            assertMeasurements("late", storage.getMeasurements("metric", 0, 2000, new Measurements()), timestamps, values);
+
+            storage.flush();
+            assertMeasurements("flushed", storage.getMeasurements("metric", 0, 2000, new Measurements()), timestamps, values);
+            Assert.assertEquals(7, storage.getAggregate("metric", 0, 2000).getCount());
+            Assert.assertEquals(48, storage.getAggregate("metric", 0, 2000).getSum());
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Released measurements remain visible while they are written, and aren't read twice once they are.
+     */
+    @Test
+    public void testConcurrentReads() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.CHUNKED);
+        config.setReorderWindow(10);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.registerMetric("metric");
+            int n = 2000;
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 1; i <= n; i++) {
+                        storage.addMeasurement("metric", i, i);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            writer.start();
+
+            int previous = 0;
+            while (writer.isAlive()) {
+                Measurements read = storage.getMeasurements("metric", 0, n, new Measurements());
+                Assert.assertTrue("measurements disappeared", read.size() >= previous);
+                for (int i = 0; i < read.size(); i++) {
+                    Assert.assertEquals(i + 1, read.getTimestamp(i));
+                    Assert.assertEquals(i + 1, read.getValue(i));
+                }
+                previous = read.size();
+            }
+            writer.join();
+            Assert.assertNull(failure.get());
+
+            Assert.assertEquals(n, storage.getMeasurements("metric", 0, n, new Measurements()).size());
+            storage.flush();
+            Assert.assertEquals(n, storage.getAggregate("metric", 0, n).getCount());
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+        config.setPartitionSize(100);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        try {
+            storage.registerMetric("metric");
+            storage.addMeasurements("metric", new long[]{10, 20, 250}, new long[]{1, 2, 3});
+            storage.addMeasurement("metric", 210, 4);
+            storage.addMeasurement("metric", 15, 5);
+
+            Assert.assertEquals(5, storage.getMeasurements("metric", 0, 1000).size());
+
+            Assert.assertEquals(1, storage.expire(200));
+            assertMeasurements("expired", storage.getMeasurements("metric", 0, 1000, new Measurements()),
+                    new long[]{210, 250}, new long[]{4, 3});
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static void assertMeasurements(String message, Measurements actual, long[] timestamps, long[] values) {
+        Assert.assertEquals(message, timestamps.length, actual.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            Assert.assertEquals(message, timestamps[i], actual.getTimestamp(i));
+            Assert.assertEquals(message, values[i], actual.getValue(i));
+        }
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
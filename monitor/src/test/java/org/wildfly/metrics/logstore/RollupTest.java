@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wildfly.metrics.storage.Aggregate;
+import org.wildfly.metrics.storage.Buckets;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+
+import java.io.File;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bucketed queries, served from rollups or the raw data
+ */
+public class RollupTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static MetricStorage storage;
+    private static String dataDir;
+
+    @BeforeClass
+    public static void init() {
+        dataDir = genStorageName();
+        storage = new MetricStorage(dataDir, MetricStorage.Layout.ORDERED, new long[] {MINUTE, HOUR});
+
+        // two days of 30s samples, value == minute of the day
+        storage.registerMetric("r");
+        int numSamples = (int) (TimeUnit.DAYS.toMillis(2) / 30000);
+        long[] timestamps = new long[numSamples];
+        long[] values = new long[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            timestamps[i] = i * 30000L;
+            values[i] = (i / 2) % 1440;
+        }
+        storage.addMeasurements("r", timestamps, values);
+    }
+
+    @AfterClass
+    public static void cleanup() throws Exception {
+        storage.stop();
+        FS.removeDir(dataDir);
+    }
+
+    /**
+     * Rollups and raw data yield the same buckets
+     */
+    @Test
+    public void testRollupMatchesRaw() {
+
+        // 3m is served from the 1m rollup, 90s from the raw data
+        Buckets rollup = storage.getBuckets("r", 0, TimeUnit.DAYS.toMillis(2), 3 * MINUTE, new Buckets());
+        Buckets raw = storage.getBuckets("r", 0, TimeUnit.DAYS.toMillis(2), 90 * 1000, new Buckets());
+
+        Assert.assertEquals(960, rollup.size());
+        Assert.assertEquals(1920, raw.size());
+
+        for (int i = 0; i < rollup.size(); i++) {
+            Assert.assertEquals(rollup.getStart(i), raw.getStart(i * 2));
+            Assert.assertEquals(rollup.getMin(i), raw.getMin(i * 2));
+            Assert.assertEquals(rollup.getMax(i), raw.getMax(i * 2 + 1));
+            Assert.assertEquals(rollup.getSum(i), raw.getSum(i * 2) + raw.getSum(i * 2 + 1));
+            Assert.assertEquals(6, rollup.getCount(i));
+        }
+    }
+
+    /**
+     * Buckets are aligned to the step and cover it fully
+     */
+    @Test
+    public void testAlignment() {
+
+        Buckets buckets = storage.getBuckets("r", HOUR + 1, 3 * HOUR - 1, HOUR, new Buckets());
+
+        Assert.assertEquals(2, buckets.size());
+        Assert.assertEquals(HOUR, buckets.getStart(0));
+        Assert.assertEquals(2 * HOUR, buckets.getStart(1));
+        Assert.assertEquals(120, buckets.getCount(0));
+        Assert.assertEquals(60, buckets.getMin(0));
+        Assert.assertEquals(119, buckets.getMax(0));
+        Assert.assertEquals(89.5, buckets.getAverage(0), 0.0);
+    }
+
+    /**
+     * Aggregates over arbitrary ranges match the raw data
+     */
+    @Test
+    public void testAggregate() {
+
+        Random random = new Random(42);
+        Measurements raw = new Measurements();
+
+        for (int n = 0; n < 50; n++) {
+            long from = (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(1));
+            long to = from + (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(1));
+
+            storage.getMeasurements("r", from, to, raw);
+            Aggregate aggregate = storage.getAggregate("r", from, to);
+
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE, sum = 0;
+            for (int i = 0; i < raw.size(); i++) {
+                min = Math.min(min, raw.getValue(i));
+                max = Math.max(max, raw.getValue(i));
+                sum += raw.getValue(i);
+            }
+
+            Assert.assertEquals(raw.size(), aggregate.getCount());
+            Assert.assertEquals(min, aggregate.getMin());
+            Assert.assertEquals(max, aggregate.getMax());
+            Assert.assertEquals(sum, aggregate.getSum());
+            Assert.assertEquals(raw.getTimestamp(raw.size() - 1), aggregate.getLastTimestamp());
+            Assert.assertEquals(raw.getValue(raw.size() - 1), aggregate.getLast());
+        }
+
+        Assert.assertTrue(storage.getAggregate("r", -100, -1).isEmpty());
+        Assert.assertEquals(Double.NaN, storage.getAggregate("r", -100, -1).getAverage(), 0.0);
+    }
+
+    /**
+     * Rollups that have been added later are populated from the raw data
+     */
+    @Test
+    public void testBackfill() throws Exception {
+        String dir = genStorageName();
+        MetricStorage first = new MetricStorage(dir, MetricStorage.Layout.ENTITY, new long[0]);
+        first.registerMetric("b");
+        first.addMeasurements("b", new long[] {0, MINUTE, HOUR}, new long[] {1, 2, 3});
+        first.stop();
+
+        MetricStorage second = new MetricStorage(dir, MetricStorage.Layout.ENTITY, new long[] {HOUR});
+        try {
+            second.addMeasurement("b", HOUR + 1, 4);
+
+            Buckets buckets = second.getBuckets("b", 0, 2 * HOUR, HOUR, new Buckets());
+            Assert.assertEquals(2, buckets.size());
+            Assert.assertEquals(3, buckets.getSum(0));
+            Assert.assertEquals(2, buckets.getCount(0));
+            Assert.assertEquals(7, buckets.getSum(1));
+            Assert.assertEquals(2, buckets.getCount(1));
+        } finally {
+            second.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wildfly.metrics.storage.Buckets;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Same as {@link MetricStoreTest}, but using the {@link MetricStorage.Layout#SEGMENTS} layout.
+ */
+public class SegmentStoreTest {
+
+    private static MetricStorage storage;
+    private static String dataDir;
+
+    @BeforeClass
+    public static void init() {
+        dataDir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.SEGMENTS);
+        config.setSegmentCapacity(1000);
+
+        storage = new MetricStorage(dataDir, config);
+        System.out.println("DataDir: "+dataDir);
+    }
+
+    @AfterClass
+    public static void cleanup() throws Exception {
+        storage.stop();
+        FS.removeDir(dataDir);
+    }
+
+    /**
+     * Creation of measurements and retrieval
+     */
+    @Test
+    public void testMeasurements() {
+
+        storage.registerMetric("h");
+
+        storage.addMeasurement("h", 10, 1);
+        storage.addMeasurement("h", 20, 2);
+        storage.addMeasurement("h", 30, 3);
+        storage.addMeasurement("h", 40, 4);
+
+        List<Long[]> results = storage.getMeasurements("h", 15, 35);
+
+        Assert.assertEquals("Expected two results for range query", 2, results.size());
+        Assert.assertEquals(Long.valueOf(20), results.get(0)[0]);
+        Assert.assertEquals(Long.valueOf(2), results.get(0)[1]);
+        Assert.assertEquals(Long.valueOf(30), results.get(1)[0]);
+        Assert.assertEquals(Long.valueOf(3), results.get(1)[1]);
+    }
+
+    /**
+     * Ranges that span several segments and start between the entries of the sparse index
+     */
+    @Test
+    public void testSegmentBoundaries() {
+
+        storage.registerMetric("i");
+        storage.registerMetric("j");
+
+        for (long ts = 0; ts < 5000; ts++) {
+            storage.addMeasurements("i", new long[]{ts}, new long[]{ts * 2});
+            storage.addMeasurements("j", new long[]{ts}, new long[]{-ts});
+        }
+
+        long[][] ranges = {{0, 4999}, {1, 1}, {129, 130}, {999, 1000}, {1500, 3700}, {4999, 10000}, {5000, 6000}};
+        for (long[] range : ranges) {
+            Measurements results = storage.getMeasurements("i", range[0], range[1], new Measurements());
+            long expected = Math.max(0, Math.min(range[1], 4999) - range[0] + 1);
+            Assert.assertEquals("Range "+Arrays.toString(range), expected, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(range[0] + i, results.getTimestamp(i));
+                Assert.assertEquals((range[0] + i) * 2, results.getValue(i));
+            }
+        }
+    }
+
+    /**
+     * Measurements that arrive out of order start a new segment
+     */
+    @Test
+    public void testOutOfOrder() {
+
+        storage.registerMetric("k");
+
+        storage.addMeasurement("k", 200, 2);
+        storage.addMeasurement("k", 100, 1);
+        storage.addMeasurement("k", 300, 3);
+
+        Measurements results = storage.getMeasurements("k", 0, 1000, new Measurements());
+        long[] timestamps = Arrays.copyOf(results.getTimestamps(), results.size());
+        Arrays.sort(timestamps);
+        Assert.assertArrayEquals(new long[] {100, 200, 300}, timestamps);
+
+        Assert.assertEquals(1, storage.getMeasurements("k", 150, 250).size());
+    }
+
+    /**
+     * Segments survive a restart, whole segments expire
+     */
+    @Test
+    public void testExpire() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.SEGMENTS);
+        config.setSegmentCapacity(10);
+
+        MetricStorage first = new MetricStorage(dir, config);
+        first.registerMetric("m");
+        for (long ts = 0; ts < 500; ts += 10) {
+            first.addMeasurement("m", ts, ts);
+        }
+        first.stop();
+
+        MetricStorage second = new MetricStorage(dir, config);
+        try {
+            Assert.assertEquals(50, second.getMeasurements("m", 0, 1000).size());
+
+            // [0, 90] and [100, 190] end before 250
+            Assert.assertEquals(2, second.expire(250));
+            Assert.assertEquals(0, second.expire(250));
+
+            List<Long[]> results = second.getMeasurements("m", 0, 1000);
+            Assert.assertEquals(30, results.size());
+            Assert.assertEquals(Long.valueOf(200), results.get(0)[0]);
+
+            // appending continues in the last segment
+            second.addMeasurement("m", 500, 500);
+            Assert.assertEquals(31, second.getMeasurements("m", 0, 1000).size());
+
+            // rollups are retained
+            Assert.assertEquals(51, second.getBuckets("m", 0, 1000, 60000, new Buckets()).getCount(0));
+        } finally {
+            second.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Segments are forced with each write, including those that fill up a segment and start the next one
+     */
+    @Test
+    public void testDurableWrites() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.SEGMENTS);
+        config.setSegmentCapacity(10);
+        config.setDurableWrites(true);
+
+        MetricStorage first = new MetricStorage(dir, config);
+        first.registerMetric("d");
+        for (long ts = 0; ts < 25; ts++) {
+            first.addMeasurement("d", ts, ts);
+        }
+        first.stop();
+
+        MetricStorage second = new MetricStorage(dir, config);
+        try {
+            Assert.assertEquals(25, second.getMeasurements("d", 0, 100).size());
+            second.addMeasurement("d", 100, 100);
+            second.flush();
+            Assert.assertEquals(26, second.getMeasurements("d", 0, 100).size());
+        } finally {
+            second.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Labels;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+import org.wildfly.metrics.storage.ShardedMetricStorage;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Writes by series id, and the persistence of the name to id assignment.
+ */
+public class SeriesIdTest {
+
+    @Test
+    public void testStableIds() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+
+        MetricStorage storage = new MetricStorage(dir, config);
+        int heap, threads;
+        try {
+            heap = storage.getOrCreateSeries("heap", Labels.of("host", "a"));
+            threads = storage.getOrCreateSeries("threads");
+            Assert.assertNotEquals(heap, threads);
+            Assert.assertEquals(heap, storage.getOrCreateSeries("heap"));
+            Assert.assertEquals(Labels.of("host", "a"), storage.getLabels("heap"));
+
+            // labels are assigned to metrics that don't carry any yet
+            Assert.assertEquals(threads, storage.getOrCreateSeries("threads", Labels.of("host", "b")));
+            Assert.assertEquals(Labels.of("host", "b"), storage.getLabels("threads"));
+
+            storage.addMeasurement(heap, 1, 512);
+
+            // points added by name and by id are combined
+            MeasurementBatch batch = new MeasurementBatch()
+                    .add(heap, 2, 1024)
+                    .add("heap", 3, 2048)
+                    .add(threads, 2, 42);
+            storage.addMeasurements(batch);
+            storage.addMeasurementAsync(threads, 3, 43).get();
+        } finally {
+            storage.stop();
+        }
+
+        storage = new MetricStorage(dir, config);
+        try {
+            Assert.assertEquals(heap, storage.getOrCreateSeries("heap"));
+            Assert.assertEquals(threads, storage.getOrCreateSeries("threads"));
+            Assert.assertEquals("heap", storage.getMetricName(heap));
+
+            Assert.assertEquals(3, storage.getMeasurements("heap", 0, 10).size());
+            Assert.assertEquals(3584, storage.getAggregate("heap", 0, 10).getSum());
+            Assert.assertEquals(85, storage.getAggregate("threads", 0, 10).getSum());
+
+            try {
+                storage.addMeasurement(threads + 1, 4, 0);
+                Assert.fail("Expected an unknown series to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    @Test
+    public void testShardedIds() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+
+        ShardedMetricStorage storage = new ShardedMetricStorage(dir, 4, config);
+        try {
+            Set<Integer> ids = new HashSet<>();
+            MeasurementBatch batch = new MeasurementBatch();
+            for (int i = 0; i < 20; i++) {
+                int id = storage.getOrCreateSeries("metric-" + i);
+                ids.add(id);
+                batch.add(id, 0, i);
+            }
+
+            // ids are unique across the shards
+            Assert.assertEquals(20, ids.size());
+            storage.addMeasurements(batch);
+
+            for (int i = 0; i < 20; i++) {
+                int id = storage.getOrCreateSeries("metric-" + i);
+                Assert.assertEquals("metric-" + i, storage.getMetricName(id));
+                Assert.assertEquals(i, storage.getAggregate("metric-" + i, 0, 0).getSum());
+            }
+        } finally {
+            storage.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static String genStorageName() {
+        String tmpdir = System.getProperty("java.io.tmpdir");
+        return tmpdir + File.separator + "metrics-data-"+ UUID.randomUUID().toString();
+    }
+}
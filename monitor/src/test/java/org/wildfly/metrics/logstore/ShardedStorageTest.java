@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.MeasurementBatch;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+import org.wildfly.metrics.storage.ShardedMetricStorage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Routing of metrics across the shards of a {@link ShardedMetricStorage}.
+ */
+public class ShardedStorageTest {
+
+    private static final int NUM_METRICS = 20;
+
+    @Test
+    public void testRouting() throws Exception {
+        String dir = genStorageName();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(MetricStorage.Layout.ORDERED);
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < NUM_METRICS; i++) {
+            names.add("metric-" + i);
+        }
+
+        ShardedMetricStorage storage = new ShardedMetricStorage(dir, 4, config);
+        try {
+            storage.registerIfAbsent(names);
+            Assert.assertEquals(new HashSet<>(names), storage.getMetricNames());
+
+            MeasurementBatch batch = new MeasurementBatch();
+            for (long ts = 0; ts < 10; ts++) {
+                for (int i = 0; i < NUM_METRICS; i++) {
+                    batch.add(names.get(i), ts, i);
+                }
+            }
+            storage.addMeasurements(batch);
+            storage.addMeasurement("metric-0", 10, 0);
+
+            // each metric lives in exactly one shard
+            Set<MetricStorage> used = new HashSet<>();
+            for (int i = 0; i < NUM_METRICS; i++) {
+                String name = names.get(i);
+                MetricStorage shard = storage.getShard(name);
+                used.add(shard);
+
+                Assert.assertTrue(shard.getMetricNames().contains(name));
+                Assert.assertEquals(i == 0 ? 11 : 10, storage.getMeasurements(name, 0, 100).size());
+                Assert.assertEquals(i * 10, storage.getAggregate(name, 0, 9).getSum());
+            }
+            Assert.assertTrue("Expected the metrics to be spread across shards", used.size() > 1);
+
+            Assert.assertEquals(0, storage.expire(Long.MIN_VALUE));
+        } finally {
+            storage.stop();
+        }
+
+        // the number of shards can't be changed
+        try {
+            new ShardedMetricStorage(dir, 2, config);
+            Assert.fail("Expected the number of shards to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        ShardedMetricStorage reopened = new ShardedMetricStorage(dir, 4, config);
+        try {
+            Assert.assertEquals(NUM_METRICS, reopened.getMetricNames().size());
+            Assert.assertEquals(11, reopened.getMeasurements("metric-0", 0, 100).size());
+        } finally {
+            reopened.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    /**
+     * Shards in separate directories, i.e. on different disks
+     */
+    @Test
+    public void testDirectories() throws Exception {
+        List<String> dirs = Arrays.asList(genStorageName(), genStorageName());
+
+        ShardedMetricStorage storage = new ShardedMetricStorage(dirs, new MetricStorageConfig());
+        try {
+            for (int i = 0; i < NUM_METRICS; i++) {
+                storage.registerMetric("metric-" + i);
+                storage.addMeasurements("metric-" + i, new long[]{1, 2}, new long[]{i, i});
+            }
+
+            for (int i = 0; i < NUM_METRICS; i++) {
+                Assert.assertEquals(2, storage.getMeasurements("metric-" + i, 0, 10).size());
+            }
+
+            for (String dir : dirs) {
+                Assert.assertTrue(new File(dir, "shard").exists());
+            }
+        } finally {
+            storage.stop();
+            for (String dir : dirs) {
+                FS.removeDir(dir);
+            }
+        }
+    }
+
+    private static String genStorageName() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.logstore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.metrics.storage.Aggregate;
+import org.wildfly.metrics.storage.FS;
+import org.wildfly.metrics.storage.Measurements;
+import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
+
+import java.io.File;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates that are answered from the summaries of chunks and segments, without rollups.
+ */
+public class SummaryTest {
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    @Test
+    public void testChunkSummaries() throws Exception {
+        verify(MetricStorage.Layout.CHUNKED);
+    }
+
+    @Test
+    public void testSegmentSummaries() throws Exception {
+        verify(MetricStorage.Layout.SEGMENTS);
+    }
+
+    private void verify(MetricStorage.Layout layout) throws Exception {
+        String dir = System.getProperty("java.io.tmpdir") + File.separator + "metrics-data-" + UUID.randomUUID().toString();
+
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setLayout(layout);
+        config.setRollupResolutions(new long[0]);
+        config.setSegmentCapacity(100);
+
+        Random random = new Random(42);
+
+        MetricStorage first = new MetricStorage(dir, config);
+        first.registerMetric("s");
+        for (int i = 0; i < 2000; i++) {
+            first.addMeasurement("s", i * INTERVAL, random.nextInt(1000) - 500);
+        }
+        // late measurements
+        first.addMeasurement("s", 10 * INTERVAL + 1, 10000);
+        first.addMeasurement("s", 1500 * INTERVAL + 1, -10000);
+        first.stop();
+
+        // the summaries survive a restart
+        MetricStorage second = new MetricStorage(dir, config);
+        try {
+            Measurements raw = new Measurements();
+            for (int n = 0; n < 50; n++) {
+                long from = (long) (random.nextDouble() * 2000 * INTERVAL);
+                long to = from + (long) (random.nextDouble() * 1000 * INTERVAL);
+                assertAggregate(second, from, to, raw);
+            }
+            assertAggregate(second, Long.MIN_VALUE, Long.MAX_VALUE, raw);
+        } finally {
+            second.stop();
+            FS.removeDir(dir);
+        }
+    }
+
+    private static void assertAggregate(MetricStorage storage, long from, long to, Measurements raw) {
+        storage.getMeasurements("s", from, to, raw);
+        Aggregate aggregate = storage.getAggregate("s", from, to);
+
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE, sum = 0, lastTimestamp = Long.MIN_VALUE, last = 0;
+        for (int i = 0; i < raw.size(); i++) {
+            min = Math.min(min, raw.getValue(i));
+            max = Math.max(max, raw.getValue(i));
+            sum += raw.getValue(i);
+            if(raw.getTimestamp(i) >= lastTimestamp)
+            {
+                lastTimestamp = raw.getTimestamp(i);
+                last = raw.getValue(i);
+            }
+        }
+
+        String range = "["+from+", "+to+"]";
+        Assert.assertEquals(range, raw.size(), aggregate.getCount());
+        if(raw.isEmpty())
+            return;
+
+        Assert.assertEquals(range, min, aggregate.getMin());
+        Assert.assertEquals(range, max, aggregate.getMax());
+        Assert.assertEquals(range, sum, aggregate.getSum());
+        Assert.assertEquals(range, lastTimestamp, aggregate.getLastTimestamp());
+        Assert.assertEquals(range, last, aggregate.getLast());
+    }
+}
@@ -21,17 +21,31 @@ package org.wildfly.metrics.server;
 
 import io.undertow.Undertow;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
 import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
 import org.jetbrains.annotations.NotNull;
-import org.joda.time.DateTime;
+import org.wildfly.metrics.storage.CacheStatistics;
+import org.wildfly.metrics.storage.DoubleMeasurementVisitor;
 import org.wildfly.metrics.storage.FS;
 import org.wildfly.metrics.storage.MetricStorage;
+import org.wildfly.metrics.storage.MetricStorageConfig;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Deque;
-import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static io.undertow.Handlers.path;
 
@@ -45,10 +59,23 @@ public class Server {
 
     private final String dataDir;
     private final MetricStorage storage;
+    private final WindowCache windows;
 
     public Server() {
         dataDir = genStorageName();
-        storage = new MetricStorage(dataDir);
+
+        // recent measurements are served from memory
+        MetricStorageConfig config = new MetricStorageConfig();
+        config.setHeadFlushInterval(TimeUnit.SECONDS.toMillis(5));
+        config.setLayout(MetricStorage.Layout.valueOf(System.getProperty("storage.layout", "ENTITY")));
+
+        // the newest measurements of each metric answer the short windows without reading the storage
+        config.setRecentPoints(1024);
+        storage = new MetricStorage(dataDir, config);
+
+        // concurrent requests for the same window within a second share a result,
+        // measurements that haven't been committed yet when a window is cached are picked up with the next one
+        windows = new WindowCache(storage, TimeUnit.SECONDS.toMillis(1), config.getCommitMaxDelay());
     }
 
     public static void main(String[] args) throws Exception
@@ -62,84 +89,72 @@ public class Server {
                                 .addPrefixPath("/api/put", exchange -> {
                                     Map<String, Deque<String>> params = exchange.getQueryParameters();
 
-                                    server.writeMetric(
+                                    CompletableFuture<Void> written = server.writeMetric(
                                             params.get("metric").getFirst(),
-                                            Long.valueOf(params.get("value").getFirst())
+                                            Double.parseDouble(params.get("value").getFirst())
                                     );
+
+                                    // respond once the measurement has been committed, without blocking the I/O thread
+                                    exchange.dispatch(SameThreadExecutor.INSTANCE, () -> written.whenComplete((result, failure) -> {
+                                        if(failure != null)
+                                            exchange.setResponseCode(failure instanceof RejectedExecutionException ?
+                                                    StatusCodes.SERVICE_UNAVAILABLE : StatusCodes.INTERNAL_SERVER_ERROR);
+                                        exchange.endExchange();
+                                    }));
                                 })
 
-                                .addPrefixPath("/api/get", exchange -> {
+                                .addPrefixPath("/api/get", new BlockingHandler(exchange -> {
                                     Map<String, Deque<String>> params = exchange.getQueryParameters();
 
-                                    List<Long[]> values = server.readSlice(
+                                    server.streamSlice(
+                                            exchange, params,
                                             params.get("metric").getFirst(),
                                             () -> {
                                                 return new long[]{0, System.currentTimeMillis()};
                                             }
                                     );
+                                }))
 
-                                    payload(exchange, params, values);
-
-                                })
-
-                                .addPrefixPath("/api/get15s", exchange -> {
+                                .addPrefixPath("/api/get15s", new BlockingHandler(exchange -> {
                                     Map<String, Deque<String>> params = exchange.getQueryParameters();
+                                    server.streamWindow(exchange, params, params.get("metric").getFirst(), TimeUnit.SECONDS.toMillis(15));
+                                }))
 
-                                    List<Long[]> values = server.readSlice(
-                                            params.get("metric").getFirst(),
-                                            () -> {
-                                                DateTime dt = new DateTime();
-                                                DateTime offset = dt.minusSeconds(15);
-                                                return new long[]{offset.getMillis(), System.currentTimeMillis()};
-                                            }
-                                    );
-
-                                    payload(exchange, params, values);
-                                })
-
-                                .addPrefixPath("/api/get30s", exchange -> {
+                                .addPrefixPath("/api/get30s", new BlockingHandler(exchange -> {
                                     Map<String, Deque<String>> params = exchange.getQueryParameters();
+                                    server.streamWindow(exchange, params, params.get("metric").getFirst(), TimeUnit.SECONDS.toMillis(30));
+                                }))
 
-                                    List<Long[]> values = server.readSlice(
-                                            params.get("metric").getFirst(),
-                                            () -> {
-                                                DateTime dt = new DateTime();
-                                                DateTime offset = dt.minusSeconds(30);
-                                                return new long[]{offset.getMillis(), System.currentTimeMillis()};
-                                            }
-                                    );
-
-                                    payload(exchange, params, values);
-                                })
-
-                                .addPrefixPath("/api/get1m", exchange -> {
+                                .addPrefixPath("/api/get1m", new BlockingHandler(exchange -> {
                                     Map<String, Deque<String>> params = exchange.getQueryParameters();
+                                    server.streamWindow(exchange, params, params.get("metric").getFirst(), TimeUnit.MINUTES.toMillis(1));
+                                }))
 
-                                    List<Long[]> values = server.readSlice(
-                                            params.get("metric").getFirst(),
-                                            () -> {
-                                                DateTime dt = new DateTime();
-                                                DateTime offset = dt.minusMinutes(1);
-                                                return new long[]{offset.getMillis(), System.currentTimeMillis()};
-                                            }
-                                    );
-
-                                    payload(exchange, params, values);
-                                })
-
-                                .addPrefixPath("/api/get1h", exchange -> {
+                                .addPrefixPath("/api/get1h", new BlockingHandler(exchange -> {
                                     Map<String, Deque<String>> params = exchange.getQueryParameters();
-
-                                    List<Long[]> values = server.readSlice(
-                                            params.get("metric").getFirst(),
-                                            () -> {
-                                                DateTime dt = new DateTime();
-                                                DateTime offset = dt.minusHours(1);
-                                                return new long[]{offset.getMillis(), System.currentTimeMillis()};
-                                            }
+                                    server.streamWindow(exchange, params, params.get("metric").getFirst(), TimeUnit.HOURS.toMillis(1));
+                                }))
+
+                                .addPrefixPath("/api/stats", exchange -> {
+                                    CacheStatistics stats = server.storage.getCacheStatistics();
+                                    CacheStatistics recent = server.storage.getRecentStatistics();
+                                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                                    exchange.getResponseSender().send(
+                                            "{\"cache\":{\"maxBytes\":" + stats.getMaxBytes()
+                                                    + ",\"bytes\":" + stats.getBytes()
+                                                    + ",\"entries\":" + stats.getEntries()
+                                                    + ",\"hits\":" + stats.getHits()
+                                                    + ",\"misses\":" + stats.getMisses()
+                                                    + ",\"evictions\":" + stats.getEvictions() + "}"
+                                                    + ",\"recent\":{\"maxBytes\":" + recent.getMaxBytes()
+                                                    + ",\"bytes\":" + recent.getBytes()
+                                                    + ",\"entries\":" + recent.getEntries()
+                                                    + ",\"hits\":" + recent.getHits()
+                                                    + ",\"misses\":" + recent.getMisses() + "}"
+                                                    + ",\"windows\":{\"hits\":" + server.windows.getHits()
+                                                    + ",\"misses\":" + server.windows.getMisses()
+                                                    + ",\"extensions\":" + server.windows.getExtensions() + "}}"
                                     );
-
-                                    payload(exchange, params, values);
                                 })
 
                                 .addPrefixPath("/", exchange -> {
@@ -158,28 +173,58 @@ public class Server {
         server.stop();
     }
 
-    private static void payload(HttpServerExchange exchange, Map<String, Deque<String>> params, List<Long[]> values) {
+    /**
+     * Streams the measurements as a JSON array, while they are read from the storage.
+     * Requires a blocking exchange.
+     */
+    private void streamSlice(HttpServerExchange exchange, Map<String, Deque<String>> params, String name, Slice slice) throws IOException {
+        long[] tuple = slice.get();
+
         // nudge disables the response being written
         // useful within the context of a load test
-        if (!params.keySet().contains("nudge")) {
-            StringBuffer sb = new StringBuffer();
-            sb.append("[");
-
-            values.forEach(t -> {
-                sb.append("{\"ms\":").append(t[0]).append(",");
-                sb.append("\"val\":").append(t[1]);
-                sb.append("},\n");
-            });
-            sb.replace(sb.length()-2, sb.length()-1, "");
-            sb.append("]");
-            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
-            exchange.getResponseSender().send(sb.toString());
+        if (params.keySet().contains("nudge")) {
+            storage.visitDoubleMeasurements(name, tuple[0], tuple[1], (timestamp, value) -> {});
+            return;
         }
+
+        writeJson(exchange, visitor -> storage.visitDoubleMeasurements(name, tuple[0], tuple[1], visitor));
     }
 
-    private List<Long[]> readSlice(String name, Slice slice) {
-        long[] tuple = slice.get();
-        return readMetric(name, tuple[0], tuple[1]);
+    /**
+     * Serves the most recent measurements from the {@link WindowCache}.
+     */
+    private void streamWindow(HttpServerExchange exchange, Map<String, Deque<String>> params, String name, long length) throws IOException {
+        WindowCache.Window window = windows.get(name, length, System.currentTimeMillis());
+
+        if (params.keySet().contains("nudge"))
+            return;
+
+        writeJson(exchange, window::visit);
+    }
+
+    /**
+     * Streams the measurements passed to the visitor as a JSON array.
+     */
+    private static void writeJson(HttpServerExchange exchange, Consumer<DoubleMeasurementVisitor> source) throws IOException {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getOutputStream(), StandardCharsets.UTF_8));
+        writer.write("[");
+
+        boolean[] first = {true};
+        source.accept((timestamp, value) -> {
+            try {
+                if(!first[0])
+                    writer.write(",\n");
+                first[0] = false;
+                writer.write("{\"ms\":" + timestamp + ",\"val\":" + value + "}");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        writer.write("]");
+        writer.close();
     }
 
     interface Slice {
@@ -193,6 +238,7 @@ public class Server {
 
     private void stop() {
         try {
+            storage.stop();
             FS.removeDir(dataDir);
             System.out.println("Stopped server");
         } catch (Exception e) {
@@ -200,19 +246,9 @@ public class Server {
         }
     }
 
-    private void writeMetric(String metric, Long value) {
-        if(!storage.getMetricNames().contains(metric))
-            storage.registerMetric(metric);
-        storage.addMeasurement(metric, System.currentTimeMillis(), value);
-    }
-
-    private List<Long[]> readMetric(String metric) {
-        long now = System.currentTimeMillis();
-        return storage.getMeasurements(metric, 0, now);
-    }
-
-    private List<Long[]> readMetric(String metric, long from, long to) {
-        return storage.getMeasurements(metric, from, to);
+    private CompletableFuture<Void> writeMetric(String metric, double value) {
+        storage.registerIfAbsent(metric, MetricStorage.ValueType.DOUBLE);
+        return storage.addMeasurementAsync(metric, System.currentTimeMillis(), value);
     }
 
     @NotNull
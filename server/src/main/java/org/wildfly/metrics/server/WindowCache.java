@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wildfly.metrics.server;
+
+import org.wildfly.metrics.storage.DoubleMeasurementVisitor;
+import org.wildfly.metrics.storage.DoubleMeasurements;
+import org.wildfly.metrics.storage.MetricStore;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the results of queries for the most recent measurements of a metric, i.e. the last 15 seconds.
+ * <p>
+ * A window ends at the current time, aligned down to the step (exclusive), so that all requests within
+ * the same step share a result. When the window moves on, only the measurements since the previous end
+ * are read from the storage, the ones that dropped out of the window are discarded.
+ * <p>
+ * Writes become visible some time after their timestamp, i.e. once the group commit has written them
+ * (see {@link org.wildfly.metrics.storage.MetricStorageConfig#setCommitMaxDelay(long)}). The last <code>margin</code> ms
+ * before the previous end are therefore read again when the window moves on. Measurements that become visible
+ * later than that are not reflected until they are read in full again.
+ */
+class WindowCache {
+
+    private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private final MetricStore storage;
+    private final long step;
+    private final long margin;
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder extensions = new LongAdder();
+
+    /**
+     * @param margin the time (ms) after which writes are visible, at least the maximum delay of the group commit
+     */
+    WindowCache(MetricStore storage, long step, long margin) {
+        this.storage = storage;
+        this.step = step;
+        this.margin = margin;
+    }
+
+    /**
+     * @param metric
+     * @param length the size of the window in ms
+     * @param now
+     * @return the measurements within <code>[end - length, end)</code>, where <code>end</code> is <code>now</code> aligned to the step
+     */
+    Window get(String metric, long length, long now) {
+        long end = Math.floorDiv(now, step) * step;
+
+        Entry entry = entries.computeIfAbsent(new Key(metric, length), key -> new Entry());
+        entry.lastAccess = now;
+
+        Window window = entry.get(metric, length, end);
+
+        sweep(now);
+        return window;
+    }
+
+    /**
+     * Drops the windows that haven't been requested for a while, at most once per step
+     */
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if(now - last < step || !lastSweep.compareAndSet(last, now))
+            return;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if(now - it.next().lastAccess > IDLE_TIMEOUT)
+                it.remove();
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getExtensions() {
+        return extensions.sum();
+    }
+
+    private class Entry {
+
+        volatile long lastAccess;
+
+        // guarded by this
+        private Window current;
+
+        synchronized Window get(String metric, long length, long end) {
+            if(current != null && current.end >= end)
+            {
+                hits.increment();
+                return current;
+            }
+
+            long start = end - length;
+            DoubleMeasurements points;
+            if(null == current || current.end <= start)
+            {
+                misses.increment();
+                points = storage.getDoubleMeasurements(metric, start, end - 1, new DoubleMeasurements());
+            }
+            else
+            {
+                // the measurements within the margin may not have been visible when they were cached
+                long reread = Math.max(start, current.end - margin);
+                extensions.increment();
+                points = new DoubleMeasurements();
+                current.visit((timestamp, value) -> {
+                    if(timestamp >= start && timestamp < reread)
+                        points.add(timestamp, value);
+                });
+                storage.visitDoubleMeasurements(metric, reread, end - 1, points::add);
+            }
+
+            current = new Window(end, points);
+            return current;
+        }
+    }
+
+    /**
+     * An immutable result, visited by concurrent requests.
+     */
+    static final class Window {
+        private final long end;
+        private final long[] timestamps;
+        private final double[] values;
+        private final int size;
+
+        private Window(long end, DoubleMeasurements points) {
+            this.end = end;
+            this.timestamps = points.getTimestamps();
+            this.values = points.getValues();
+            this.size = points.size();
+        }
+
+        void visit(DoubleMeasurementVisitor visitor) {
+            for (int i = 0; i < size; i++) {
+                visitor.visit(timestamps[i], values[i]);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String metric;
+        private final long length;
+
+        Key(String metric, long length) {
+            this.metric = metric;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return length == key.length && metric.equals(key.metric);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metric, length);
+        }
+    }
+}